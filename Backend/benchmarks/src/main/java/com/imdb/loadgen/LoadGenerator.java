@@ -0,0 +1,249 @@
+package com.imdb.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a request mix against either service with a fixed number of
+ * closed-loop clients and reports throughput and latency percentiles.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.imdb.loadgen.LoadGenerator \
+ *     --base http://localhost:3010 --mix mixes/suggestor.txt --threads 32 --duration 60
+ * </pre>
+ *
+ * Mix lines are {@code [weight] METHOD /path [json body]}, or nginx access log
+ * lines, whose request line is replayed. Requests are issued in file order,
+ * repeated by weight. Being closed-loop, latencies under overload understate
+ * what an open arrival rate would see.
+ */
+public class LoadGenerator {
+    private static final Pattern ACCESS_LOG = Pattern.compile("\"(GET|POST|PUT|DELETE) (\\S+) HTTP/[0-9.]+\"");
+
+    static final class Request {
+        final String method;
+        final String path;
+        final String body;
+
+        Request(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+    /** Latencies of one client thread, in nanoseconds. */
+    static final class Recorder {
+        long[] latencies = new long[1 << 14];
+        String[] routes = new String[1 << 14];
+        int n;
+
+        void add(String route, long nanos) {
+            if (n == latencies.length) {
+                latencies = Arrays.copyOf(latencies, n * 2);
+                routes = Arrays.copyOf(routes, n * 2);
+            }
+            latencies[n] = nanos;
+            routes[n] = route;
+            n++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        String base = opts.get("base");
+        String mixFile = opts.get("mix");
+        if (base == null || mixFile == null) {
+            System.err.println("usage: LoadGenerator --base URL --mix FILE [--threads 16] [--duration 30] [--warmup 5] [--gzip true] [--json out.json]");
+            System.exit(2);
+        }
+        int threads = Integer.parseInt(opts.getOrDefault("threads", "16"));
+        long durationNanos = Duration.ofSeconds(Long.parseLong(opts.getOrDefault("duration", "30"))).toNanos();
+        long warmupNanos = Duration.ofSeconds(Long.parseLong(opts.getOrDefault("warmup", "5"))).toNanos();
+        boolean gzip = Boolean.parseBoolean(opts.getOrDefault("gzip", "true"));
+
+        List<Request> mix = readMix(mixFile);
+        if (mix.isEmpty()) throw new IllegalArgumentException("No requests in " + mixFile);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        AtomicLong next = new AtomicLong();
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        LongAdder failures = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        Recorder[] recorders = new Recorder[threads];
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Recorder rec = new Recorder();
+            recorders[t] = rec;
+            Thread w = new Thread(() -> {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now >= end) return;
+                    Request r = mix.get((int) (next.getAndIncrement() % mix.size()));
+                    HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + r.path)).timeout(Duration.ofSeconds(60));
+                    if (gzip) b.header("Accept-Encoding", "gzip");
+                    if (r.body != null) {
+                        b.header("Content-Type", "application/json").method(r.method, HttpRequest.BodyPublishers.ofString(r.body));
+                    } else {
+                        b.method(r.method, HttpRequest.BodyPublishers.noBody());
+                    }
+                    long sent = System.nanoTime();
+                    int status;
+                    try {
+                        HttpResponse<byte[]> resp = client.send(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+                        status = resp.statusCode();
+                        if (sent >= measureFrom) bytes.add(resp.body().length);
+                    } catch (IOException e) {
+                        status = -1;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long took = System.nanoTime() - sent;
+                    if (sent < measureFrom) continue;
+                    if (status < 0) failures.increment();
+                    else statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+                    rec.add(route(r.path), took);
+                }
+            }, "loadgen-" + t);
+            w.start();
+            workers.add(w);
+        }
+        for (Thread w : workers) w.join();
+
+        Map<String, Object> report = report(recorders, durationNanos, statuses, failures.sum(), bytes.sum());
+        report.put("base", base);
+        report.put("mix", mixFile);
+        report.put("threads", threads);
+        print(report);
+        if (opts.containsKey("json")) {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(Paths.get(opts.get("json")).toFile(), report);
+        }
+    }
+
+    static List<Request> readMix(String file) throws IOException {
+        List<Request> out = new ArrayList<>();
+        for (String raw : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            Matcher m = ACCESS_LOG.matcher(line);
+            if (m.find()) {
+                out.add(new Request(m.group(1), m.group(2), null));
+                continue;
+            }
+            int weight = 1;
+            if (Character.isDigit(line.charAt(0))) {
+                String[] w = line.split("\\s+", 2);
+                weight = Integer.parseInt(w[0]);
+                line = w[1];
+            }
+            String[] parts = line.split("\\s+", 3);
+            Request r = new Request(parts[0], parts[1], parts.length > 2 ? parts[2] : null);
+            for (int i = 0; i < weight; i++) out.add(r);
+        }
+        return out;
+    }
+
+    /** Collapses ids so per-route rows stay few: /api/movies/tt0111161 -> /api/movies/{id}. */
+    static String route(String path) {
+        int q = path.indexOf('?');
+        String p = q < 0 ? path : path.substring(0, q);
+        return p.replaceAll("/[^/]*\\d[^/]*", "/{id}");
+    }
+
+    static Map<String, Object> report(Recorder[] recorders, long durationNanos, Map<Integer, LongAdder> statuses,
+                                      long failures, long bytes) {
+        int total = 0;
+        for (Recorder r : recorders) total += r.n;
+        long[] all = new long[total];
+        Map<String, List<Long>> byRoute = new TreeMap<>();
+        int k = 0;
+        for (Recorder r : recorders) {
+            System.arraycopy(r.latencies, 0, all, k, r.n);
+            k += r.n;
+            for (int i = 0; i < r.n; i++) byRoute.computeIfAbsent(r.routes[i], x -> new ArrayList<>()).add(r.latencies[i]);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("requests", total);
+        out.put("failures", failures);
+        Map<String, Long> st = new TreeMap<>();
+        statuses.forEach((s, n) -> st.put(String.valueOf(s), n.sum()));
+        out.put("statuses", st);
+        out.put("throughputPerSecond", total / (durationNanos / 1e9));
+        out.put("bytesPerRequest", total == 0 ? 0 : bytes / total);
+        out.put("latencyMs", percentiles(all));
+        Map<String, Object> routes = new LinkedHashMap<>();
+        byRoute.forEach((route, list) -> {
+            long[] a = new long[list.size()];
+            for (int i = 0; i < a.length; i++) a[i] = list.get(i);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("requests", a.length);
+            m.put("latencyMs", percentiles(a));
+            routes.put(route, m);
+        });
+        out.put("routes", routes);
+        return out;
+    }
+
+    static Map<String, Double> percentiles(long[] nanos) {
+        Arrays.sort(nanos);
+        Map<String, Double> m = new LinkedHashMap<>();
+        m.put("p50", at(nanos, 0.50));
+        m.put("p90", at(nanos, 0.90));
+        m.put("p99", at(nanos, 0.99));
+        m.put("p999", at(nanos, 0.999));
+        m.put("max", nanos.length == 0 ? 0 : nanos[nanos.length - 1] / 1e6);
+        return m;
+    }
+
+    private static double at(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> r) {
+        System.out.printf("%s  threads=%s  mix=%s%n", r.get("base"), r.get("threads"), r.get("mix"));
+        System.out.printf("requests=%s  failures=%s  statuses=%s  throughput=%.1f req/s  bytes/req=%s%n",
+                r.get("requests"), r.get("failures"), r.get("statuses"), (Double) r.get("throughputPerSecond"), r.get("bytesPerRequest"));
+        System.out.printf("%-40s %9s %9s %9s %9s %9s%n", "route", "requests", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        printRow("ALL", (Integer) r.get("requests"), (Map<String, Double>) r.get("latencyMs"));
+        ((Map<String, Object>) r.get("routes")).forEach((route, v) -> {
+            Map<String, Object> m = (Map<String, Object>) v;
+            printRow(route, (Integer) m.get("requests"), (Map<String, Double>) m.get("latencyMs"));
+        });
+    }
+
+    private static void printRow(String route, int n, Map<String, Double> p) {
+        System.out.printf("%-40s %9d %9.2f %9.2f %9.2f %9.2f%n", route, n, p.get("p50"), p.get("p99"), p.get("p999"), p.get("max"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.imdb.practice;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Inputs shared by the benchmarks: the bundled problems and synthetic title rows. */
+final class Fixtures {
+    static final String[] COLUMNS = {"tconst", "primarytitle", "startyear", "averagerating", "numvotes"};
+
+    private Fixtures() {}
+
+    static List<Problem> problems() throws Exception {
+        ProblemStore.init();
+        List<Problem> out = new ArrayList<>();
+        for (String id : ProblemStore.orderedIds()) out.add(ProblemStore.get(id));
+        return out;
+    }
+
+    /** Rows shaped like a title_basics/title_ratings join, as the JDBC driver returns them. */
+    static Object[][] titleRows(int n, long seed) {
+        Random r = new Random(seed);
+        Object[][] rows = new Object[n][];
+        for (int i = 0; i < n; i++) {
+            rows[i] = new Object[]{
+                    String.format("tt%07d", i),
+                    "Title " + Long.toString(r.nextLong() & Long.MAX_VALUE, 36),
+                    r.nextInt(10) == 0 ? null : String.valueOf(1900 + r.nextInt(125)),
+                    BigDecimal.valueOf(10 + r.nextInt(91), 1),
+                    r.nextInt(2_000_000)
+            };
+        }
+        return rows;
+    }
+
+    /** The rows as executeSelect would map them, tt prefix trimmed. */
+    static List<Map<String, Object>> rowMaps(Object[][] rows) {
+        List<Map<String, Object>> out = new ArrayList<>(rows.length);
+        for (Object[] row : rows) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put(COLUMNS[0], ((String) row[0]).substring(2));
+            for (int i = 1; i < COLUMNS.length; i++) m.put(COLUMNS[i], row[i]);
+            out.add(m);
+        }
+        return out;
+    }
+
+    /**
+     * A forward-only ResultSet over the given rows, implementing only what the
+     * row mappers call. The proxy adds a constant dispatch cost per call.
+     */
+    static ResultSet resultSet(String[] labels, Object[][] rows) {
+        ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount": return labels.length;
+                        case "getColumnLabel":
+                        case "getColumnName": return labels[(Integer) args[0] - 1];
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int[] cursor = {-1};
+        boolean[] lastNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next": return ++cursor[0] < rows.length;
+                        case "getMetaData": return md;
+                        case "getObject": {
+                            Object v = rows[cursor[0]][(Integer) args[0] - 1];
+                            lastNull[0] = v == null;
+                            return v;
+                        }
+                        case "getString": {
+                            Object v = rows[cursor[0]][(Integer) args[0] - 1];
+                            lastNull[0] = v == null;
+                            return v == null ? null : v.toString();
+                        }
+                        case "wasNull": return lastNull[0];
+                        case "close": return null;
+                        case "isClosed": return false;
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,73 @@
+package com.imdb.practice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imdb.common.CachedJson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request parsing and the work writeJson does per response: serializing,
+ * hashing for the ETag and gzipping, for a 10-row run result and the
+ * problem list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final URI[] uris = {
+            URI.create("/api/schema?tables=title_basics,title_ratings,name_basics"),
+            URI.create("/api/problems?difficulty=easy&table=title_basics"),
+            URI.create("/api/movies?genre=Sci-Fi&actorId=Keanu%20Reeves&year=1999&limit=50&offset=100"),
+    };
+    private Map<String, Object> runBody;
+    private List<Map<String, Object>> problemList;
+    private byte[] problemListBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures.problems();
+        runBody = Map.of("rows", Fixtures.rowMaps(Fixtures.titleRows(App.ROW_LIMIT, 42)));
+        problemList = ProblemStore.listPublic(null, null);
+        problemListBytes = MAPPER.writeValueAsBytes(problemList);
+    }
+
+    @Benchmark
+    public void parseQuery(Blackhole bh) {
+        for (URI uri : uris) bh.consume(App.parseQuery(uri));
+    }
+
+    @Benchmark
+    public CachedJson runResponse() throws Exception {
+        return CachedJson.of(MAPPER, runBody);
+    }
+
+    @Benchmark
+    public CachedJson problemListResponse() throws Exception {
+        return CachedJson.of(MAPPER, problemList);
+    }
+
+    /** The once-per-body cost for cached payloads; served copies reuse the result. */
+    @Benchmark
+    public byte[] problemListGzip() {
+        return CachedJson.of(problemListBytes).gzipped();
+    }
+}
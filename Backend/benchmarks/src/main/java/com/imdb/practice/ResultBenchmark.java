@@ -0,0 +1,60 @@
+package com.imdb.practice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Grading comparisons over synthetic result sets: fingerprinting and ordered/unordered compare. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultBenchmark {
+    @Param({"10", "10000"})
+    public int rows;
+
+    private List<Map<String, Object>> expected;
+    private List<Map<String, Object>> shuffled;
+    private ResultComparator.Fingerprint expectedFp;
+
+    @Setup
+    public void setup() {
+        expected = Fixtures.rowMaps(Fixtures.titleRows(rows, 42));
+        shuffled = new ArrayList<>(Fixtures.rowMaps(Fixtures.titleRows(rows, 42)));
+        Collections.shuffle(shuffled, new Random(7));
+        expectedFp = ResultComparator.fingerprint(expected);
+    }
+
+    @Benchmark
+    public ResultComparator.Fingerprint fingerprint() {
+        return ResultComparator.fingerprint(shuffled);
+    }
+
+    /** Includes fingerprinting the actual rows, as the grade handler does. */
+    @Benchmark
+    public ResultComparator.Mismatch compareUnordered() {
+        return ResultComparator.compare(expectedFp, expected, ResultComparator.fingerprint(shuffled), shuffled, false);
+    }
+
+    @Benchmark
+    public ResultComparator.Mismatch compareOrdered() {
+        return ResultComparator.compare(expectedFp, expected, ResultComparator.fingerprint(expected), expected, true);
+    }
+}
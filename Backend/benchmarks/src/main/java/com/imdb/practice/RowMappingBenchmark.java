@@ -0,0 +1,65 @@
+package com.imdb.practice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** executeSelect's row mapping and the streamed /api/run body, from a ResultSet without a database. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMappingBenchmark {
+    @Param({"10", "10000"})
+    public int rows;
+
+    private Object[][] data;
+    private final JsonFactory factory = new JsonFactory();
+
+    @Setup
+    public void setup() {
+        data = Fixtures.titleRows(rows, 42);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> toMaps() throws Exception {
+        ResultSet rs = Fixtures.resultSet(Fixtures.COLUMNS, data);
+        ResultSetJson cols = ResultSetJson.of(rs.getMetaData());
+        List<Map<String, Object>> out = new ArrayList<>();
+        while (rs.next()) out.add(cols.toMap(rs));
+        return out;
+    }
+
+    @Benchmark
+    public byte[] writeRows() throws Exception {
+        ResultSet rs = Fixtures.resultSet(Fixtures.COLUMNS, data);
+        ResultSetJson cols = ResultSetJson.of(rs.getMetaData());
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+        try (JsonGenerator g = factory.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeFieldName("rows");
+            cols.writeRows(rs, g);
+            g.writeEndObject();
+        }
+        return buf.toByteArray();
+    }
+}
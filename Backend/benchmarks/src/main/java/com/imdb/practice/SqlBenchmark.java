@@ -0,0 +1,52 @@
+package com.imdb.practice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Sanitizing, the read-only check and normalization over every bundled solution, per call. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlBenchmark {
+    private String[] solutions;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Problem> problems = Fixtures.problems();
+        solutions = new String[problems.size()];
+        for (int i = 0; i < solutions.length; i++) {
+            // Same shape as a submitted query: a comment and trailing semicolon around the SQL
+            solutions[i] = "-- my attempt\n" + problems.get(i).solutionSql + ";\n";
+        }
+    }
+
+    @Benchmark
+    public void analyze(Blackhole bh) {
+        for (String sql : solutions) bh.consume(SqlLexer.analyze(sql));
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String sql : solutions) bh.consume(RunCache.normalize(sql));
+    }
+
+    @Benchmark
+    public void wrapLimit(Blackhole bh) {
+        for (String sql : solutions) bh.consume(App.wrapLimit(sql, App.ROW_LIMIT));
+    }
+}
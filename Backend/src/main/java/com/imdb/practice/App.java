@@ -1,56 +1,64 @@
 package com.imdb.practice;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.imdb.common.CachedJson;
+import com.imdb.common.Metrics;
+import com.imdb.common.RequestExecutor;
+import com.imdb.common.SlowQueryLog;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.time.Duration;
 import java.util.*;
 
 public class App {
-    private static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     private static final int DEFAULT_PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "3001"));
-    private static final int ROW_LIMIT = 10;
-    private static final int TIMEOUT_MS = (int) Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("QUERY_TIMEOUT_SECONDS", "10"))).toMillis();
+    static final int ROW_LIMIT = 10;
+    private static final int SAMPLE_ROWS = 5;
+    // "sample" compares the first ROW_LIMIT rows in the JVM, "full" compares everything in PostgreSQL
+    private static final String GRADE_MODE = System.getenv().getOrDefault("GRADE_MODE", "sample");
+    private static final int GZIP_MIN_BYTES = Integer.parseInt(System.getenv().getOrDefault("GZIP_MIN_BYTES", "1024"));
+    static final int TIMEOUT_MS = (int) Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("QUERY_TIMEOUT_SECONDS", "10"))).toMillis();
 
     public static void main(String[] args) throws Exception {
         // Ensure JDBC sends a server-accepted timezone
         TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
         ProblemStore.init();
         Db.initPool();
+        DatasetVersion.init();
+        SolutionCache.init();
+        RunCache.init();
+        SchemaCatalog.init();
+        CostGate.init();
+        Metrics.registerPools(Db::poolBeans, Db::poolMax);
+        SlowQueryLog.init(() -> Db.newUnpooledConnection("slow-query-explain"));
+        Metrics.registerStats("imdb_executor", RequestExecutor::stats);
+        Metrics.registerStats("imdb_queries", QueryAdmission::stats);
+        Metrics.registerStats("imdb_solution_cache", SolutionCache::stats);
+        Metrics.registerStats("imdb_run_cache", RunCache::stats);
+        Metrics.registerStats("imdb_run_cursors", RunCursors::stats);
+        // Headers and body go out in separate writes; without TCP_NODELAY a keep-alive client waits on delayed ACKs (~40ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
         HttpServer server = HttpServer.create(new InetSocketAddress(DEFAULT_PORT), 0);
         // Single context for API, route inside
-        server.createContext("/api", new ApiHandler());
-        server.setExecutor(null);
+        server.createContext("/api", RequestExecutor.configure(server, Metrics.instrument(new ApiHandler()), Db.poolSize()));
         server.start();
         System.out.println("Backend running on port " + DEFAULT_PORT);
     }
 
-    private static List<Map<String, Object>> readTableSchema(String table) throws Exception {
-        String sql = "SELECT column_name AS name, data_type AS type, is_nullable FROM information_schema.columns WHERE table_schema = 'public' AND table_name = ? ORDER BY ordinal_position";
-        try (Connection c = Db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, table);
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Map<String, Object>> out = new ArrayList<>();
-                while (rs.next()) {
-                    Map<String, Object> row = new LinkedHashMap<>();
-                    row.put("name", rs.getString("name"));
-                    row.put("type", rs.getString("type"));
-                    row.put("nullable", "YES".equalsIgnoreCase(rs.getString("is_nullable")));
-                    out.add(row);
-                }
-                return out;
-            }
-        }
-    }
-
     static class ApiHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -65,36 +73,65 @@ public class App {
                 }
 
                 if (path.equals("/api/schema") && "GET".equalsIgnoreCase(method)) {
-                    String query = exchange.getRequestURI().getQuery();
-                    if (query == null || !query.contains("tables=")) {
+                    String tablesParam = parseQuery(exchange.getRequestURI()).get("tables");
+                    if (tablesParam == null) {
                         writeJson(exchange, 400, Map.of("error", "tables query param required"));
                         return;
                     }
-                    String tablesParam = Arrays.stream(query.split("&"))
-                            .filter(s -> s.startsWith("tables="))
-                            .findFirst().orElse("tables=");
-                    String[] tables = tablesParam.substring("tables=".length()).split(",");
-                    Map<String, Object> schemas = new LinkedHashMap<>();
-                    for (String t : tables) {
-                        String tn = t.trim();
-                        if (tn.isEmpty()) continue;
-                        try {
-                            schemas.put(tn, readTableSchema(tn));
-                        } catch (Exception e) {
-                            schemas.put(tn, List.of(Map.of("error", e.getMessage())));
-                        }
+                    List<String> tables = new ArrayList<>();
+                    for (String t : tablesParam.split(",")) {
+                        if (!t.trim().isEmpty()) tables.add(t.trim());
+                    }
+                    try {
+                        writeCached(exchange, SchemaCatalog.response(tables, MAPPER));
+                    } catch (Exception e) {
+                        writeJson(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+                    }
+                    return;
+                }
+
+                if ("/api/metrics".equals(path) && "GET".equalsIgnoreCase(method)) {
+                    writeMetrics(exchange);
+                    return;
+                }
+
+                // Without ADMIN_TOKEN the route does not exist and falls through to 404
+                if ("/api/admin/slow-queries".equals(path) && SlowQueryLog.adminEnabled()) {
+                    if (!SlowQueryLog.authorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                        writeJson(exchange, 401, Map.of("error", "Unauthorized"));
+                    } else if ("GET".equalsIgnoreCase(method)) {
+                        writeJson(exchange, 200, Map.of("thresholdMs", SlowQueryLog.thresholdMs(), "queries", SlowQueryLog.entries()));
+                    } else if ("DELETE".equalsIgnoreCase(method)) {
+                        SlowQueryLog.clear();
+                        writeNoContent(exchange);
+                    } else {
+                        writeJson(exchange, 405, Map.of("error", "Method not allowed"));
                     }
-                    writeJson(exchange, 200, Map.of("schemas", schemas));
                     return;
                 }
 
                 if ("/api/health".equals(path) && "GET".equalsIgnoreCase(method)) {
-                    writeJson(exchange, 200, Map.of("status", "ok"));
+                    writeJson(exchange, 200, Map.of("status", "ok", "executor", RequestExecutor.stats(), "queries", QueryAdmission.stats(), "cursors", RunCursors.stats(), "replicas", Db.replicaStats()));
+                    return;
+                }
+
+                if ("/api/grade/cache".equals(path) && "GET".equalsIgnoreCase(method)) {
+                    writeJson(exchange, 200, SolutionCache.stats());
+                    return;
+                }
+
+                if ("/api/run/cache".equals(path) && "GET".equalsIgnoreCase(method)) {
+                    writeJson(exchange, 200, RunCache.stats());
                     return;
                 }
 
                 if (path.equals("/api/problems") && "GET".equalsIgnoreCase(method)) {
-                    writeJson(exchange, 200, ProblemStore.listPublic());
+                    Map<String, String> q = parseQuery(exchange.getRequestURI());
+                    if (q.get("difficulty") == null && q.get("table") == null) {
+                        writeCached(exchange, ProblemStore.listJson());
+                    } else {
+                        writeJson(exchange, 200, ProblemStore.listPublic(q.get("difficulty"), q.get("table")));
+                    }
                     return;
                 }
 
@@ -105,15 +142,19 @@ public class App {
                         writeJson(exchange, 404, Map.of("error", "Problem not found"));
                         return;
                     }
-                    List<String> verbs = extractVerbs(p.solutionSql);
-                    writeJson(exchange, 200, Map.of("verbs", verbs));
+                    writeJson(exchange, 200, Map.of("verbs", p.hintVerbs));
                     return;
                 }
 
                 if (path.startsWith("/api/problems/") && path.endsWith("/next") && "GET".equalsIgnoreCase(method)) {
                     String id = path.substring("/api/problems/".length(), path.length() - "/next".length());
-                    String next = ProblemStore.nextId(id);
-                    writeJson(exchange, 200, Map.of("nextId", next));
+                    writeJson(exchange, 200, Collections.singletonMap("nextId", ProblemStore.nextId(id)));
+                    return;
+                }
+
+                if (path.startsWith("/api/problems/") && path.endsWith("/prev") && "GET".equalsIgnoreCase(method)) {
+                    String id = path.substring("/api/problems/".length(), path.length() - "/prev".length());
+                    writeJson(exchange, 200, Collections.singletonMap("prevId", ProblemStore.prevId(id)));
                     return;
                 }
 
@@ -130,28 +171,84 @@ public class App {
 
                 if (path.startsWith("/api/problems/") && "GET".equalsIgnoreCase(method)) {
                     String id = path.substring("/api/problems/".length());
-                    Problem p = ProblemStore.get(id);
+                    CachedJson p = ProblemStore.problemJson(id);
                     if (p == null) {
                         writeJson(exchange, 404, Map.of("error", "Problem not found"));
                     } else {
-                        writeJson(exchange, 200, p.publicView());
+                        writeCached(exchange, p);
                     }
                     return;
                 }
 
+                if (path.startsWith("/api/run/cursors/") && "DELETE".equalsIgnoreCase(method)) {
+                    if (RunCursors.close(path.substring("/api/run/cursors/".length()))) writeNoContent(exchange);
+                    else writeJson(exchange, 404, Map.of("error", "Cursor not found or expired"));
+                    return;
+                }
+
                 if (path.equals("/api/run") && "POST".equalsIgnoreCase(method)) {
                     Map<String, Object> body = readJsonBody(exchange);
-                    String sql = sanitizeSql(Optional.ofNullable((String) body.get("sql")).orElse(""));
-                    if (!isSelectOnly(sql)) {
+                    if (body.get("cursor") instanceof String) {
+                        writePage(exchange, () -> {
+                            try (QueryAdmission.Permit permit = QueryAdmission.acquire(exchange)) {
+                                return RunCursors.next((String) body.get("cursor"), permit);
+                            }
+                        });
+                        return;
+                    }
+                    SqlLexer.Result query = SqlLexer.analyze(Optional.ofNullable((String) body.get("sql")).orElse(""));
+                    String sql = query.sql;
+                    if (!query.selectOnly) {
                         writeJson(exchange, 400, Map.of("error", "Only SELECT queries are allowed"));
                         return;
                     }
+                    if (body.get("pageSize") instanceof Number) {
+                        int pageSize = Math.max(1, Math.min(RunCursors.MAX_PAGE, ((Number) body.get("pageSize")).intValue()));
+                        writePage(exchange, () -> {
+                            try (QueryAdmission.Permit permit = admit(exchange, wrapLimit(sql, RunCursors.MAX_ROWS))) {
+                                return RunCursors.open(sql, pageSize, permit);
+                            }
+                        });
+                        return;
+                    }
                     String wrapped = wrapLimit(sql, ROW_LIMIT);
+                    String key = RunCache.key(sql, ROW_LIMIT);
+                    RunCache.Loader run = () -> {
+                        try (QueryAdmission.Permit permit = admit(exchange, wrapped)) {
+                            return selectJson(exchange, "run", wrapped, permit, RunCache.room(key));
+                        }
+                    };
+                    byte[] rows;
                     try {
-                        List<Map<String, Object>> rows = executeSelect(wrapped);
-                        writeJson(exchange, 200, Map.of("rows", rows));
+                        // Only a cache miss needs a query slot, and a body the cache cannot keep is streamed as it is read
+                        rows = RunCache.enabled() ? RunCache.get(key, run) : run.load();
+                    } catch (QueryAdmission.Rejected r) {
+                        writeJson(exchange, r.status, r.body());
+                        return;
                     } catch (Exception e) {
-                        writeJson(exchange, 400, Map.of("error", e.getMessage()));
+                        writeJson(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+                        return;
+                    }
+                    if (rows == RunCache.STREAMED) return;
+                    exchange.sendResponseHeaders(200, rows.length);
+                    try (OutputStream os = exchange.getResponseBody()) { os.write(rows); }
+                    return;
+                }
+
+                if (path.equals("/api/explain") && "POST".equalsIgnoreCase(method)) {
+                    Map<String, Object> body = readJsonBody(exchange);
+                    SqlLexer.Result query = SqlLexer.analyze(Optional.ofNullable((String) body.get("sql")).orElse(""));
+                    if (!query.selectOnly) {
+                        writeJson(exchange, 400, Map.of("error", "Only SELECT queries are allowed"));
+                        return;
+                    }
+                    // Planning still takes a connection and can be slow on big joins, so it queues like a run
+                    try (QueryAdmission.Permit permit = QueryAdmission.acquire(exchange)) {
+                        writeJson(exchange, 200, CostGate.explain(wrapLimit(query.sql, ROW_LIMIT)).toMap());
+                    } catch (QueryAdmission.Rejected r) {
+                        writeJson(exchange, r.status, r.body());
+                    } catch (SQLException e) {
+                        writeJson(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
                     }
                     return;
                 }
@@ -159,12 +256,13 @@ public class App {
                 if (path.equals("/api/grade") && "POST".equalsIgnoreCase(method)) {
                     Map<String, Object> body = readJsonBody(exchange);
                     String problemId = Optional.ofNullable((String) body.get("problemId")).orElse("");
-                    String userSql = sanitizeSql(Optional.ofNullable((String) body.get("sql")).orElse(""));
+                    SqlLexer.Result query = SqlLexer.analyze(Optional.ofNullable((String) body.get("sql")).orElse(""));
+                    String userSql = query.sql;
                     if (problemId.isBlank()) {
                         writeJson(exchange, 400, Map.of("error", "problemId is required"));
                         return;
                     }
-                    if (!isSelectOnly(userSql)) {
+                    if (!query.selectOnly) {
                         writeJson(exchange, 400, Map.of("error", "Only SELECT queries are allowed"));
                         return;
                     }
@@ -173,24 +271,41 @@ public class App {
                         writeJson(exchange, 404, Map.of("error", "Problem not found"));
                         return;
                     }
+                    String mode = Optional.ofNullable((String) body.get("mode")).orElse(GRADE_MODE);
+                    if ("full".equalsIgnoreCase(mode)) {
+                        try (QueryAdmission.Permit permit = admit(exchange, userSql)) {
+                            long start = System.nanoTime();
+                            Map<String, Object> result = InDatabaseGrader.grade(userSql, p.sanitizedSolution, p.isOrdered(), permit);
+                            observe("grade_full:" + p.id, userSql, start, ((Number) result.getOrDefault("actualCount", 0L)).intValue());
+                            writeJson(exchange, 200, result);
+                        } catch (QueryAdmission.Rejected r) {
+                            writeJson(exchange, r.status, r.body());
+                        } catch (Exception e) {
+                            writeJson(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+                        }
+                        return;
+                    }
                     try {
                         String userWrapped = wrapLimit(userSql, ROW_LIMIT);
-                        String solWrapped = wrapLimit(sanitizeSql(p.solutionSql), ROW_LIMIT);
-                        List<Map<String, Object>> userRows = executeSelect(userWrapped);
-                        List<Map<String, Object>> solRows = executeSelect(solWrapped);
-                        boolean correct;
-                        try {
-                            correct = normalizeRows(userRows).equals(normalizeRows(solRows));
-                        } catch (Exception ex) {
-                            correct = false;
+                        SolutionCache.Expected expected = SolutionCache.get(p);
+                        List<Map<String, Object>> solRows = expected.rows;
+                        List<Map<String, Object>> sampleActual = new ArrayList<>();
+                        ResultComparator.Matcher matcher;
+                        try (QueryAdmission.Permit permit = admit(exchange, userWrapped)) {
+                            matcher = matchSelect("grade:" + p.id, userWrapped, permit, expected, p.isOrdered(), sampleActual);
                         }
-                        writeJson(exchange, 200, Map.of(
-                                "correct", correct,
-                                "expectedCount", solRows.size(),
-                                "actualCount", userRows.size(),
-                                "sampleExpected", solRows.stream().limit(5).toArray(),
-                                "sampleActual", userRows.stream().limit(5).toArray()
-                        ));
+                        ResultComparator.Mismatch mismatch = matcher.finish();
+                        Map<String, Object> result = new LinkedHashMap<>();
+                        result.put("mode", "sample");
+                        result.put("correct", mismatch == null);
+                        result.put("expectedCount", solRows.size());
+                        result.put("actualCount", matcher.rowCount());
+                        result.put("sampleExpected", solRows.stream().limit(SAMPLE_ROWS).toArray());
+                        result.put("sampleActual", sampleActual.toArray());
+                        if (mismatch != null) result.put("mismatch", mismatch.toMap());
+                        writeJson(exchange, 200, result);
+                    } catch (QueryAdmission.Rejected r) {
+                        writeJson(exchange, r.status, r.body());
                     } catch (Exception e) {
                         writeJson(exchange, 400, Map.of("error", e.getMessage()));
                     }
@@ -204,102 +319,178 @@ public class App {
         }
     }
 
-    private static List<String> extractVerbs(String sql) {
-        if (sql == null) return List.of();
-        String s = sql.toLowerCase(Locale.ROOT);
-        List<String> out = new ArrayList<>();
-        // Core clauses
-        if (s.contains("select")) out.add("SELECT");
-        if (s.contains("distinct")) out.add("DISTINCT");
-        if (s.contains(" from ")) out.add("FROM");
-        if (s.contains(" join ")) out.add("JOIN");
-        if (s.contains(" where ")) out.add("WHERE");
-        if (s.contains(" group by ")) out.add("GROUP BY");
-        if (s.contains(" having ")) out.add("HAVING");
-        if (s.contains(" order by ")) out.add("ORDER BY");
-        if (s.contains(" limit ")) out.add("LIMIT");
-        // Aggregates
-        if (s.contains(" count(")) out.add("COUNT");
-        if (s.contains(" sum(")) out.add("SUM");
-        if (s.contains(" avg(")) out.add("AVG");
-        if (s.contains(" min(")) out.add("MIN");
-        if (s.contains(" max(")) out.add("MAX");
-        // Subquery heuristic
-        if (s.matches(".*\\(\\s*select\\s+.*")) out.add("SUBQUERY");
-        // Window functions heuristic
-        if (s.contains(" over (")) out.add("WINDOW");
-        // Remove duplicates while preserving order
-        LinkedHashSet<String> set = new LinkedHashSet<>(out);
-        return new ArrayList<>(set);
-    }
-
-    private static Set<String> normalizeRows(List<Map<String, Object>> rows) throws Exception {
-        List<String> asJson = new ArrayList<>();
-        for (Map<String, Object> r : rows) {
-            asJson.add(MAPPER.writeValueAsString(r));
+    /**
+     * Waits for a normal slot, plans the query through the cost gate while holding it, and adds a
+     * heavy slot if the plan calls for one. Planning takes a pool connection too, so it counts
+     * against the client's cap and the global slots like the run itself.
+     */
+    private static QueryAdmission.Permit admit(HttpExchange ex, String sql) throws Exception {
+        QueryAdmission.Permit permit = QueryAdmission.acquire(ex);
+        try {
+            if (CostGate.check(sql).heavy()) permit.upgrade();
+            return permit;
+        } catch (Exception e) {
+            permit.close();
+            throw e;
         }
-        Collections.sort(asJson);
-        return new LinkedHashSet<>(asJson);
     }
 
-    private static boolean isSelectOnly(String sql) {
-        String s = sql.trim().toLowerCase(Locale.ROOT);
-        if (s.isEmpty()) return false;
-        if (!s.startsWith("select")) return false;
-        // basic guards
-        String[] blocked = new String[]{";", "--", "/*", "insert", "update", "delete", "create", "drop", "alter", "truncate", "copy", "grant", "revoke", "call"};
-        for (String b : blocked) {
-            if (s.contains(" " + b + " ") || s.contains(b + " ")) return false;
+    private static void writePage(HttpExchange ex, RunCache.Loader page) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = page.load();
+        } catch (QueryAdmission.Rejected r) {
+            writeJson(ex, r.status, r.body());
+            return;
+        } catch (Exception e) {
+            writeJson(ex, 400, Map.of("error", String.valueOf(e.getMessage())));
+            return;
         }
-        return true;
+        ex.getResponseHeaders().set("Cache-Control", "no-store");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
     }
 
-    private static String wrapLimit(String sql, int limit) {
+    static String wrapLimit(String sql, int limit) {
         String s = sql.trim();
         return "select * from (" + s + ") _q limit " + limit;
     }
 
-    private static List<Map<String, Object>> executeSelect(String sql) throws Exception {
-        try (Connection c = Db.getConnection(); Statement st = c.createStatement()) {
-            c.setAutoCommit(true);
-            st.setQueryTimeout(Math.max(1, TIMEOUT_MS / 1000));
-            // Ensure statement_timeout on server too
-            try (Statement st2 = c.createStatement()) {
-                st2.execute("SET LOCAL statement_timeout = '" + Math.max(1, TIMEOUT_MS / 1000) + "s'");
-            } catch (SQLException ignored) {}
-
+    static List<Map<String, Object>> executeSelect(Db.Workload workload, String template, String sql, QueryAdmission.Permit permit) throws Exception {
+        try (Connection c = Db.getReadOnlyConnection(workload); Statement st = createStatement(c, permit)) {
+            long start = System.nanoTime();
             try (ResultSet rs = st.executeQuery(sql)) {
-                ResultSetMetaData md = rs.getMetaData();
-                int cols = md.getColumnCount();
+                if (permit != null) permit.done();
+                ResultSetJson cols = ResultSetJson.of(rs.getMetaData());
                 List<Map<String, Object>> out = new ArrayList<>();
                 while (rs.next()) {
-                    Map<String, Object> row = new LinkedHashMap<>();
-                    for (int i = 1; i <= cols; i++) {
-                        Object val = rs.getObject(i);
-                        String col = md.getColumnLabel(i);
-                        // Trim 'tt' prefix from movie/tconst-like identifiers before exposing to clients
-                        if (val instanceof String) {
-                            String s = (String) val;
-                            if (startsWithTtId(col, s)) {
-                                // remove leading 'tt' only
-                                s = s.replaceFirst("^tt", "");
-                                val = s;
-                            }
-                        }
-                        row.put(col, val);
-                    }
-                    out.add(row);
+                    out.add(cols.toMap(rs));
                 }
+                observe(template, sql, start, out.size());
                 return out;
             }
         }
     }
 
-    private static boolean startsWithTtId(String col, String s) {
-        // Only apply to known ID columns and strings beginning with 'tt' followed by digits
-        String lc = col == null ? "" : col.toLowerCase(Locale.ROOT);
-        if (!("tconst".equals(lc) || "parenttconst".equals(lc) || "titleid".equals(lc))) return false;
-        return s != null && s.matches("^tt\\d+.*");
+    /**
+     * Runs the query and feeds each row to a matcher against the expected result as it is read,
+     * keeping the first few rows as a sample instead of the whole result.
+     */
+    private static ResultComparator.Matcher matchSelect(String template, String sql, QueryAdmission.Permit permit,
+                                                        SolutionCache.Expected expected, boolean ordered,
+                                                        List<Map<String, Object>> sample) throws Exception {
+        try (Connection c = Db.getReadOnlyConnection(Db.Workload.GRADING); Statement st = createStatement(c, permit)) {
+            long start = System.nanoTime();
+            try (ResultSet rs = st.executeQuery(sql)) {
+                permit.done();
+                ResultSetJson cols = ResultSetJson.of(rs.getMetaData());
+                ResultComparator.Matcher matcher = new ResultComparator.Matcher(expected.fingerprint, expected.rows, ordered, List.of(cols.labels()));
+                Object[] cells = new Object[cols.labels().length];
+                while (rs.next()) {
+                    if (sample.size() < SAMPLE_ROWS) sample.add(cols.toMap(rs));
+                    for (int i = 0; i < cells.length; i++) cells[i] = cols.value(rs, i);
+                    matcher.add(cells);
+                }
+                observe(template, sql, start, matcher.rowCount());
+                return matcher;
+            }
+        }
+    }
+
+    /**
+     * Runs the query and returns its {"rows":[...]} body, written straight from the ResultSet. Once
+     * the body outgrows maxBuffered bytes it is sent as it is written, with chunked encoding, and
+     * {@link RunCache#STREAMED} is returned instead. Errors raised before the first byte is sent
+     * are thrown and still become a 400; later ones can only abort the response.
+     */
+    private static byte[] selectJson(HttpExchange ex, String template, String sql, QueryAdmission.Permit permit, long maxBuffered) throws Exception {
+        try (Connection c = Db.getReadOnlyConnection(Db.Workload.USER_SQL); Statement st = createStatement(c, permit)) {
+            long start = System.nanoTime();
+            try (ResultSet rs = st.executeQuery(sql)) {
+                permit.done();
+                ResultSetJson cols = ResultSetJson.of(rs.getMetaData());
+                SpillingBody body = new SpillingBody(ex, maxBuffered);
+                int rows;
+                try (JsonGenerator g = MAPPER.getFactory().createGenerator(body)) {
+                    g.writeStartObject();
+                    g.writeFieldName("rows");
+                    rows = cols.writeRows(rs, g);
+                    g.writeEndObject();
+                } catch (Exception e) {
+                    if (!body.streaming()) throw e;
+                    // Most likely the client went away mid-stream; the query itself has already finished
+                    ex.close();
+                    return RunCache.STREAMED;
+                }
+                observe(template, sql, start, rows);
+                return body.streaming() ? RunCache.STREAMED : body.bytes();
+            }
+        }
+    }
+
+    /** Buffers a 200 response body up to a limit, then sends the headers and streams the rest. */
+    private static final class SpillingBody extends OutputStream {
+        private final HttpExchange ex;
+        private final long limit;
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+        private OutputStream out;
+
+        SpillingBody(HttpExchange ex, long limit) {
+            this.ex = ex;
+            this.limit = limit;
+        }
+
+        boolean streaming() { return out != null; }
+
+        byte[] bytes() { return buf.toByteArray(); }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null && buf.size() + (long) len > limit) {
+                ex.sendResponseHeaders(200, 0);
+                out = ex.getResponseBody();
+                buf.writeTo(out);
+                buf.reset();
+            }
+            if (out != null) out.write(b, off, len);
+            else buf.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) out.close();
+        }
+    }
+
+    /** Records a finished query in the metrics and, if it was slow, in the slow-query log. */
+    private static void observe(String template, String sql, long startNanos, int rows) {
+        long nanos = System.nanoTime() - startNanos;
+        Metrics.recordQuery(template, nanos);
+        SlowQueryLog.record(template, sql, null, nanos, rows);
+    }
+
+    /**
+     * The server-side statement_timeout is set for the whole pool in Db. User
+     * queries are additionally cancelled through their admission permit, and
+     * everything else falls back to the JDBC query timeout. Without a fetch size
+     * the driver has read every row once executeQuery returns, so callers mark
+     * the permit done there.
+     */
+    private static Statement createStatement(Connection c, QueryAdmission.Permit permit) throws SQLException {
+        Statement st = c.createStatement();
+        if (permit != null) permit.track(st, TIMEOUT_MS);
+        else st.setQueryTimeout(Math.max(1, TIMEOUT_MS / 1000));
+        return st;
     }
 
     // --- HTTP helpers ---
@@ -315,37 +506,91 @@ public class App {
         }
     }
 
-    private static String sanitizeSql(String sql) {
-        if (sql == null) return "";
-        String s = sql.trim();
-        // Map simplified table names to actual table names
-        s = s.replaceAll("\\bbasics\\b", "title_basics");
-        s = s.replaceAll("\\bratings\\b", "title_ratings");
-        s = s.replaceAll("\\bprincipals\\b", "title_principals");
-        s = s.replaceAll("\\bcrew\\b", "title_crew");
-        s = s.replaceAll("\\bepisode\\b", "title_episode");
-        s = s.replaceAll("\\bakas\\b", "title_akas");
-        s = s.replaceAll("\\bname_basics\\b", "name_basics");
-        // Remove any trailing semicolons and surrounding whitespace
-        while (s.endsWith(";") || s.endsWith(" ") || s.endsWith("\n") || s.endsWith("\r") || s.endsWith("\t")) {
-            s = s.replaceFirst("[;\n\r\t ]+$", "");
+    static Map<String, String> parseQuery(URI uri) {
+        String q = uri.getRawQuery();
+        Map<String, String> out = new HashMap<>();
+        if (q == null || q.isBlank()) return out;
+        for (String part : q.split("&")) {
+            int i = part.indexOf('=');
+            if (i <= 0) continue;
+            out.put(decode(part.substring(0, i)), decode(part.substring(i + 1)));
         }
-        return s;
+        return out;
+    }
+
+    private static String decode(String s) {
+        try { return URLDecoder.decode(s, StandardCharsets.UTF_8); }
+        catch (Exception e) { return s; }
     }
 
     private static void addCors(HttpExchange ex) {
         ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,OPTIONS");
+        ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
         ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Authorization");
         ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
     }
 
+    /** Successful GETs get the same ETag and gzip negotiation as cached bodies; everything else is sent as is. */
     private static void writeJson(HttpExchange ex, int status, Object obj) throws IOException {
         byte[] bytes = MAPPER.writeValueAsBytes(obj);
+        if (status == 200 && "GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            writeCached(ex, CachedJson.of(bytes));
+            return;
+        }
+        ex.getResponseHeaders().set("Cache-Control", "no-store");
         ex.sendResponseHeaders(status, bytes.length);
         try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
     }
 
+    /** Sends a pre-serialized body, gzipped when accepted and worth it, or 304 when the client already has it. */
+    private static void writeCached(HttpExchange ex, CachedJson body) throws IOException {
+        boolean gzip = body.bytes.length >= GZIP_MIN_BYTES && acceptsGzip(ex);
+        Headers h = ex.getResponseHeaders();
+        h.set("Cache-Control", cacheControl(ex.getRequestURI().getPath()));
+        h.set("Vary", "Accept-Encoding");
+        h.set("ETag", gzip ? body.gzipEtag() : body.etag);
+        if (body.matches(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        byte[] bytes = body.bytes;
+        if (gzip) {
+            h.set("Content-Encoding", "gzip");
+            bytes = body.gzipped();
+        }
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+    }
+
+    /**
+     * Problems can be hot-reloaded, so clients revalidate them every time (a
+     * 304 is cheap). The schema only changes with a new import. Admin and
+     * monitoring endpoints are never cached.
+     */
+    private static String cacheControl(String path) {
+        if (path.equals("/api/schema")) return "public, max-age=300";
+        if (path.startsWith("/api/problems")) return "no-cache";
+        return "no-store";
+    }
+
+    private static boolean acceptsGzip(HttpExchange ex) {
+        for (String value : ex.getRequestHeaders().getOrDefault("Accept-Encoding", List.of())) {
+            for (String coding : value.split(",")) {
+                String c = coding.trim().toLowerCase(Locale.ROOT);
+                if (c.equals("gzip") || (c.startsWith("gzip;") && !c.replace(" ", "").matches("gzip;q=0(\\.0*)?"))) return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeMetrics(HttpExchange ex) throws IOException {
+        byte[] bytes = Metrics.render().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+    }
+
     private static void writeNoContent(HttpExchange ex) throws IOException {
         ex.sendResponseHeaders(204, -1);
         ex.close();
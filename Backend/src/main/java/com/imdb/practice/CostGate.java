@@ -0,0 +1,121 @@
+package com.imdb.practice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imdb.common.Metrics;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans user SQL with EXPLAIN (FORMAT JSON) before running it. Queries whose
+ * estimates exceed the hard limits are rejected; queries above the "heavy"
+ * cost are admitted through a smaller pool of slots. Plans are cached by
+ * normalized SQL and dataset version.
+ */
+class CostGate {
+    private static final double MAX_COST = Double.parseDouble(System.getenv().getOrDefault("QUERY_MAX_COST", "50000000"));
+    private static final double MAX_ROWS = Double.parseDouble(System.getenv().getOrDefault("QUERY_MAX_ROWS", "500000000"));
+    private static final double HEAVY_COST = Double.parseDouble(System.getenv().getOrDefault("QUERY_HEAVY_COST", "1000000"));
+    private static final int CACHE_ENTRIES = Integer.parseInt(System.getenv().getOrDefault("PLAN_CACHE_ENTRIES", "1024"));
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final LinkedHashMap<String, Plan> CACHE = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+
+    static final class Plan {
+        final double totalCost;
+        final double maxRows;
+        final List<String> nodes;
+        final Set<String> seqScans;
+
+        Plan(double totalCost, double maxRows, List<String> nodes, Set<String> seqScans) {
+            this.totalCost = totalCost;
+            this.maxRows = maxRows;
+            this.nodes = nodes;
+            this.seqScans = seqScans;
+        }
+
+        boolean rejected() { return totalCost > MAX_COST || maxRows > MAX_ROWS; }
+
+        boolean heavy() { return totalCost > HEAVY_COST; }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("verdict", rejected() ? "rejected" : heavy() ? "heavy" : "ok");
+            m.put("totalCost", totalCost);
+            m.put("estimatedRows", (long) maxRows);
+            m.put("nodes", nodes);
+            m.put("seqScans", seqScans);
+            m.put("limits", Map.of("maxCost", MAX_COST, "maxRows", MAX_ROWS, "heavyCost", HEAVY_COST));
+            return m;
+        }
+    }
+
+    static void init() {
+        DatasetVersion.onChange(() -> {
+            synchronized (CACHE) { CACHE.clear(); }
+        });
+    }
+
+    /** Plans the query, throwing a 422 with the plan summary when it is over the limits. */
+    static Plan check(String sql) throws SQLException, QueryAdmission.Rejected {
+        Plan plan = explain(sql);
+        if (plan.rejected()) {
+            throw new QueryAdmission.Rejected(422, "Query is estimated to be too expensive; add filters or a narrower join", plan.toMap());
+        }
+        return plan;
+    }
+
+    static Plan explain(String sql) throws SQLException {
+        String key = DatasetVersion.current() + '\u0000' + RunCache.normalize(sql);
+        synchronized (CACHE) {
+            Plan cached = CACHE.get(key);
+            if (cached != null) return cached;
+        }
+        Plan plan;
+        long start = System.nanoTime();
+        try (Connection c = Db.getReadOnlyConnection(Db.Workload.USER_SQL); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("EXPLAIN (FORMAT JSON) " + sql)) {
+            rs.next();
+            plan = summarize(MAPPER.readTree(rs.getString(1)).path(0).path("Plan"));
+        } catch (java.io.IOException e) {
+            throw new SQLException("Could not read query plan: " + e.getMessage(), e);
+        }
+        Metrics.recordQuery("explain", System.nanoTime() - start);
+        synchronized (CACHE) {
+            CACHE.put(key, plan);
+        }
+        return plan;
+    }
+
+    private static Plan summarize(JsonNode root) {
+        List<String> nodes = new ArrayList<>();
+        Set<String> seqScans = new LinkedHashSet<>();
+        double[] maxRows = {0};
+        walk(root, nodes, seqScans, maxRows);
+        return new Plan(root.path("Total Cost").asDouble(), maxRows[0], nodes, seqScans);
+    }
+
+    private static void walk(JsonNode node, List<String> nodes, Set<String> seqScans, double[] maxRows) {
+        String type = node.path("Node Type").asText();
+        nodes.add(type);
+        maxRows[0] = Math.max(maxRows[0], node.path("Plan Rows").asDouble());
+        if ("Seq Scan".equals(type) && node.has("Relation Name")) seqScans.add(node.path("Relation Name").asText());
+        for (JsonNode child : node.path("Plans")) {
+            walk(child, nodes, seqScans, maxRows);
+        }
+    }
+}
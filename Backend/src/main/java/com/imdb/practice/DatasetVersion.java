@@ -0,0 +1,69 @@
+package com.imdb.practice;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks which import of the IMDb dataset the database currently holds.
+ * The version is polled in the background so request paths only read a field.
+ */
+public class DatasetVersion {
+    private static final long POLL_SECONDS = Long.parseLong(System.getenv().getOrDefault("DATASET_VERSION_POLL_SECONDS", "60"));
+    private static final List<Runnable> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile String current = "";
+
+    public static void init() {
+        current = read();
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dataset-version");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(DatasetVersion::refresh, POLL_SECONDS, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static String current() { return current; }
+
+    /** Registers a callback run (on the poller thread) whenever the version changes. */
+    public static void onChange(Runnable listener) { LISTENERS.add(listener); }
+
+    static void refresh() {
+        String v = read();
+        if (v.isEmpty() || v.equals(current)) return;
+        System.out.println("Dataset version changed: " + current + " -> " + v);
+        current = v;
+        for (Runnable l : LISTENERS) {
+            try { l.run(); } catch (RuntimeException e) { System.err.println("Dataset version listener failed: " + e.getMessage()); }
+        }
+    }
+
+    private static String read() {
+        try (Connection c = Db.getConnection(Db.Workload.METADATA)) {
+            try {
+                String v = queryOne(c, "SELECT version FROM dataset_meta ORDER BY imported_at DESC LIMIT 1");
+                if (v != null) return v;
+            } catch (SQLException ignored) {
+                // dataset_meta only exists for databases created by db-init; fall through
+            }
+            // Older databases: write counters move whenever a table is (re)loaded
+            String v = queryOne(c, "SELECT 'stats-' || coalesce(sum(n_tup_ins + n_tup_del), 0) FROM pg_stat_user_tables WHERE schemaname = 'public'");
+            return v == null ? "" : v;
+        } catch (SQLException e) {
+            System.err.println("Could not read dataset version: " + e.getMessage());
+            return current;
+        }
+    }
+
+    private static String queryOne(Connection c, String sql) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+}
@@ -1,45 +1,96 @@
 package com.imdb.practice;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import com.imdb.common.ReplicaRouter;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Connection pools, one per workload class so student SQL cannot starve
+ * grading or metadata lookups. Read-only workloads are spread over the
+ * replicas in DB_REPLICAS by {@link ReplicaRouter}.
+ */
 public class Db {
-    private static HikariDataSource ds;
+    private static final int POOL_SIZE = Integer.parseInt(System.getenv().getOrDefault("DB_POOL_SIZE", "10"));
+    private static final int QUERY_TIMEOUT_SECONDS = Integer.parseInt(System.getenv().getOrDefault("QUERY_TIMEOUT_SECONDS", "10"));
+
+    public enum Workload implements ReplicaRouter.Workload {
+        /** Student SQL from /api/run and /api/explain. */
+        USER_SQL("DB_POOL_USER_SQL", POOL_SIZE, true),
+        /** Solutions and user queries being graded. */
+        GRADING("DB_POOL_GRADING", Math.max(2, POOL_SIZE / 2), true),
+        /** Schema catalog and dataset version polling; always on the primary. */
+        METADATA("DB_POOL_METADATA", 2, false);
+
+        final int size;
+        final boolean replicaReads;
+
+        Workload(String env, int defaultSize, boolean replicaReads) {
+            this.size = Integer.parseInt(System.getenv().getOrDefault(env, String.valueOf(defaultSize)));
+            this.replicaReads = replicaReads;
+        }
+
+        @Override public int size() { return size; }
+
+        @Override public boolean replicaReads() { return replicaReads; }
+    }
+
+    private static ReplicaRouter<Workload> router;
 
     public static void initPool() {
-        HikariConfig cfg = new HikariConfig();
-        String host = envOr("DB_HOST", "localhost");
-        String port = envOr("DB_PORT", "5432");
-        String db = envOr("DB_NAME", "imdb");
-        String user = envOr("DB_USER", "postgres");
-        String pass = envOr("DB_PASSWORD", "postgres");
-        String jdbc = "jdbc:postgresql://" + host + ":" + port + "/" + db;
-        cfg.setJdbcUrl(jdbc);
-        cfg.setUsername(user);
-        cfg.setPassword(pass);
-        cfg.setMaximumPoolSize(10);
-        cfg.setMinimumIdle(1);
-        cfg.setConnectionTimeout(10_000);
-        cfg.setIdleTimeout(60_000);
-        cfg.setMaxLifetime(30 * 60_000);
-        cfg.setConnectionInitSql("SET TIME ZONE 'UTC'");
-        cfg.addDataSourceProperty("options", "-c TimeZone=UTC");
-        // Add PostgreSQL-specific properties
-        cfg.addDataSourceProperty("ssl", "false");
-        cfg.addDataSourceProperty("sslmode", "disable");
-        cfg.addDataSourceProperty("prepareThreshold", "0"); // Disable server-side prepared statements
-        ds = new HikariDataSource(cfg);
-    }
-
-    private static String envOr(String key, String defaultValue) {
-        String value = System.getenv(key);
-        return value != null ? value : defaultValue;
-    }
-
-    public static Connection getConnection() throws SQLException {
-        return ds.getConnection();
-    }
-}
\ No newline at end of file
+        router = new ReplicaRouter<>(Workload.class, (cfg, w) -> {
+            // Server-side backstop for every statement; the grader raises it per transaction with SET LOCAL.
+            // SqlLexer assumes standard_conforming_strings, so pin it rather than trust the server default.
+            cfg.addDataSourceProperty("options", "-c TimeZone=UTC -c standard_conforming_strings=on -c statement_timeout=" + QUERY_TIMEOUT_SECONDS + "s");
+            cfg.addDataSourceProperty("prepareThreshold", "0"); // Disable server-side prepared statements
+            cfg.addDataSourceProperty("ApplicationName", "imdb-practice-" + w.label());
+        });
+    }
+
+    /** Size of the student SQL pool, which bounds how many queries are worth running at once. */
+    public static int poolSize() { return Workload.USER_SQL.size; }
+
+    /** Live counters of every pool by pool name, for /api/metrics; empty before the pools are started. */
+    public static Map<String, HikariPoolMXBean> poolBeans() {
+        return router == null ? Map.of() : router.poolBeans();
+    }
+
+    /** Maximum size of a pool named by {@link #poolBeans}. */
+    public static int poolMax(String poolName) {
+        return router == null ? 0 : router.poolMax(poolName);
+    }
+
+    /** Replica health for /api/health. */
+    public static List<Map<String, Object>> replicaStats() {
+        return router == null ? List.of() : router.replicaStats();
+    }
+
+    public static Connection getConnection(Workload w) throws SQLException {
+        return router.getConnection(w);
+    }
+
+    /**
+     * A connection whose statements run in one read-only transaction, for user SQL.
+     * Closing it hands it back to Hikari, which rolls the transaction back and
+     * restores autocommit and the read-only flag.
+     */
+    public static Connection getReadOnlyConnection(Workload w) throws SQLException {
+        Connection c = getConnection(w);
+        try {
+            c.setAutoCommit(false);
+            c.setReadOnly(true);
+            return c;
+        } catch (SQLException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    /** A standalone connection to the primary, for background work that must not take a pool slot. */
+    public static Connection newUnpooledConnection(String applicationName) throws SQLException {
+        return router.newUnpooledConnection(applicationName);
+    }
+}
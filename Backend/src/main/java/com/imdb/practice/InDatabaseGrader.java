@@ -0,0 +1,268 @@
+package com.imdb.practice;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Grades over the full results. Unordered problems let PostgreSQL compare them
+ * with symmetric EXCEPT ALL, so only counts and a few differing rows come back
+ * over the wire. Ordered problems read both results side by side through
+ * cursors and compare row hashes, so each row's position is the one the
+ * query's own ORDER BY gave it. Everything runs under one statement_timeout.
+ */
+class InDatabaseGrader {
+    private static final int TIMEOUT_SECONDS = Integer.parseInt(System.getenv().getOrDefault("GRADE_FULL_TIMEOUT_SECONDS", "30"));
+    private static final int SAMPLE_ROWS = 5;
+    private static final int FETCH_SIZE = 1000;
+    /** Errors from EXCEPT ALL over columns that cannot be matched or converted, or have no equality operator. */
+    private static final Set<String> TYPE_STATES = Set.of("42804", "42846", "42883");
+
+    /** Result labels and type names, read from the metadata of a LIMIT 0 run. */
+    private static final class Shape {
+        final List<String> labels;
+        final List<String> types;
+
+        Shape(List<String> labels, List<String> types) {
+            this.labels = labels;
+            this.types = types;
+        }
+    }
+
+    /** What the catalog says about a result type. */
+    private static final class TypeInfo {
+        final String category;
+        final boolean comparable;
+
+        TypeInfo(String category, boolean comparable) {
+            this.category = category;
+            this.comparable = comparable;
+        }
+    }
+
+    static Map<String, Object> grade(String userSql, String solutionSql, boolean ordered, QueryAdmission.Permit permit) throws SQLException {
+        try (Connection c = Db.getConnection(Db.Workload.GRADING)) {
+            c.setAutoCommit(false);
+            try {
+                try (Statement st = c.createStatement()) {
+                    // SET LOCAL only lasts inside a transaction, hence autocommit off
+                    st.execute("SET LOCAL statement_timeout = '" + TIMEOUT_SECONDS + "s'");
+                    st.execute("SET LOCAL transaction_read_only = on");
+                }
+                return compare(c, userSql, solutionSql, ordered, permit);
+            } finally {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static Map<String, Object> compare(Connection c, String userSql, String solutionSql, boolean ordered,
+                                               QueryAdmission.Permit permit) throws SQLException {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("mode", "full");
+        Shape user = shape(c, userSql, permit);
+        Shape sol = shape(c, solutionSql, permit);
+        if (!user.labels.equals(sol.labels)) {
+            return mismatch(out, "columns", sol.labels, user.labels);
+        }
+        Map<String, TypeInfo> types = typeInfo(c, user.types, sol.types);
+        boolean[] asText = new boolean[user.types.size()];
+        for (int i = 0; i < asText.length; i++) {
+            TypeInfo u = types.get(user.types.get(i));
+            TypeInfo s = types.get(sol.types.get(i));
+            if (!u.category.equals(s.category)) return mismatch(out, "types", sol.types, user.types);
+            asText[i] = !u.comparable || !s.comparable;
+        }
+        if (ordered) return compareOrdered(c, out, userSql, solutionSql, permit);
+
+        String with = "WITH u AS (" + source(userSql, user.labels, asText) + "), s AS (" + source(solutionSql, sol.labels, asText) + ") ";
+        long actual;
+        long expected;
+        long unexpected;
+        long missing;
+        try (Statement st = statement(c, permit); ResultSet rs = st.executeQuery(with +
+                "SELECT (SELECT count(*) FROM u), (SELECT count(*) FROM s), " +
+                "(SELECT count(*) FROM (SELECT * FROM u EXCEPT ALL SELECT * FROM s) x), " +
+                "(SELECT count(*) FROM (SELECT * FROM s EXCEPT ALL SELECT * FROM u) x)")) {
+            rs.next();
+            actual = rs.getLong(1);
+            expected = rs.getLong(2);
+            unexpected = rs.getLong(3);
+            missing = rs.getLong(4);
+        } catch (SQLException e) {
+            // The catalog check covers the usual cases; anything it let through is still a wrong answer, not a bad request
+            if (e.getSQLState() == null || !TYPE_STATES.contains(e.getSQLState())) throw e;
+            return mismatch(out, "types", sol.types, user.types);
+        }
+        out.put("correct", unexpected == 0 && missing == 0);
+        out.put("expectedCount", expected);
+        out.put("actualCount", actual);
+        out.put("unexpectedCount", unexpected);
+        out.put("missingCount", missing);
+        out.put("sampleUnexpected", unexpected == 0 ? List.of() : sample(c, with + "SELECT * FROM u EXCEPT ALL SELECT * FROM s", permit));
+        out.put("sampleMissing", missing == 0 ? List.of() : sample(c, with + "SELECT * FROM s EXCEPT ALL SELECT * FROM u", permit));
+        return out;
+    }
+
+    /**
+     * Walks both results in step and compares the rows at each position, so the order is the
+     * one each query's ORDER BY produced. A differing position counts as one unexpected and one
+     * missing row, as does every row past the end of the shorter result.
+     */
+    private static Map<String, Object> compareOrdered(Connection c, Map<String, Object> out, String userSql, String solutionSql,
+                                                      QueryAdmission.Permit permit) throws SQLException {
+        long actual = 0;
+        long expected = 0;
+        long unexpected = 0;
+        long missing = 0;
+        List<Map<String, Object>> sampleUnexpected = new ArrayList<>();
+        List<Map<String, Object>> sampleMissing = new ArrayList<>();
+        ResultComparator.RowHasher hasher = new ResultComparator.RowHasher();
+        long[] hashes = new long[4];
+        try (Statement us = statement(c, permit); Statement ss = statement(c, permit)) {
+            // Within the transaction a fetch size makes each a cursor, so neither result is held in memory
+            us.setFetchSize(FETCH_SIZE);
+            ss.setFetchSize(FETCH_SIZE);
+            try (ResultSet u = us.executeQuery(userSql); ResultSet s = ss.executeQuery(solutionSql)) {
+                ResultSetJson uCols = ResultSetJson.of(u.getMetaData());
+                ResultSetJson sCols = ResultSetJson.of(s.getMetaData());
+                boolean uMore = u.next();
+                boolean sMore = s.next();
+                while (uMore || sMore) {
+                    if (uMore) actual++;
+                    if (sMore) expected++;
+                    long position = Math.max(actual, expected);
+                    if (uMore) hash(hasher, uCols, u, hashes, 0);
+                    if (sMore) hash(hasher, sCols, s, hashes, 2);
+                    boolean same = uMore && sMore && hashes[0] == hashes[2] && hashes[1] == hashes[3];
+                    if (!same && uMore) {
+                        unexpected++;
+                        if (sampleUnexpected.size() < SAMPLE_ROWS) sampleUnexpected.add(positioned(position, uCols, u));
+                    }
+                    if (!same && sMore) {
+                        missing++;
+                        if (sampleMissing.size() < SAMPLE_ROWS) sampleMissing.add(positioned(position, sCols, s));
+                    }
+                    if (uMore) uMore = u.next();
+                    if (sMore) sMore = s.next();
+                }
+            }
+        }
+        out.put("correct", unexpected == 0 && missing == 0);
+        out.put("expectedCount", expected);
+        out.put("actualCount", actual);
+        out.put("unexpectedCount", unexpected);
+        out.put("missingCount", missing);
+        out.put("sampleUnexpected", sampleUnexpected);
+        out.put("sampleMissing", sampleMissing);
+        return out;
+    }
+
+    private static void hash(ResultComparator.RowHasher hasher, ResultSetJson cols, ResultSet rs, long[] out, int at) throws SQLException {
+        hasher.reset();
+        for (int i = 0; i < cols.labels().length; i++) hasher.addCell(cols.value(rs, i));
+        hasher.finish(out, at);
+    }
+
+    private static Map<String, Object> positioned(long position, ResultSetJson cols, ResultSet rs) throws SQLException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("position", position);
+        row.putAll(cols.toMap(rs));
+        return row;
+    }
+
+    private static Map<String, Object> mismatch(Map<String, Object> out, String kind, List<String> expected, List<String> actual) {
+        out.put("correct", false);
+        Map<String, Object> mismatch = new LinkedHashMap<>();
+        mismatch.put("kind", kind);
+        mismatch.put("expected", Map.of(kind, expected));
+        mismatch.put("actual", Map.of(kind, actual));
+        out.put("mismatch", mismatch);
+        return out;
+    }
+
+    /**
+     * The query as is, or with the asText columns compared as text, for types such as json that
+     * have no equality operator for EXCEPT ALL to use.
+     */
+    private static String source(String sql, List<String> labels, boolean[] asText) {
+        boolean any = false;
+        for (boolean t : asText) any |= t;
+        if (!any) return sql;
+        StringBuilder select = new StringBuilder("SELECT ");
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < labels.size(); i++) {
+            if (i > 0) {
+                select.append(", ");
+                names.append(", ");
+            }
+            // Positional names inside, so duplicate or odd labels cannot clash
+            names.append("c").append(i + 1);
+            select.append("q.c").append(i + 1).append(asText[i] ? "::text" : "")
+                    .append(" AS \"").append(labels.get(i).replace("\"", "\"\"")).append('"');
+        }
+        return select + " FROM (" + sql + ") q(" + names + ")";
+    }
+
+    private static Shape shape(Connection c, String sql, QueryAdmission.Permit permit) throws SQLException {
+        try (Statement st = statement(c, permit); ResultSet rs = st.executeQuery("SELECT * FROM (" + sql + ") _q LIMIT 0")) {
+            ResultSetMetaData md = rs.getMetaData();
+            List<String> types = new ArrayList<>();
+            for (int i = 1; i <= md.getColumnCount(); i++) types.add(md.getColumnTypeName(i));
+            return new Shape(List.of(ResultSetJson.of(md).labels()), types);
+        }
+    }
+
+    /**
+     * Category of each type (numbers with numbers, strings with strings and so on, which EXCEPT ALL
+     * can line up) and whether it has a default btree or hash operator class to compare values with.
+     * A name the catalog lookup misses stands for its own category.
+     */
+    private static Map<String, TypeInfo> typeInfo(Connection c, List<String> a, List<String> b) throws SQLException {
+        List<String> names = new ArrayList<>(a);
+        names.addAll(b);
+        Map<String, TypeInfo> out = new HashMap<>();
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT t.typname, t.typcategory::text, EXISTS (SELECT 1 FROM pg_opclass oc JOIN pg_am am ON am.oid = oc.opcmethod " +
+                "  WHERE oc.opcdefault AND am.amname IN ('btree', 'hash') AND (oc.opcintype = t.oid " +
+                "    OR oc.opcintype = t.typbasetype " +
+                "    OR (t.typcategory = 'A' AND oc.opcintype = 'anyarray'::regtype) " +
+                "    OR (t.typcategory = 'E' AND oc.opcintype = 'anyenum'::regtype) " +
+                "    OR EXISTS (SELECT 1 FROM pg_cast WHERE castsource = t.oid AND casttarget = oc.opcintype AND castmethod = 'b'))) " +
+                "FROM pg_type t WHERE t.typname = ANY (?)")) {
+            Array arr = c.createArrayOf("text", names.toArray());
+            ps.setArray(1, arr);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.putIfAbsent(rs.getString(1), new TypeInfo(rs.getString(2), rs.getBoolean(3)));
+            }
+        }
+        for (String n : names) out.putIfAbsent(n, new TypeInfo(n, true));
+        return out;
+    }
+
+    private static List<Map<String, Object>> sample(Connection c, String sql, QueryAdmission.Permit permit) throws SQLException {
+        try (Statement st = statement(c, permit); ResultSet rs = st.executeQuery(sql + " LIMIT " + SAMPLE_ROWS)) {
+            ResultSetJson cols = ResultSetJson.of(rs.getMetaData());
+            List<Map<String, Object>> out = new ArrayList<>();
+            while (rs.next()) out.add(cols.toMap(rs));
+            return out;
+        }
+    }
+
+    private static Statement statement(Connection c, QueryAdmission.Permit permit) throws SQLException {
+        Statement st = c.createStatement();
+        permit.track(st, TIMEOUT_SECONDS * 1000L);
+        return st;
+    }
+}
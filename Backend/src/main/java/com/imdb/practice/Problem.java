@@ -11,6 +11,11 @@ public class Problem {
     public List<String> tables; // related tables
     public String starterSql; // optional starter
     public String solutionSql; // reference solution (not sent to client)
+    public Boolean ordered; // row order matters when grading (ORDER BY problems)
+
+    // Derived once in ProblemStore.init, never serialized
+    String sanitizedSolution;
+    List<String> hintVerbs;
 
     public Problem() {}
 
@@ -24,6 +29,8 @@ public class Problem {
         this.solutionSql = solutionSql;
     }
 
+    public boolean isOrdered() { return Boolean.TRUE.equals(ordered); }
+
     public Map<String, Object> publicView() {
         return Map.of(
                 "id", id,
@@ -2,37 +2,179 @@ package com.imdb.practice;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imdb.common.CachedJson;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Problems from problems.json, held in an immutable snapshot that is swapped
+ * atomically on reload. Readers never lock. Lists and single problems are
+ * serialized once per snapshot.
+ *
+ * Set PROBLEMS_FILE to load from disk instead of the classpath; the file is
+ * then watched and reloaded when it changes.
+ */
 public class ProblemStore {
     private static final ObjectMapper MAPPER = new ObjectMapper();
-    private static final Map<String, Problem> BY_ID = new LinkedHashMap<>();
+    private static final List<Runnable> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile Snapshot current;
+
+    static final class Snapshot {
+        final Problem[] ordered;
+        final Map<String, Integer> position;
+        final Map<String, Problem[]> byDifficulty;
+        final Map<String, Problem[]> byTable;
+        final CachedJson listJson;
+        final Map<String, CachedJson> problemJson;
+
+        Snapshot(List<Problem> problems) throws IOException {
+            ordered = problems.toArray(new Problem[0]);
+            Map<String, Integer> pos = new HashMap<>();
+            Map<String, List<Problem>> diff = new LinkedHashMap<>();
+            Map<String, List<Problem>> tables = new LinkedHashMap<>();
+            Map<String, CachedJson> json = new HashMap<>();
+            List<Map<String, Object>> list = new ArrayList<>(ordered.length);
+            for (int i = 0; i < ordered.length; i++) {
+                Problem p = ordered[i];
+                pos.put(p.id, i);
+                if (p.difficulty != null) diff.computeIfAbsent(p.difficulty.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(p);
+                if (p.tables != null) {
+                    for (String t : p.tables) tables.computeIfAbsent(t.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(p);
+                }
+                Map<String, Object> view = p.publicView();
+                list.add(view);
+                json.put(p.id, CachedJson.of(MAPPER, view));
+            }
+            position = pos;
+            byDifficulty = freeze(diff);
+            byTable = freeze(tables);
+            listJson = CachedJson.of(MAPPER, list);
+            problemJson = json;
+        }
+
+        private static Map<String, Problem[]> freeze(Map<String, List<Problem>> m) {
+            Map<String, Problem[]> out = new HashMap<>();
+            m.forEach((k, v) -> out.put(k, v.toArray(new Problem[0])));
+            return out;
+        }
+    }
 
     public static void init() throws Exception {
-        try (InputStream in = ProblemStore.class.getResourceAsStream("/problems.json")) {
-            if (in == null) throw new IllegalStateException("problems.json not found on classpath");
-            List<Problem> problems = MAPPER.readValue(in, new TypeReference<List<Problem>>(){});
-            for (Problem p : problems) {
-                BY_ID.put(p.id, p);
+        String file = System.getenv("PROBLEMS_FILE");
+        if (file != null && !file.isBlank()) {
+            Path path = Paths.get(file).toAbsolutePath();
+            current = load(path);
+            startWatcher(path);
+        } else {
+            try (InputStream in = ProblemStore.class.getResourceAsStream("/problems.json")) {
+                if (in == null) throw new IllegalStateException("problems.json not found on classpath");
+                current = build(MAPPER.readValue(in, new TypeReference<List<Problem>>(){}));
             }
         }
     }
 
-    public static List<Map<String, Object>> listPublic() {
-        return BY_ID.values().stream().map(Problem::publicView).collect(Collectors.toList());
+    /** Registers a callback run after a reload has been swapped in. */
+    public static void onReload(Runnable listener) { LISTENERS.add(listener); }
+
+    public static CachedJson listJson() { return current.listJson; }
+
+    public static CachedJson problemJson(String id) { return current.problemJson.get(id); }
+
+    /** Public views of the problems matching both filters; a null filter matches everything. */
+    public static List<Map<String, Object>> listPublic(String difficulty, String table) {
+        Snapshot s = current;
+        Problem[] candidates = s.ordered;
+        if (table != null) candidates = s.byTable.getOrDefault(table.toLowerCase(Locale.ROOT), new Problem[0]);
+        else if (difficulty != null) candidates = s.byDifficulty.getOrDefault(difficulty.toLowerCase(Locale.ROOT), new Problem[0]);
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Problem p : candidates) {
+            if (difficulty == null || difficulty.equalsIgnoreCase(p.difficulty)) out.add(p.publicView());
+        }
+        return out;
     }
 
-    public static Problem get(String id) { return BY_ID.get(id); }
+    public static Problem get(String id) {
+        Snapshot s = current;
+        Integer i = s.position.get(id);
+        return i == null ? null : s.ordered[i];
+    }
+
+    public static List<String> orderedIds() {
+        Snapshot s = current;
+        List<String> ids = new ArrayList<>(s.ordered.length);
+        for (Problem p : s.ordered) ids.add(p.id);
+        return ids;
+    }
 
-    public static List<String> orderedIds() { return new ArrayList<>(BY_ID.keySet()); }
+    public static String nextId(String id) { return neighbour(id, 1); }
 
-    public static String nextId(String id) {
-        List<String> ids = orderedIds();
-        int idx = ids.indexOf(id);
-        if (idx == -1 || idx+1 >= ids.size()) return null;
-        return ids.get(idx+1);
+    public static String prevId(String id) { return neighbour(id, -1); }
+
+    private static String neighbour(String id, int step) {
+        Snapshot s = current;
+        Integer i = s.position.get(id);
+        if (i == null || i + step < 0 || i + step >= s.ordered.length) return null;
+        return s.ordered[i + step].id;
+    }
+
+    private static Snapshot load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return build(MAPPER.readValue(in, new TypeReference<List<Problem>>(){}));
+        }
+    }
+
+    private static Snapshot build(List<Problem> problems) throws IOException {
+        for (Problem p : problems) {
+            SqlLexer.Result solution = SqlLexer.analyze(p.solutionSql);
+            p.sanitizedSolution = solution.sql;
+            p.hintVerbs = solution.verbs;
+        }
+        return new Snapshot(problems);
+    }
+
+    private static void startWatcher(Path path) throws IOException {
+        WatchService ws = path.getFileSystem().newWatchService();
+        path.getParent().register(ws, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        Thread t = new Thread(() -> {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = ws.take();
+                    // Editors write in several steps; let them settle
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                boolean ours = false;
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (path.getFileName().equals(ev.context())) ours = true;
+                }
+                key.reset();
+                if (ours) reload(path);
+            }
+        }, "problems-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void reload(Path path) {
+        try {
+            current = load(path);
+            System.out.println("Reloaded " + current.ordered.length + " problems from " + path);
+            for (Runnable l : LISTENERS) l.run();
+        } catch (Exception e) {
+            // Keep serving the previous snapshot
+            System.err.println("Could not reload " + path + ": " + e.getMessage());
+        }
     }
 }
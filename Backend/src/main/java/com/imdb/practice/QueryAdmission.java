@@ -0,0 +1,220 @@
+package com.imdb.practice;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission for user-submitted SQL. Each client may run a few queries at a
+ * time. Beyond that, queries wait in a fair FIFO queue for one of the global
+ * slots, up to a deadline. Running statements are cancelled when their
+ * deadline passes.
+ */
+class QueryAdmission {
+    private static final int PER_CLIENT = Integer.parseInt(System.getenv().getOrDefault("QUERY_MAX_PER_CLIENT", "2"));
+    // Leave a couple of pool connections for solutions, schema and other metadata
+    private static final int GLOBAL = Integer.parseInt(System.getenv().getOrDefault("QUERY_MAX_CONCURRENT", String.valueOf(Math.max(1, Db.poolSize() - 2))));
+    private static final long QUEUE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("QUERY_QUEUE_TIMEOUT_MS", "5000"));
+    // "ip" (default) or "token" (the Authorization header, falling back to ip)
+    private static final String CLIENT_KEY = System.getenv().getOrDefault("QUERY_CLIENT_KEY", "ip").toLowerCase(Locale.ROOT);
+    // Peers whose X-Real-IP header is believed: "private" (loopback and private networks, where the
+    // nginx container sits), "none", or a comma-separated list of addresses
+    private static final String TRUSTED_PROXIES = System.getenv().getOrDefault("QUERY_TRUSTED_PROXIES", "private").trim().toLowerCase(Locale.ROOT);
+    private static final Set<String> TRUSTED_ADDRESSES = Arrays.stream(TRUSTED_PROXIES.split(","))
+            .map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
+
+    // Queries the cost gate marks as heavy also need one of these, so they can't crowd out cheap ones.
+    // They are taken while already holding a normal slot; holders of both never wait, so this cannot deadlock.
+    private static final int HEAVY = Integer.parseInt(System.getenv().getOrDefault("QUERY_MAX_HEAVY", "2"));
+
+    private static final Semaphore SLOTS = new Semaphore(GLOBAL, true);
+    private static final Semaphore HEAVY_SLOTS = new Semaphore(HEAVY, true);
+    // Running queries per client; entries are removed when they drop to zero
+    private static final ConcurrentHashMap<String, Integer> PER_CLIENT_RUNNING = new ConcurrentHashMap<>();
+    private static final AtomicInteger WAITING = new AtomicInteger();
+    private static final LongAdder ADMITTED = new LongAdder();
+    private static final LongAdder QUEUED = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder CANCELLED = new LongAdder();
+    private static final ScheduledExecutorService TIMERS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "query-deadlines");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static final class Rejected extends Exception {
+        final int status;
+        final Map<String, Object> details;
+
+        Rejected(int status, String message) {
+            this(status, message, null);
+        }
+
+        Rejected(int status, String message, Map<String, Object> details) {
+            super(message);
+            this.status = status;
+            this.details = details;
+        }
+
+        Map<String, Object> body() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("error", getMessage());
+            if (details != null) m.put("plan", details);
+            return m;
+        }
+    }
+
+    /** Held while a client's query runs; closing it releases the slots and stops any pending cancel. */
+    static final class Permit implements AutoCloseable {
+        private final String client;
+        private volatile boolean heavy;
+        private volatile Statement statement;
+        private volatile ScheduledFuture<?> deadline;
+
+        private Permit(String client) {
+            this.client = client;
+        }
+
+        /** Also takes a heavy slot, for a query the cost gate marked heavy after it was admitted as a normal one. */
+        void upgrade() throws Rejected, InterruptedException {
+            if (heavy) return;
+            if (!take(HEAVY_SLOTS, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MS))) {
+                REJECTED.increment();
+                throw new Rejected(503, "Too many expensive queries running, retry shortly");
+            }
+            heavy = true;
+        }
+
+        /** Cancels the statement if it is still running after timeoutMs. */
+        void track(Statement st, long timeoutMs) {
+            ScheduledFuture<?> prev = deadline;
+            if (prev != null) prev.cancel(false);
+            statement = st;
+            deadline = TIMERS.schedule(this::cancel, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        /** The tracked statement has finished on the server, so there is nothing left to cancel. */
+        void done() {
+            ScheduledFuture<?> d = deadline;
+            if (d != null) d.cancel(false);
+            statement = null;
+        }
+
+        /** Cancels the running statement, e.g. after its deadline or once the client has gone away. */
+        void cancel() {
+            Statement st = statement;
+            try {
+                if (st == null || st.isClosed()) return;
+                st.cancel();
+                CANCELLED.increment();
+            } catch (SQLException ignored) {
+                // Already finished or closed
+            }
+        }
+
+        @Override
+        public void close() {
+            ScheduledFuture<?> d = deadline;
+            if (d != null) d.cancel(false);
+            statement = null;
+            SLOTS.release();
+            if (heavy) HEAVY_SLOTS.release();
+            releaseClient(client);
+        }
+    }
+
+    /** Waits for a normal slot; {@link Permit#upgrade} adds a heavy one once the plan is known. */
+    static Permit acquire(HttpExchange ex) throws Rejected, InterruptedException {
+        String client = clientKey(ex);
+        boolean[] full = new boolean[1];
+        PER_CLIENT_RUNNING.compute(client, (k, n) -> {
+            int running = n == null ? 0 : n;
+            full[0] = running >= PER_CLIENT;
+            return full[0] ? n : running + 1;
+        });
+        if (full[0]) {
+            REJECTED.increment();
+            throw new Rejected(429, "Too many queries running for this client; wait for one to finish");
+        }
+        boolean admitted = false;
+        try {
+            if (!take(SLOTS, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MS))) {
+                REJECTED.increment();
+                throw new Rejected(503, "Server busy, retry shortly");
+            }
+            admitted = true;
+            ADMITTED.increment();
+            return new Permit(client);
+        } finally {
+            if (!admitted) releaseClient(client);
+        }
+    }
+
+    private static boolean take(Semaphore slots, long deadlineNanos) throws InterruptedException {
+        if (slots.tryAcquire()) return true;
+        QUEUED.increment();
+        WAITING.incrementAndGet();
+        try {
+            return slots.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } finally {
+            WAITING.decrementAndGet();
+        }
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("running", GLOBAL - SLOTS.availablePermits());
+        m.put("maxConcurrent", GLOBAL);
+        m.put("heavyRunning", HEAVY - HEAVY_SLOTS.availablePermits());
+        m.put("waiting", WAITING.get());
+        m.put("admitted", ADMITTED.sum());
+        m.put("queued", QUEUED.sum());
+        m.put("rejected", REJECTED.sum());
+        m.put("cancelled", CANCELLED.sum());
+        m.put("clients", PER_CLIENT_RUNNING.size());
+        return m;
+    }
+
+    private static void releaseClient(String client) {
+        PER_CLIENT_RUNNING.computeIfPresent(client, (k, n) -> n <= 1 ? null : n - 1);
+    }
+
+    private static String clientKey(HttpExchange ex) {
+        if ("token".equals(CLIENT_KEY)) {
+            String auth = ex.getRequestHeaders().getFirst("Authorization");
+            if (auth != null && !auth.isBlank()) return "token:" + auth;
+        }
+        // nginx sets X-Real-IP to the peer address; X-Forwarded-For can be supplied by the client
+        InetAddress peer = ex.getRemoteAddress().getAddress();
+        String realIp = ex.getRequestHeaders().getFirst("X-Real-IP");
+        if (realIp != null && !realIp.isBlank() && trustedProxy(peer)) return realIp.trim();
+        return peer.getHostAddress();
+    }
+
+    /** Whether the peer is a reverse proxy allowed to name the real client. */
+    static boolean trustedProxy(InetAddress peer) {
+        if ("none".equals(TRUSTED_PROXIES)) return false;
+        if ("private".equals(TRUSTED_PROXIES)) {
+            // fc00::/7 (unique local) is not covered by isSiteLocalAddress
+            boolean uniqueLocal = peer.getAddress().length == 16 && (peer.getAddress()[0] & 0xfe) == 0xfc;
+            return peer.isLoopbackAddress() || peer.isSiteLocalAddress() || peer.isLinkLocalAddress() || uniqueLocal;
+        }
+        return TRUSTED_ADDRESSES.contains(peer.getHostAddress());
+    }
+}
@@ -0,0 +1,297 @@
+package com.imdb.practice;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compares query results as multisets of rows (or as sequences for ordered
+ * problems). Each row is reduced to a 128-bit hash of its type-normalized
+ * cells, so a result is compared without serializing or sorting rows and
+ * duplicate rows are counted rather than collapsed.
+ */
+class ResultComparator {
+    /** Numbers are compared at this many decimal places, so 8.50 == 8.5 and float noise is ignored. */
+    private static final int NUMERIC_SCALE = Integer.parseInt(System.getenv().getOrDefault("GRADE_NUMERIC_SCALE", "6"));
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    static final class Fingerprint {
+        final List<String> columns;
+        /** Two longs per row, in result order. */
+        final long[] hashes;
+
+        Fingerprint(List<String> columns, long[] hashes) {
+            this.columns = columns;
+            this.hashes = hashes;
+        }
+
+        int rowCount() { return hashes.length / 2; }
+    }
+
+    static final class Mismatch {
+        final String kind;
+        final int row;
+        final Map<String, Object> expected;
+        final Map<String, Object> actual;
+
+        Mismatch(String kind, int row, Map<String, Object> expected, Map<String, Object> actual) {
+            this.kind = kind;
+            this.row = row;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("kind", kind);
+            m.put("row", row);
+            m.put("expected", expected);
+            m.put("actual", actual);
+            return m;
+        }
+    }
+
+    static Fingerprint fingerprint(List<Map<String, Object>> rows) {
+        List<String> columns = rows.isEmpty() ? List.of() : new ArrayList<>(rows.get(0).keySet());
+        long[] hashes = new long[rows.size() * 2];
+        RowHasher h = new RowHasher();
+        for (int i = 0; i < rows.size(); i++) {
+            h.reset();
+            for (Object v : rows.get(i).values()) {
+                h.addCell(v);
+            }
+            h.finish(hashes, i * 2);
+        }
+        return new Fingerprint(columns, hashes);
+    }
+
+    /**
+     * Returns null when the results match, otherwise the first difference found.
+     * Rows are only consulted to describe the mismatch.
+     */
+    static Mismatch compare(Fingerprint expected, List<Map<String, Object>> expectedRows,
+                            Fingerprint actual, List<Map<String, Object>> actualRows, boolean ordered) {
+        Matcher m = new Matcher(expected, expectedRows, ordered, actual.columns);
+        for (int i = 0; i < actual.rowCount(); i++) {
+            int row = i;
+            m.add(actual.hashes[2 * i], actual.hashes[2 * i + 1], () -> actualRows.get(row));
+        }
+        return m.finish();
+    }
+
+    /**
+     * Compares a result against the expected one row at a time as it is read, so the
+     * actual rows are hashed and dropped; only a row that turns out to differ is kept.
+     */
+    static final class Matcher {
+        private final Fingerprint expected;
+        private final List<Map<String, Object>> expectedRows;
+        private final boolean ordered;
+        private final List<String> columns;
+        private final Map<Key, Key> remaining;
+        private final RowHasher hasher = new RowHasher();
+        private final long[] hash = new long[2];
+        private int rows;
+        private Mismatch mismatch;
+
+        Matcher(Fingerprint expected, List<Map<String, Object>> expectedRows, boolean ordered, List<String> columns) {
+            this.expected = expected;
+            this.expectedRows = expectedRows;
+            this.ordered = ordered;
+            this.columns = columns;
+            this.remaining = ordered ? null : new HashMap<>(expected.rowCount() * 2);
+            if (!ordered) {
+                for (int i = 0; i < expected.rowCount(); i++) {
+                    Key k = new Key(expected.hashes[2 * i], expected.hashes[2 * i + 1], i);
+                    Key prev = remaining.putIfAbsent(k, k);
+                    if (prev != null) prev.count++;
+                }
+            }
+        }
+
+        /** Feeds the next row as its cell values in column order; the array may be reused afterwards. */
+        void add(Object[] cells) {
+            if (mismatch != null) {
+                rows++;
+                return;
+            }
+            hasher.reset();
+            for (Object v : cells) hasher.addCell(v);
+            hasher.finish(hash, 0);
+            add(hash[0], hash[1], () -> {
+                Map<String, Object> m = new LinkedHashMap<>();
+                for (int i = 0; i < cells.length; i++) m.put(columns.get(i), cells[i]);
+                return m;
+            });
+        }
+
+        private void add(long h1, long h2, Supplier<Map<String, Object>> row) {
+            int i = rows++;
+            if (mismatch != null) return;
+            if (i == 0 && expected.rowCount() > 0 && !expected.columns.equals(columns)) {
+                mismatch = new Mismatch("columns", 0, Map.of("columns", expected.columns), Map.of("columns", columns));
+            } else if (ordered) {
+                if (i >= expected.rowCount()) {
+                    mismatch = new Mismatch("unexpectedRow", i, null, row.get());
+                } else if (expected.hashes[2 * i] != h1 || expected.hashes[2 * i + 1] != h2) {
+                    mismatch = new Mismatch("row", i, expectedRows.get(i), row.get());
+                }
+            } else {
+                Key k = remaining.get(new Key(h1, h2, -1));
+                if (k == null || k.count == 0) {
+                    mismatch = new Mismatch("unexpectedRow", i, null, row.get());
+                } else {
+                    k.count--;
+                }
+            }
+        }
+
+        int rowCount() { return rows; }
+
+        /** Null when the results match, otherwise the first difference found. */
+        Mismatch finish() {
+            if (mismatch != null) return mismatch;
+            if (ordered) {
+                return rows < expected.rowCount() ? new Mismatch("missingRow", rows, expectedRows.get(rows), null) : null;
+            }
+            int firstMissing = Integer.MAX_VALUE;
+            for (Key k : remaining.values()) {
+                if (k.count > 0) firstMissing = Math.min(firstMissing, k.firstRow);
+            }
+            return firstMissing == Integer.MAX_VALUE ? null : new Mismatch("missingRow", firstMissing, expectedRows.get(firstMissing), null);
+        }
+    }
+
+    private static final class Key {
+        final long h1;
+        final long h2;
+        final int firstRow;
+        int count = 1;
+
+        Key(long h1, long h2, int firstRow) {
+            this.h1 = h1;
+            this.h2 = h2;
+            this.firstRow = firstRow;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).h1 == h1 && ((Key) o).h2 == h2;
+        }
+
+        @Override
+        public int hashCode() { return (int) (h1 ^ (h1 >>> 32)); }
+    }
+
+    /** Streaming 128-bit hash over typed cells, using the MurmurHash3 x64 mixing steps. */
+    static final class RowHasher {
+        private static final int NULL = 1;
+        private static final int NUMBER = 2;
+        private static final int BOOL = 3;
+        private static final int TEXT = 4;
+        private static final int OTHER = 5;
+
+        private long h1;
+        private long h2;
+        private long words;
+
+        void reset() {
+            h1 = 0x9368e53c2f6af274L;
+            h2 = 0x586dcd208f7cd3fdL;
+            words = 0;
+        }
+
+        void addCell(Object v) {
+            if (v == null) {
+                add(NULL);
+            } else if (v instanceof Number) {
+                String n = normalizeNumber((Number) v);
+                add(NUMBER);
+                addChars(n);
+            } else if (v instanceof Boolean) {
+                add(BOOL);
+                add((Boolean) v ? 1 : 0);
+            } else if (v instanceof String) {
+                add(TEXT);
+                addChars((String) v);
+            } else {
+                add(OTHER);
+                addChars(v.toString());
+            }
+        }
+
+        void finish(long[] out, int at) {
+            long a = h1 ^ words;
+            long b = h2 ^ words;
+            a += b;
+            b += a;
+            a = fmix(a);
+            b = fmix(b);
+            a += b;
+            b += a;
+            out[at] = a;
+            out[at + 1] = b;
+        }
+
+        private void addChars(String s) {
+            int len = s.length();
+            add(len);
+            int i = 0;
+            for (; i + 4 <= len; i += 4) {
+                add((long) s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48);
+            }
+            long tail = 0;
+            for (int shift = 0; i < len; i++, shift += 16) {
+                tail |= (long) s.charAt(i) << shift;
+            }
+            if (len % 4 != 0) add(tail);
+        }
+
+        private void add(long k) {
+            long k1 = Long.rotateLeft(k * C1, 31) * C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            long k2 = Long.rotateLeft((k ^ 0x9e3779b97f4a7c15L) * C2, 33) * C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+            words++;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+
+    static String normalizeNumber(Number n) {
+        if (n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte) {
+            return Long.toString(n.longValue());
+        }
+        BigDecimal bd;
+        if (n instanceof BigDecimal) {
+            bd = (BigDecimal) n;
+        } else if (n instanceof Double || n instanceof Float) {
+            double d = n.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) return Double.toString(d);
+            bd = BigDecimal.valueOf(d);
+        } else {
+            bd = new BigDecimal(n.toString());
+        }
+        if (bd.scale() > NUMERIC_SCALE) bd = bd.setScale(NUMERIC_SCALE, RoundingMode.HALF_UP);
+        bd = bd.stripTrailingZeros();
+        return bd.scale() <= 0 ? bd.toBigInteger().toString() : bd.toPlainString();
+    }
+}
@@ -0,0 +1,86 @@
+package com.imdb.practice;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-column handling of a result set, worked out once from its metadata so
+ * rows can be written without a regex or a map per cell.
+ */
+class ResultSetJson {
+    private final String[] labels;
+    private final boolean[] trimTt;
+
+    private ResultSetJson(String[] labels, boolean[] trimTt) {
+        this.labels = labels;
+        this.trimTt = trimTt;
+    }
+
+    static ResultSetJson of(ResultSetMetaData md) throws SQLException {
+        int cols = md.getColumnCount();
+        String[] labels = new String[cols];
+        boolean[] trimTt = new boolean[cols];
+        for (int i = 0; i < cols; i++) {
+            labels[i] = md.getColumnLabel(i + 1);
+            trimTt[i] = isTitleIdColumn(labels[i]);
+        }
+        return new ResultSetJson(labels, trimTt);
+    }
+
+    String[] labels() { return labels; }
+
+    /** Streams the remaining rows as a JSON array of objects. Returns the number of rows written. */
+    int writeRows(ResultSet rs, JsonGenerator g) throws SQLException, IOException {
+        int n = 0;
+        g.writeStartArray();
+        while (rs.next()) {
+            writeRow(rs, g);
+            n++;
+        }
+        g.writeEndArray();
+        return n;
+    }
+
+    /** Writes the current row as a JSON object. */
+    void writeRow(ResultSet rs, JsonGenerator g) throws SQLException, IOException {
+        g.writeStartObject();
+        for (int i = 0; i < labels.length; i++) {
+            g.writeFieldName(labels[i]);
+            Object val = value(rs, i);
+            if (val == null) g.writeNull();
+            else if (val instanceof String) g.writeString((String) val);
+            else g.writeObject(val);
+        }
+        g.writeEndObject();
+    }
+
+    Map<String, Object> toMap(ResultSet rs) throws SQLException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            row.put(labels[i], value(rs, i));
+        }
+        return row;
+    }
+
+    Object value(ResultSet rs, int i) throws SQLException {
+        if (!trimTt[i]) return rs.getObject(i + 1);
+        String s = rs.getString(i + 1);
+        // Trim 'tt' prefix from movie/tconst-like identifiers before exposing to clients
+        if (s != null && s.length() > 2 && s.startsWith("tt") && Character.isDigit(s.charAt(2))) {
+            return s.substring(2);
+        }
+        return rs.getObject(i + 1);
+    }
+
+    private static boolean isTitleIdColumn(String col) {
+        String lc = col == null ? "" : col.toLowerCase(Locale.ROOT);
+        return "tconst".equals(lc) || "parenttconst".equals(lc) || "titleid".equals(lc);
+    }
+}
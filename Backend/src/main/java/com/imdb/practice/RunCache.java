@@ -0,0 +1,189 @@
+package com.imdb.practice;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized /api/run responses keyed by normalized SQL, row limit and dataset
+ * version. Bounded by total bytes with LRU eviction; identical concurrent
+ * misses share a single query. Waiters only inherit the leader's failure when
+ * the query itself caused it; otherwise they run their own load. A body too
+ * large to keep is streamed to the client by its loader, which returns
+ * {@link #STREAMED}; callers waiting on that load run their own.
+ */
+class RunCache {
+    private static final long MAX_BYTES = Long.parseLong(System.getenv().getOrDefault("RUN_CACHE_MAX_BYTES", String.valueOf(16L * 1024 * 1024)));
+    private static final long MAX_ENTRY_BYTES = Long.parseLong(System.getenv().getOrDefault("RUN_CACHE_MAX_ENTRY_BYTES", String.valueOf(256 * 1024)));
+
+    private static final LinkedHashMap<String, byte[]> LRU = new LinkedHashMap<>(256, 0.75f, true);
+    private static long bytes;
+    private static final ConcurrentHashMap<String, CompletableFuture<byte[]>> IN_FLIGHT = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder COALESCED = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+    private static final LongAdder STREAMS = new LongAdder();
+    // Callers blocked on another caller's load; lets tests wait for a waiter instead of sleeping
+    private static final AtomicInteger WAITERS = new AtomicInteger();
+    /** SQLSTATE classes for connection, resource, operator (incl. cancel), system and internal errors. */
+    private static final Set<String> CLIENT_STATES = Set.of("08", "53", "57", "58", "XX");
+
+    interface Loader {
+        byte[] load() throws Exception;
+    }
+
+    /** Returned by a loader that has already written its response because the body could not be cached. */
+    static final byte[] STREAMED = new byte[0];
+
+    static void init() {
+        DatasetVersion.onChange(RunCache::invalidate);
+    }
+
+    static boolean enabled() { return MAX_BYTES > 0; }
+
+    /** The largest body that can be stored under the key; zero when the cache is off. */
+    static long room(String key) {
+        return enabled() ? Math.max(0, Math.min(MAX_ENTRY_BYTES, MAX_BYTES) - 2L * key.length()) : 0;
+    }
+
+    static String key(String sql, int limit) {
+        return DatasetVersion.current() + '\u0000' + limit + '\u0000' + normalize(sql);
+    }
+
+    static byte[] get(String key, Loader loader) throws Exception {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        while (true) {
+            synchronized (LRU) {
+                byte[] cached = LRU.get(key);
+                if (cached != null) {
+                    HITS.increment();
+                    return cached;
+                }
+            }
+            CompletableFuture<byte[]> running = IN_FLIGHT.putIfAbsent(key, mine);
+            if (running == null) break;
+            COALESCED.increment();
+            byte[] body;
+            WAITERS.incrementAndGet();
+            try {
+                body = await(running);
+            } finally {
+                WAITERS.decrementAndGet();
+            }
+            // The leader's body went to its own client
+            if (body == STREAMED) return loader.load();
+            if (body != null) return body;
+        }
+        MISSES.increment();
+        try {
+            byte[] body = loader.load();
+            if (body == STREAMED) STREAMS.increment();
+            else put(key, body);
+            mine.complete(body);
+            return body;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, mine);
+        }
+    }
+
+    static int waiters() { return WAITERS.get(); }
+
+    static void invalidate() {
+        synchronized (LRU) {
+            LRU.clear();
+            bytes = 0;
+        }
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("hits", HITS.sum());
+        m.put("misses", MISSES.sum());
+        m.put("coalesced", COALESCED.sum());
+        m.put("evictions", EVICTIONS.sum());
+        m.put("streamed", STREAMS.sum());
+        synchronized (LRU) {
+            m.put("entries", LRU.size());
+            m.put("bytes", bytes);
+        }
+        m.put("maxBytes", MAX_BYTES);
+        return m;
+    }
+
+    private static void put(String key, byte[] body) {
+        long size = body.length + 2L * key.length();
+        if (size > MAX_ENTRY_BYTES || size > MAX_BYTES) return;
+        synchronized (LRU) {
+            byte[] prev = LRU.put(key, body);
+            if (prev != null) bytes -= prev.length + 2L * key.length();
+            bytes += size;
+            Iterator<Map.Entry<String, byte[]>> it = LRU.entrySet().iterator();
+            while (bytes > MAX_BYTES && it.hasNext()) {
+                Map.Entry<String, byte[]> eldest = it.next();
+                bytes -= eldest.getValue().length + 2L * eldest.getKey().length();
+                it.remove();
+                EVICTIONS.increment();
+            }
+        }
+    }
+
+    /**
+     * Collapses whitespace between SqlLexer tokens, so reformatted copies of a query share an
+     * entry while literals of every kind, quoted, E'...' and $tag$, keep theirs.
+     */
+    static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < sql.length()) {
+            if (Character.isWhitespace(sql.charAt(i))) {
+                pendingSpace = sb.length() > 0;
+                i++;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            int end = SqlLexer.tokenEnd(sql, i);
+            sb.append(sql, i, end);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    /** Returns null when the leader failed for its own reasons and the caller should load again. */
+    private static byte[] await(CompletableFuture<byte[]> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (causedByQuery(cause)) throw (Exception) cause;
+            return null;
+        }
+    }
+
+    /**
+     * SQL errors and cost rejections follow from the query text, so every waiter
+     * would hit them too. Admission limits, queue timeouts, cancellations and
+     * connection or server trouble belong to the leader's request.
+     */
+    static boolean causedByQuery(Throwable t) {
+        if (t instanceof QueryAdmission.Rejected) return ((QueryAdmission.Rejected) t).status == 422;
+        if (!(t instanceof SQLException)) return false;
+        String state = ((SQLException) t).getSQLState();
+        if (state == null || state.length() < 2) return false;
+        return !CLIENT_STATES.contains(state.substring(0, 2));
+    }
+}
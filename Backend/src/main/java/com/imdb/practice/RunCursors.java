@@ -0,0 +1,231 @@
+package com.imdb.practice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.imdb.common.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paged /api/run results. Each open cursor keeps its connection in a
+ * read-only transaction with a JDBC fetch size of one page, so the driver
+ * only ever buffers about a page of rows whatever the result size.
+ * Clients get an opaque token for the next page. Open cursors are capped
+ * server-wide and closed after RUN_CURSOR_IDLE_SECONDS without a fetch.
+ */
+class RunCursors {
+    // Each open cursor pins a pool connection, so only a few may be open at once
+    private static final int MAX_OPEN = Integer.parseInt(System.getenv().getOrDefault("RUN_CURSOR_MAX", String.valueOf(Math.max(1, Db.poolSize() / 4))));
+    private static final long IDLE_SECONDS = Long.parseLong(System.getenv().getOrDefault("RUN_CURSOR_IDLE_SECONDS", "60"));
+    static final int MAX_PAGE = Integer.parseInt(System.getenv().getOrDefault("RUN_PAGE_MAX", "500"));
+    static final int MAX_ROWS = Integer.parseInt(System.getenv().getOrDefault("RUN_CURSOR_MAX_ROWS", "100000"));
+
+    // Shares App's codec so values are written exactly as /api/run writes them
+    private static final JsonFactory JSON = App.MAPPER.getFactory();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ConcurrentHashMap<String, Cursor> OPEN = new ConcurrentHashMap<>();
+    private static final Semaphore SLOTS = new Semaphore(MAX_OPEN);
+    private static final LongAdder OPENED = new LongAdder();
+    private static final LongAdder EXPIRED = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "run-cursor-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        REAPER.scheduleWithFixedDelay(RunCursors::reap, 5, 5, TimeUnit.SECONDS);
+    }
+
+    private static final class Cursor {
+        final String token;
+        final Connection connection;
+        final Statement statement;
+        final ResultSet rs;
+        final ResultSetJson cols;
+        final int pageSize;
+        final ReentrantLock lock = new ReentrantLock();
+        volatile long lastUsed = System.nanoTime();
+        // The result set is on a row that the previous page looked ahead to but did not send
+        boolean pending;
+        int page;
+
+        Cursor(String token, Connection connection, Statement statement, ResultSet rs, int pageSize) throws SQLException {
+            this.token = token;
+            this.connection = connection;
+            this.statement = statement;
+            this.rs = rs;
+            this.cols = ResultSetJson.of(rs.getMetaData());
+            this.pageSize = pageSize;
+        }
+    }
+
+    /** Runs the query and returns its first page; the body carries a cursor token if more rows remain. */
+    static byte[] open(String sql, int pageSize, QueryAdmission.Permit permit) throws SQLException, IOException, QueryAdmission.Rejected {
+        if (!SLOTS.tryAcquire()) {
+            REJECTED.increment();
+            throw new QueryAdmission.Rejected(503, "Too many open result cursors; close one or retry shortly");
+        }
+        Connection c = null;
+        try {
+            c = Db.getConnection(Db.Workload.USER_SQL);
+            c.setAutoCommit(false);
+            c.setReadOnly(true);
+            try (Statement set = c.createStatement()) {
+                // Backstop in case a cursor outlives the reaper, e.g. while the JVM is paused
+                set.execute("SET LOCAL idle_in_transaction_session_timeout = '" + (IDLE_SECONDS + 30) + "s'");
+            }
+            Statement st = c.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(pageSize);
+            permit.track(st, App.TIMEOUT_MS);
+            long start = System.nanoTime();
+            ResultSet rs = st.executeQuery(App.wrapLimit(sql, MAX_ROWS));
+            Metrics.recordQuery("run_cursor", System.nanoTime() - start);
+            Cursor cur = new Cursor(newToken(), c, st, rs, pageSize);
+            OPEN.put(cur.token, cur);
+            OPENED.increment();
+            c = null;
+            return nextPage(cur);
+        } finally {
+            if (c != null) {
+                release(c);
+                SLOTS.release();
+            }
+        }
+    }
+
+    /** The next page of an open cursor. */
+    static byte[] next(String token, QueryAdmission.Permit permit) throws SQLException, IOException, QueryAdmission.Rejected {
+        Cursor cur = OPEN.get(token);
+        if (cur == null) throw new QueryAdmission.Rejected(404, "Cursor not found or expired; run the query again");
+        cur.lock.lock();
+        try {
+            if (OPEN.get(token) != cur) throw new QueryAdmission.Rejected(404, "Cursor not found or expired; run the query again");
+            permit.track(cur.statement, App.TIMEOUT_MS);
+            return nextPage(cur);
+        } finally {
+            cur.lock.unlock();
+        }
+    }
+
+    static boolean close(String token) {
+        Cursor cur = OPEN.get(token);
+        if (cur == null) return false;
+        cur.lock.lock();
+        try {
+            return close(cur);
+        } finally {
+            cur.lock.unlock();
+        }
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("open", OPEN.size());
+        m.put("maxOpen", MAX_OPEN);
+        m.put("opened", OPENED.sum());
+        m.put("expired", EXPIRED.sum());
+        m.put("rejected", REJECTED.sum());
+        return m;
+    }
+
+    /**
+     * Writes up to a page of rows, then looks one row ahead to tell whether another page exists.
+     * Any failure closes the cursor, since its position can no longer be trusted.
+     */
+    private static byte[] nextPage(Cursor cur) throws SQLException, IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+        boolean more;
+        try (JsonGenerator g = JSON.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeFieldName("rows");
+            g.writeStartArray();
+            int n = 0;
+            if (cur.pending) {
+                cur.cols.writeRow(cur.rs, g);
+                n++;
+            }
+            while (n < cur.pageSize && cur.rs.next()) {
+                cur.cols.writeRow(cur.rs, g);
+                n++;
+            }
+            more = n == cur.pageSize && cur.rs.next();
+            cur.pending = more;
+            g.writeEndArray();
+            g.writeNumberField("page", cur.page++);
+            g.writeBooleanField("hasMore", more);
+            if (more) g.writeStringField("cursor", cur.token);
+            else g.writeNullField("cursor");
+            g.writeEndObject();
+        } catch (SQLException | IOException | RuntimeException e) {
+            close(cur);
+            throw e;
+        }
+        cur.lastUsed = System.nanoTime();
+        if (!more) close(cur);
+        return buf.toByteArray();
+    }
+
+    private static boolean close(Cursor cur) {
+        if (!OPEN.remove(cur.token, cur)) return false;
+        try {
+            cur.rs.close();
+            cur.statement.close();
+        } catch (SQLException ignored) {
+            // The connection is rolled back and returned below either way
+        }
+        release(cur.connection);
+        SLOTS.release();
+        return true;
+    }
+
+    private static void release(Connection c) {
+        try {
+            c.rollback();
+            c.setReadOnly(false);
+            c.setAutoCommit(true);
+        } catch (SQLException ignored) {
+            // Hikari discards connections that fail validation
+        } finally {
+            try { c.close(); } catch (SQLException ignored) {}
+        }
+    }
+
+    private static void reap() {
+        long idleNanos = TimeUnit.SECONDS.toNanos(IDLE_SECONDS);
+        long now = System.nanoTime();
+        for (Cursor cur : OPEN.values()) {
+            // A cursor that is mid-fetch is in use, not idle
+            if (now - cur.lastUsed > idleNanos && cur.lock.tryLock()) {
+                try {
+                    if (close(cur)) EXPIRED.increment();
+                } finally {
+                    cur.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static String newToken() {
+        byte[] b = new byte[18];
+        RANDOM.nextBytes(b);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+    }
+}
@@ -0,0 +1,107 @@
+package com.imdb.practice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imdb.common.CachedJson;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column lists and row estimates for every table in the public schema, loaded
+ * with one query and refreshed when the dataset version changes. /api/schema
+ * is served from memory.
+ */
+class SchemaCatalog {
+    private static final int MAX_CACHED_RESPONSES = 256;
+    private static final String SQL =
+            "SELECT c.table_name, c.column_name, c.data_type, c.is_nullable, cl.reltuples::bigint AS estimate " +
+            "FROM information_schema.columns c " +
+            "LEFT JOIN pg_namespace n ON n.nspname = c.table_schema " +
+            "LEFT JOIN pg_class cl ON cl.relnamespace = n.oid AND cl.relname = c.table_name " +
+            "WHERE c.table_schema = 'public' " +
+            "ORDER BY c.table_name, c.ordinal_position";
+
+    private static volatile Snapshot current;
+
+    private static final class Snapshot {
+        final Map<String, List<Map<String, Object>>> columns;
+        final Map<String, Long> estimates;
+        // Serialized responses per requested table list; the frontend asks for few distinct lists
+        final Map<String, CachedJson> responses = new ConcurrentHashMap<>();
+
+        Snapshot(Map<String, List<Map<String, Object>>> columns, Map<String, Long> estimates) {
+            this.columns = columns;
+            this.estimates = estimates;
+        }
+    }
+
+    static void init() {
+        DatasetVersion.onChange(SchemaCatalog::refresh);
+        refresh();
+    }
+
+    static void refresh() {
+        try {
+            current = load();
+        } catch (SQLException e) {
+            // Keep the previous catalog; a missing one is retried on the next request
+            System.err.println("Could not load schema catalog: " + e.getMessage());
+        }
+    }
+
+    /** The /api/schema body for the given table names (short aliases allowed), in request order. */
+    static CachedJson response(List<String> tables, ObjectMapper mapper) throws Exception {
+        Snapshot s = current;
+        if (s == null) {
+            s = load();
+            current = s;
+        }
+        String key = String.join(",", tables);
+        CachedJson cached = s.responses.get(key);
+        if (cached != null) return cached;
+
+        Map<String, Object> schemas = new LinkedHashMap<>();
+        Map<String, Object> estimates = new LinkedHashMap<>();
+        for (String t : tables) {
+            String table = SqlLexer.tableName(t.toLowerCase(Locale.ROOT));
+            schemas.put(t, s.columns.getOrDefault(table, List.of()));
+            estimates.put(t, s.estimates.get(table));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("schemas", schemas);
+        body.put("estimates", estimates);
+        cached = CachedJson.of(mapper, body);
+        if (s.responses.size() < MAX_CACHED_RESPONSES) s.responses.put(key, cached);
+        return cached;
+    }
+
+    private static Snapshot load() throws SQLException {
+        Map<String, List<Map<String, Object>>> columns = new HashMap<>();
+        Map<String, Long> estimates = new HashMap<>();
+        try (Connection c = Db.getConnection(Db.Workload.METADATA); Statement st = c.createStatement(); ResultSet rs = st.executeQuery(SQL)) {
+            while (rs.next()) {
+                String table = rs.getString("table_name");
+                Map<String, Object> col = new LinkedHashMap<>();
+                col.put("name", rs.getString("column_name"));
+                col.put("type", rs.getString("data_type"));
+                col.put("nullable", "YES".equalsIgnoreCase(rs.getString("is_nullable")));
+                columns.computeIfAbsent(table, k -> new ArrayList<>()).add(Collections.unmodifiableMap(col));
+                long estimate = rs.getLong("estimate");
+                // reltuples is -1 (or 0 before PG14) until the table has been analyzed
+                if (!rs.wasNull() && estimate > 0) estimates.put(table, estimate);
+            }
+        }
+        columns.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        return new Snapshot(columns, estimates);
+    }
+}
@@ -0,0 +1,122 @@
+package com.imdb.practice;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Expected rows and row fingerprint of each problem's reference solution. The
+ * solution SQL only changes with problems.json and its result only changes on
+ * re-import, so a grade needs to run just the user's query.
+ */
+public class SolutionCache {
+    private static final int WARM_THREADS = Integer.parseInt(System.getenv().getOrDefault("SOLUTION_CACHE_WARM_THREADS", "4"));
+    private static final ConcurrentHashMap<String, CompletableFuture<Expected>> ENTRIES = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    static final class Expected {
+        final String version;
+        final String solution;
+        final List<Map<String, Object>> rows;
+        final ResultComparator.Fingerprint fingerprint;
+
+        Expected(String version, String solution, List<Map<String, Object>> rows, ResultComparator.Fingerprint fingerprint) {
+            this.version = version;
+            this.solution = solution;
+            this.rows = rows;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    public static void init() {
+        DatasetVersion.onChange(SolutionCache::invalidate);
+        ProblemStore.onReload(SolutionCache::invalidate);
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("SOLUTION_CACHE_WARM", "true"))) {
+            warmAsync();
+        }
+    }
+
+    /** Computes every problem's expected result in the background, a few at a time. */
+    public static void warmAsync() {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, WARM_THREADS), r -> {
+            Thread t = new Thread(r, "solution-warmup");
+            t.setDaemon(true);
+            return t;
+        });
+        for (String id : ProblemStore.orderedIds()) {
+            Problem p = ProblemStore.get(id);
+            pool.submit(() -> {
+                try {
+                    get(p);
+                } catch (Exception e) {
+                    System.err.println("Warmup failed for problem " + p.id + ": " + e.getMessage());
+                }
+            });
+        }
+        pool.shutdown();
+    }
+
+    public static Expected get(Problem p) throws Exception {
+        CompletableFuture<Expected> mine = new CompletableFuture<>();
+        CompletableFuture<Expected> existing;
+        while ((existing = ENTRIES.putIfAbsent(p.id, mine)) != null) {
+            if (!isStale(existing, p)) {
+                HITS.increment();
+                return await(existing);
+            }
+            // Computed under an older dataset or problems.json but stored after the invalidation
+            ENTRIES.remove(p.id, existing);
+        }
+        MISSES.increment();
+        try {
+            Expected e = compute(p);
+            mine.complete(e);
+            return e;
+        } catch (Exception e) {
+            // Don't pin the failure; the next grade retries
+            ENTRIES.remove(p.id, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public static void invalidate() { ENTRIES.clear(); }
+
+    public static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("hits", HITS.sum());
+        m.put("misses", MISSES.sum());
+        m.put("entries", ENTRIES.size());
+        m.put("datasetVersion", DatasetVersion.current());
+        return m;
+    }
+
+    private static Expected compute(Problem p) throws Exception {
+        String version = DatasetVersion.current();
+        List<Map<String, Object>> rows = App.executeSelect(Db.Workload.GRADING, "solution:" + p.id, App.wrapLimit(p.sanitizedSolution, App.ROW_LIMIT), null);
+        return new Expected(version, p.sanitizedSolution, rows, ResultComparator.fingerprint(rows));
+    }
+
+    private static boolean isStale(CompletableFuture<Expected> f, Problem p) {
+        if (!f.isDone() || f.isCompletedExceptionally()) return false;
+        Expected e = f.join();
+        return !e.version.equals(DatasetVersion.current()) || !e.solution.equals(p.sanitizedSolution);
+    }
+
+    private static Expected await(CompletableFuture<Expected> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+}
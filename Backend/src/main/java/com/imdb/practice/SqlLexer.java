@@ -0,0 +1,292 @@
+package com.imdb.practice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One pass over submitted SQL that skips string literals, quoted identifiers
+ * and comments, and at the same time rewrites the short table names, decides
+ * whether the query is read-only and collects the clause "verbs" used as hints.
+ * Literals follow PostgreSQL with standard_conforming_strings on, which Db sets
+ * for every pool: backslash escapes only exist in E'...' strings.
+ */
+final class SqlLexer {
+    static final class Result {
+        final String sql;
+        final boolean selectOnly;
+        final List<String> verbs;
+
+        Result(String sql, boolean selectOnly, List<String> verbs) {
+            this.sql = sql;
+            this.selectOnly = selectOnly;
+            this.verbs = verbs;
+        }
+    }
+
+    // Simplified table names accepted in place of the real ones
+    private static final String[][] ALIASES = {
+            {"basics", "title_basics"},
+            {"ratings", "title_ratings"},
+            {"principals", "title_principals"},
+            {"crew", "title_crew"},
+            {"episode", "title_episode"},
+            {"akas", "title_akas"},
+    };
+
+    private static final String[] BLOCKED = {
+            "insert", "update", "delete", "create", "drop", "alter", "truncate", "copy", "grant", "revoke", "call",
+            "set_config"
+    };
+
+    // Hint verbs, in the order they are reported
+    private static final String[] VERBS = {
+            "SELECT", "DISTINCT", "FROM", "JOIN", "WHERE", "GROUP BY", "HAVING", "ORDER BY", "LIMIT",
+            "COUNT", "SUM", "AVG", "MIN", "MAX", "SUBQUERY", "WINDOW"
+    };
+    private static final int SELECT = 0, DISTINCT = 1, FROM = 2, JOIN = 3, WHERE = 4, GROUP_BY = 5, HAVING = 6,
+            ORDER_BY = 7, LIMIT = 8, COUNT = 9, SUM = 10, AVG = 11, MIN = 12, MAX = 13, SUBQUERY = 14, WINDOW = 15;
+
+    // Previous significant token, as far as verb detection cares
+    private static final int P_OTHER = 0, P_GROUP = 1, P_ORDER = 2, P_OVER = 3, P_OPEN = 4,
+            P_COUNT = 5, P_SUM = 6, P_AVG = 7, P_MIN = 8, P_MAX = 9;
+
+    private SqlLexer() {}
+
+    static Result analyze(String raw) {
+        String s = trimTrailing(raw == null ? "" : raw);
+        int n = s.length();
+        StringBuilder out = new StringBuilder(n + 16);
+        boolean[] seen = new boolean[VERBS.length];
+        boolean selectOnly = true;
+        boolean first = true;
+        int prev = P_OTHER;
+        int i = 0;
+        while (i < n) {
+            char ch = s.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                out.append(ch);
+                i++;
+                continue;
+            }
+            int end = tokenEnd(s, i);
+            if (ch == '-' && i + 1 < n && s.charAt(i + 1) == '-') {
+                selectOnly = false;
+            } else if (ch == '/' && i + 1 < n && s.charAt(i + 1) == '*') {
+                selectOnly = false;
+            } else if (ch == '\'' || ch == '"' || (ch == '$' && dollarTagEnd(s, i) > 0)) {
+                prev = P_OTHER;
+                first = false;
+            } else if (isWordChar(ch)) {
+                int wordEnd = i + 1;
+                while (wordEnd < n && isWordChar(s.charAt(wordEnd))) wordEnd++;
+                if (end > wordEnd) {
+                    // The word is the E of an E'...' string
+                    prev = P_OTHER;
+                    if (first) selectOnly = false;
+                    first = false;
+                    out.append(s, i, end);
+                    i = end;
+                    continue;
+                }
+                // WITH is fine too: data-modifying CTEs are caught by the blocked keywords
+                if (first && !matches(s, i, end, "select") && !matches(s, i, end, "with")) selectOnly = false;
+                first = false;
+                if (isBlocked(s, i, end)) selectOnly = false;
+                String alias = alias(s, i, end);
+                if (alias != null) {
+                    out.append(alias);
+                    i = end;
+                    prev = P_OTHER;
+                    continue;
+                }
+                prev = word(s, i, end, prev, seen);
+            } else {
+                if (ch == ';') selectOnly = false;
+                if (ch == '(') {
+                    if (prev == P_OVER) seen[WINDOW] = true;
+                    else if (prev >= P_COUNT) seen[COUNT + prev - P_COUNT] = true;
+                    prev = P_OPEN;
+                } else {
+                    prev = P_OTHER;
+                }
+                first = false;
+            }
+            out.append(s, i, end);
+            i = end;
+        }
+        if (first) selectOnly = false;
+        List<String> verbs = new ArrayList<>();
+        for (int v = 0; v < VERBS.length; v++) {
+            if (seen[v]) verbs.add(VERBS[v]);
+        }
+        return new Result(out.toString(), selectOnly, verbs);
+    }
+
+    /** Records verbs ending at this word and returns the new "previous token" state. */
+    private static int word(String s, int start, int end, int prev, boolean[] seen) {
+        switch (end - start) {
+            case 2:
+                if (matches(s, start, end, "by")) {
+                    if (prev == P_GROUP) seen[GROUP_BY] = true;
+                    if (prev == P_ORDER) seen[ORDER_BY] = true;
+                }
+                break;
+            case 3:
+                if (matches(s, start, end, "sum")) return P_SUM;
+                if (matches(s, start, end, "avg")) return P_AVG;
+                if (matches(s, start, end, "min")) return P_MIN;
+                if (matches(s, start, end, "max")) return P_MAX;
+                break;
+            case 4:
+                if (matches(s, start, end, "from")) seen[FROM] = true;
+                else if (matches(s, start, end, "join")) seen[JOIN] = true;
+                else if (matches(s, start, end, "over")) return P_OVER;
+                break;
+            case 5:
+                if (matches(s, start, end, "where")) seen[WHERE] = true;
+                else if (matches(s, start, end, "group")) return P_GROUP;
+                else if (matches(s, start, end, "order")) return P_ORDER;
+                else if (matches(s, start, end, "limit")) seen[LIMIT] = true;
+                else if (matches(s, start, end, "count")) return P_COUNT;
+                break;
+            case 6:
+                if (matches(s, start, end, "select")) {
+                    seen[SELECT] = true;
+                    if (prev == P_OPEN) seen[SUBQUERY] = true;
+                } else if (matches(s, start, end, "having")) {
+                    seen[HAVING] = true;
+                }
+                break;
+            case 8:
+                if (matches(s, start, end, "distinct")) seen[DISTINCT] = true;
+                break;
+            default:
+                break;
+        }
+        return P_OTHER;
+    }
+
+    /** The real table behind a (lower-case) name, which may be one of the short aliases. */
+    static String tableName(String name) {
+        for (String[] a : ALIASES) {
+            if (a[0].equals(name)) return a[1];
+        }
+        return name;
+    }
+
+    private static String alias(String s, int start, int end) {
+        for (String[] a : ALIASES) {
+            if (matches(s, start, end, a[0])) return a[1];
+        }
+        return null;
+    }
+
+    private static boolean isBlocked(String s, int start, int end) {
+        for (String b : BLOCKED) {
+            if (matches(s, start, end, b)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(String s, int start, int end, String kw) {
+        return end - start == kw.length() && s.regionMatches(true, start, kw, 0, kw.length());
+    }
+
+    /**
+     * End of the token starting at i, which is not whitespace: a comment, a quoted, escape or
+     * dollar-quoted literal with its prefix word, a word, or a single character.
+     */
+    static int tokenEnd(String s, int i) {
+        int n = s.length();
+        char ch = s.charAt(i);
+        if (ch == '-' && i + 1 < n && s.charAt(i + 1) == '-') {
+            int end = s.indexOf('\n', i);
+            return end < 0 ? n : end;
+        }
+        if (ch == '/' && i + 1 < n && s.charAt(i + 1) == '*') {
+            int end = s.indexOf("*/", i + 2);
+            return end < 0 ? n : end + 2;
+        }
+        if (ch == '\'' || ch == '"') return skipQuoted(s, i, ch);
+        int tagEnd = ch == '$' ? dollarTagEnd(s, i) : -1;
+        if (tagEnd > 0) {
+            int close = s.indexOf(s.substring(i, tagEnd), tagEnd);
+            return close < 0 ? n : close + (tagEnd - i);
+        }
+        if (!isWordChar(ch)) return i + 1;
+        int end = i + 1;
+        while (end < n && isWordChar(s.charAt(end))) end++;
+        return end < n && escapeStringAt(s, end) ? skipEscaped(s, end) : end;
+    }
+
+    private static boolean isWordChar(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+    }
+
+    /** Index just past the closing quote; a doubled quote is an escaped one. */
+    private static int skipQuoted(String s, int start, char q) {
+        int i = start + 1;
+        while (i < s.length()) {
+            if (s.charAt(i) == q) {
+                if (i + 1 < s.length() && s.charAt(i + 1) == q) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return s.length();
+    }
+
+    /**
+     * Whether the quote at q opens an escape string: it directly follows an E
+     * that starts a token, either alone or as the tail of a number such as 1e.
+     */
+    static boolean escapeStringAt(String s, int q) {
+        if (s.charAt(q) != '\'') return false;
+        int w = q;
+        while (w > 0 && isWordChar(s.charAt(w - 1))) w--;
+        if (w == q) return false;
+        char last = s.charAt(q - 1);
+        return (last == 'e' || last == 'E') && (q - w == 1 || Character.isDigit(s.charAt(w)));
+    }
+
+    /** Like {@link #skipQuoted} for an E'...' string, where a backslash escapes the next character. */
+    private static int skipEscaped(String s, int start) {
+        int i = start + 1;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '\'') {
+                if (i + 1 < s.length() && s.charAt(i + 1) == '\'') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return s.length();
+    }
+
+    /** End of a $tag$ opener starting at i, or -1. */
+    private static int dollarTagEnd(String s, int i) {
+        int j = i + 1;
+        while (j < s.length() && (Character.isLetterOrDigit(s.charAt(j)) || s.charAt(j) == '_')) j++;
+        if (j < s.length() && s.charAt(j) == '$' && (j == i + 1 || !Character.isDigit(s.charAt(i + 1)))) return j + 1;
+        return -1;
+    }
+
+    // Remove any trailing semicolons and surrounding whitespace
+    private static String trimTrailing(String sql) {
+        int start = 0;
+        int end = sql.length();
+        while (start < end && Character.isWhitespace(sql.charAt(start))) start++;
+        while (end > start && (sql.charAt(end - 1) == ';' || Character.isWhitespace(sql.charAt(end - 1)))) end--;
+        return sql.substring(start, end);
+    }
+}
@@ -0,0 +1,22 @@
+package com.imdb.practice;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryAdmissionTest {
+
+    @Test
+    void onlyPrivatePeersMayNameTheClient() throws Exception {
+        assertTrue(QueryAdmission.trustedProxy(InetAddress.getByName("127.0.0.1")));
+        assertTrue(QueryAdmission.trustedProxy(InetAddress.getByName("172.18.0.5")));
+        assertTrue(QueryAdmission.trustedProxy(InetAddress.getByName("10.1.2.3")));
+        assertTrue(QueryAdmission.trustedProxy(InetAddress.getByName("::1")));
+        assertTrue(QueryAdmission.trustedProxy(InetAddress.getByName("fd12:3456::1")));
+        assertFalse(QueryAdmission.trustedProxy(InetAddress.getByName("203.0.113.7")));
+        assertFalse(QueryAdmission.trustedProxy(InetAddress.getByName("2001:db8::1")));
+    }
+}
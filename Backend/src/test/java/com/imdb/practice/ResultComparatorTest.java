@@ -0,0 +1,143 @@
+package com.imdb.practice;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResultComparatorTest {
+
+    private static Map<String, Object> row(Object... kv) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            m.put((String) kv[i], kv[i + 1]);
+        }
+        return m;
+    }
+
+    private static List<Map<String, Object>> rows(Object... values) {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Object v : values) out.add(row("v", v));
+        return out;
+    }
+
+    private static ResultComparator.Mismatch compare(List<Map<String, Object>> expected,
+                                                     List<Map<String, Object>> actual, boolean ordered) {
+        return ResultComparator.compare(ResultComparator.fingerprint(expected), expected,
+                ResultComparator.fingerprint(actual), actual, ordered);
+    }
+
+    @Test
+    void numericScaleIsIgnored() {
+        assertNull(compare(rows(8.5), rows(new BigDecimal("8.50")), false));
+        assertNull(compare(rows(new BigDecimal("8.0")), rows(8), false));
+        assertNull(compare(rows(0.1 + 0.2), rows(new BigDecimal("0.3")), false));
+        assertNull(compare(rows(42), rows(42L), false));
+        assertEquals("8", ResultComparator.normalizeNumber(new BigDecimal("8.000")));
+        assertEquals("100", ResultComparator.normalizeNumber(new BigDecimal("1E+2")));
+    }
+
+    @Test
+    void differentNumbersMismatch() {
+        assertNotNull(compare(rows(8.5), rows(new BigDecimal("8.51")), false));
+        assertNotNull(compare(rows(1), rows("1"), false));
+    }
+
+    @Test
+    void nullIsDistinctFromTextAndEmpty() {
+        assertNull(compare(rows((Object) null), rows((Object) null), false));
+        assertNotNull(compare(rows((Object) null), rows("null"), false));
+        assertNotNull(compare(rows((Object) null), rows(""), false));
+        assertNotNull(compare(rows((Object) null), rows(0), false));
+    }
+
+    @Test
+    void nullPositionMattersAcrossColumns() {
+        List<Map<String, Object>> expected = List.of(row("a", null, "b", "x"));
+        List<Map<String, Object>> actual = List.of(row("a", "x", "b", null));
+        assertNotNull(compare(expected, actual, false));
+    }
+
+    @Test
+    void duplicateRowsAreCountedAsAMultiset() {
+        assertNull(compare(rows("a", "a", "b"), rows("b", "a", "a"), false));
+
+        ResultComparator.Mismatch m = compare(rows("a", "a", "b"), rows("a", "b", "b"), false);
+        assertNotNull(m);
+        assertEquals("unexpectedRow", m.kind);
+        assertEquals(2, m.row);
+
+        m = compare(rows("a", "a", "b"), rows("a", "b"), false);
+        assertNotNull(m);
+        assertEquals("missingRow", m.kind);
+
+        m = compare(rows("a", "b"), rows("a", "a", "b"), false);
+        assertNotNull(m);
+        assertEquals("unexpectedRow", m.kind);
+    }
+
+    @Test
+    void orderedModeComparesPositions() {
+        assertNull(compare(rows(1, 2, 3), rows(1, 2, 3), true));
+
+        ResultComparator.Mismatch m = compare(rows(1, 2, 3), rows(1, 3, 2), true);
+        assertNotNull(m);
+        assertEquals("row", m.kind);
+        assertEquals(1, m.row);
+
+        assertNull(compare(rows(1, 2, 3), rows(1, 3, 2), false));
+
+        m = compare(rows(1, 2, 3), rows(1, 2), true);
+        assertNotNull(m);
+        assertEquals("missingRow", m.kind);
+        assertEquals(2, m.row);
+    }
+
+    @Test
+    void columnNamesMustMatch() {
+        ResultComparator.Mismatch m = compare(List.of(row("title", "x")), List.of(row("name", "x")), false);
+        assertNotNull(m);
+        assertEquals("columns", m.kind);
+    }
+
+    @Test
+    void cellBoundariesAreHashed() {
+        List<Map<String, Object>> expected = List.of(row("a", "ab", "b", "c"));
+        List<Map<String, Object>> actual = List.of(row("a", "a", "b", "bc"));
+        assertNotNull(compare(expected, actual, false));
+        assertNull(compare(Arrays.asList(row("a", "ab", "b", "c")), expected, true));
+    }
+
+    @Test
+    void matcherHashesCellsAsTheyArrive() {
+        List<Map<String, Object>> expected = rows("a", "b", "c");
+        ResultComparator.Matcher m = new ResultComparator.Matcher(ResultComparator.fingerprint(expected), expected, true, List.of("v"));
+        Object[] cells = new Object[1];
+        for (String v : new String[]{"a", "x", "c", "d"}) {
+            cells[0] = v;
+            m.add(cells);
+        }
+        ResultComparator.Mismatch mismatch = m.finish();
+        assertNotNull(mismatch);
+        assertEquals("row", mismatch.kind);
+        assertEquals(1, mismatch.row);
+        // The reported row is a copy, not the reused array's last contents
+        assertEquals(row("v", "x"), mismatch.actual);
+        assertEquals(4, m.rowCount());
+
+        m = new ResultComparator.Matcher(ResultComparator.fingerprint(expected), expected, false, List.of("v"));
+        for (String v : new String[]{"c", "a", "b"}) {
+            cells[0] = v;
+            m.add(cells);
+        }
+        assertNull(m.finish());
+    }
+}
@@ -0,0 +1,121 @@
+package com.imdb.practice;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunCacheTest {
+
+    /** Starts a leader whose load blocks until released, then fails with the given error. */
+    private static Future<?> failingLeader(ExecutorService pool, String key, Exception error,
+                                           CountDownLatch started, CountDownLatch release) {
+        return pool.submit(() -> RunCache.get(key, () -> {
+            started.countDown();
+            release.await();
+            throw error;
+        }));
+    }
+
+    /** Waits until a caller has joined an in-flight load, so releasing the leader cannot race it. */
+    private static void awaitWaiter() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (RunCache.waiters() == 0) {
+            if (System.nanoTime() > deadline) throw new AssertionError("no caller joined the load");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void waitersReloadWhenLeaderIsRejected() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            String key = "test-rejected";
+            Future<?> leader = failingLeader(pool, key, new QueryAdmission.Rejected(429, "busy"), started, release);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<byte[]> waiter = pool.submit(() -> RunCache.get(key, () -> new byte[]{1}));
+            awaitWaiter();
+            release.countDown();
+            assertArrayEquals(new byte[]{1}, waiter.get(5, TimeUnit.SECONDS));
+            assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void waitersShareErrorsCausedByTheQuery() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            String key = "test-syntax";
+            SQLException syntax = new SQLException("syntax error", "42601");
+            failingLeader(pool, key, syntax, started, release);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<byte[]> waiter = pool.submit(() -> RunCache.get(key, () -> new byte[]{1}));
+            awaitWaiter();
+            release.countDown();
+            Exception e = assertThrows(Exception.class, () -> waiter.get(5, TimeUnit.SECONDS));
+            assertSame(syntax, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void streamedBodiesAreNeitherSharedNorKept() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            String key = "test-streamed";
+            Future<byte[]> leader = pool.submit(() -> RunCache.get(key, () -> {
+                started.countDown();
+                release.await();
+                return RunCache.STREAMED;
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            AtomicInteger waiterLoads = new AtomicInteger();
+            Future<byte[]> waiter = pool.submit(() -> RunCache.get(key, () -> {
+                waiterLoads.incrementAndGet();
+                return RunCache.STREAMED;
+            }));
+            awaitWaiter();
+            release.countDown();
+            assertSame(RunCache.STREAMED, leader.get(5, TimeUnit.SECONDS));
+            assertSame(RunCache.STREAMED, waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, waiterLoads.get());
+            assertArrayEquals(new byte[]{2}, RunCache.get(key, () -> new byte[]{2}));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void classifiesFailures() {
+        assertTrue(RunCache.causedByQuery(new SQLException("bad column", "42703")));
+        assertTrue(RunCache.causedByQuery(new SQLException("division by zero", "22012")));
+        assertTrue(RunCache.causedByQuery(new QueryAdmission.Rejected(422, "too expensive")));
+        assertFalse(RunCache.causedByQuery(new SQLException("canceled", "57014")));
+        assertFalse(RunCache.causedByQuery(new SQLException("connection lost", "08006")));
+        assertFalse(RunCache.causedByQuery(new SQLException("no state")));
+        assertFalse(RunCache.causedByQuery(new QueryAdmission.Rejected(429, "busy")));
+        assertFalse(RunCache.causedByQuery(new QueryAdmission.Rejected(503, "queue timeout")));
+        assertFalse(RunCache.causedByQuery(new InterruptedException()));
+    }
+}
@@ -0,0 +1,109 @@
+package com.imdb.practice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlLexerTest {
+
+    private static boolean selectOnly(String sql) {
+        return SqlLexer.analyze(sql).selectOnly;
+    }
+
+    @Test
+    void plainSelectsAreAllowed() {
+        assertTrue(selectOnly("select * from basics where startYear = 1999"));
+        assertTrue(selectOnly("  SELECT 1;  "));
+        assertTrue(selectOnly("with t as (select 1 as a) select a from t"));
+    }
+
+    @Test
+    void otherStatementsAreRejected() {
+        assertFalse(selectOnly(""));
+        assertFalse(selectOnly("delete from title_basics"));
+        assertFalse(selectOnly("with d as (delete from title_basics returning *) select * from d"));
+        assertFalse(selectOnly("set default_transaction_read_only = off"));
+        assertFalse(selectOnly("select set_config('default_transaction_read_only', 'off', false)"));
+    }
+
+    @Test
+    void escapeStringCannotHideASemicolon() {
+        String exploit = "select 1 as a, E'\\'' ) _z; delete from title_basics; select * from (select '1'";
+        assertFalse(selectOnly(exploit));
+        assertFalse(selectOnly("select e'\\'' ; delete from title_basics; select '1'"));
+        assertFalse(selectOnly("select 1e'\\'' ; delete from title_basics; select '1'"));
+    }
+
+    @Test
+    void escapeStringsAreSkippedAsLiterals() {
+        assertTrue(selectOnly("select E'it\\'s; delete' as a"));
+        assertTrue(selectOnly("select E'a\\\\' as a, 'b' as b"));
+        assertTrue(selectOnly("select E'doubled '' quote; ' as a"));
+        assertEquals("select E'basics' from title_basics", SqlLexer.analyze("select E'basics' from basics").sql);
+    }
+
+    @Test
+    void backslashIsLiteralInStandardStrings() {
+        // 'a\' is a complete literal, so the ; that follows is a real statement separator
+        assertFalse(selectOnly("select 'a\\' ; delete from title_basics; select 'b'"));
+        assertTrue(selectOnly("select 'a\\' as a"));
+        // A word that merely ends in e does not start an escape string
+        assertFalse(selectOnly("select name'x\\' ; delete from title_basics; select 'y'"));
+    }
+
+    @Test
+    void stringsAndIdentifiersHideKeywords() {
+        assertTrue(selectOnly("select 'delete; drop' as a"));
+        assertTrue(selectOnly("select 'it''s' as \"drop\""));
+        assertTrue(selectOnly("select $$ ; delete $$ as a"));
+        assertTrue(selectOnly("select $tag$ it's ; $tag$ as a"));
+    }
+
+    @Test
+    void dollarQuotesEndAtTheMatchingTag() {
+        assertFalse(selectOnly("select $a$ x $a$; delete from title_basics"));
+        assertFalse(selectOnly("select $a$ $b$ $a$ ; delete from title_basics"));
+    }
+
+    @Test
+    void commentsAndSemicolonsAreRejected() {
+        assertFalse(selectOnly("select 1 -- comment"));
+        assertFalse(selectOnly("select /* x */ 1"));
+        assertFalse(selectOnly("select 1; select 2"));
+        assertTrue(selectOnly("select '--' as a, '/*' as b, ';' as c"));
+    }
+
+    @Test
+    void aliasesAreRewrittenOutsideLiterals() {
+        SqlLexer.Result r = SqlLexer.analyze("select * from basics b join ratings r using (tconst) where b.primaryTitle = 'basics'");
+        assertEquals("select * from title_basics b join title_ratings r using (tconst) where b.primaryTitle = 'basics'", r.sql);
+        assertEquals(List.of("SELECT", "FROM", "JOIN", "WHERE"), r.verbs);
+    }
+
+    @Test
+    void cacheKeyKeepsWhitespaceInsideEscapeStrings() {
+        assertEquals(RunCache.normalize("select  1,\n  'a  b'"), "select 1, 'a  b'");
+        assertNotEquals(RunCache.normalize("select E'a\\'  b'"), RunCache.normalize("select E'a\\' b'"));
+        assertEquals("select E'a\\' b' as x", RunCache.normalize("select   E'a\\' b'   as x"));
+        assertEquals("select E'x'' \\' y' as z", RunCache.normalize("select E'x'' \\' y'  as z"));
+    }
+
+    @Test
+    void cacheKeyKeepsWhitespaceInsideDollarQuotes() {
+        assertNotEquals(RunCache.normalize("select $$a  b$$"), RunCache.normalize("select $$a b$$"));
+        assertNotEquals(RunCache.normalize("select $t$ x  $t$ as a"), RunCache.normalize("select $t$ x $t$ as a"));
+        assertEquals("select $$a  b$$ as a", RunCache.normalize("select   $$a  b$$\n as a"));
+    }
+
+    @Test
+    void escapeModeEndsWithItsLiteral() {
+        // '\' after an E-string is a standard string holding a backslash, so the next literal keeps its spaces
+        assertEquals("select E'a', '\\' , 'x  y'", RunCache.normalize("select E'a',  '\\'  ,  'x  y'"));
+        assertNotEquals(RunCache.normalize("select E'a', '\\', 'x  y'"), RunCache.normalize("select E'a', '\\', 'x y'"));
+    }
+}
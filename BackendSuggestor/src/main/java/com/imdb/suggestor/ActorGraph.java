@@ -0,0 +1,308 @@
+package com.imdb.suggestor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Who acted in which movie, as two compressed adjacency lists (CSR) over
+ * int-encoded ids: actor -> catalog rows, each actor's list presorted by
+ * rating * ln(1 + votes), and catalog row -> actors. Only actor/actress
+ * credits in catalog movies are kept, so an actor's top films are the head
+ * of their list and an actor filter is a walk over it.
+ */
+final class ActorGraph {
+    private final MovieCatalog catalog;
+    // nconst without "nm" of everyone with an acting credit, sorted; an actor's index is its position
+    private final int[] actorIds;
+    // Actor a's films are films[filmOffsets[a] .. filmOffsets[a + 1])
+    private final int[] filmOffsets;
+    private final int[] films;
+    // Catalog row r's cast is cast[castOffsets[r] .. castOffsets[r + 1])
+    private final int[] castOffsets;
+    private final int[] cast;
+    // UTF-8 names and birth years (0 for \N); hasPerson is false for nconsts missing from name_basics
+    private final int[] nameOffsets;
+    private final byte[] nameBytes;
+    private final boolean[] hasPerson;
+    private final boolean[] nameNull;
+    private final short[] birthYears;
+
+    private ActorGraph(MovieCatalog catalog, int[] actorIds, int[] filmOffsets, int[] films, int[] castOffsets, int[] cast,
+                       int[] nameOffsets, byte[] nameBytes, boolean[] hasPerson, boolean[] nameNull, short[] birthYears) {
+        this.catalog = catalog;
+        this.actorIds = actorIds;
+        this.filmOffsets = filmOffsets;
+        this.films = films;
+        this.castOffsets = castOffsets;
+        this.cast = cast;
+        this.nameOffsets = nameOffsets;
+        this.nameBytes = nameBytes;
+        this.hasPerson = hasPerson;
+        this.nameNull = nameNull;
+        this.birthYears = birthYears;
+    }
+
+    int actors() {
+        return actorIds.length;
+    }
+
+    int credits() {
+        return films.length;
+    }
+
+    /** The actor index of an nconst, or -1 if they have no acting credit in a movie. */
+    int actorIndex(String nconst) {
+        int code = MovieCatalog.encodeId("nm", nconst);
+        if (code < 0) return -1;
+        int a = Arrays.binarySearch(actorIds, code);
+        return a < 0 ? -1 : a;
+    }
+
+    /** The person with their top 10 films, or null if the graph does not know them. */
+    Map<String, Object> actor(String nconst) {
+        int a = actorIndex(nconst);
+        if (a < 0 || !hasPerson[a]) return null;
+        Map<String, Object> m = personRow(a);
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (int i = filmOffsets[a]; i < filmOffsets[a + 1] && top.size() < 10; i++) {
+            int r = films[i];
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put("id", catalog.id(r));
+            f.put("title", catalog.title(r));
+            f.put("year", catalog.year(r));
+            f.put("rating", catalog.rating(r));
+            f.put("votes", catalog.votesText(r));
+            f.put("score", score(r));
+            top.add(f);
+        }
+        m.put("topFilms", top);
+        return m;
+    }
+
+    /** A page of the actor's movies matching genre and year, or null when the catalog cannot filter it. */
+    List<Map<String, Object>> movies(String nconst, String genre, String year, MovieCursor after, int limit, int offset) {
+        int a = actorIndex(nconst);
+        if (a < 0) return limit < 0 || offset < 0 ? null : new ArrayList<>();
+        return catalog.movies(films, filmOffsets[a], filmOffsets[a + 1], genre, year, after, limit, offset);
+    }
+
+    /** Actors sharing the most movies with this one, or null if the graph does not know them. */
+    List<Map<String, Object>> coStars(String nconst, int limit) {
+        int a = actorIndex(nconst);
+        if (a < 0) return null;
+        Map<Integer, int[]> shared = new HashMap<>();
+        for (int i = filmOffsets[a]; i < filmOffsets[a + 1]; i++) {
+            int r = films[i];
+            for (int j = castOffsets[r]; j < castOffsets[r + 1]; j++) {
+                int b = cast[j];
+                if (b != a && hasPerson[b]) shared.computeIfAbsent(b, k -> new int[1])[0]++;
+            }
+        }
+        List<Map.Entry<Integer, int[]>> ranked = new ArrayList<>(shared.entrySet());
+        ranked.sort((x, y) -> x.getValue()[0] != y.getValue()[0]
+                ? Integer.compare(y.getValue()[0], x.getValue()[0])
+                : Integer.compare(actorIds[x.getKey()], actorIds[y.getKey()]));
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : ranked.subList(0, Math.min(Math.max(0, limit), ranked.size()))) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", MovieCatalog.decodeId("nm", actorIds[e.getKey()]));
+            m.put("name", name(e.getKey()));
+            m.put("sharedFilms", e.getValue()[0]);
+            out.add(m);
+        }
+        return out;
+    }
+
+    boolean hasPerson(int a) {
+        return hasPerson[a];
+    }
+
+    int filmCount(int a) {
+        return filmOffsets[a + 1] - filmOffsets[a];
+    }
+
+    /** Votes summed over the actor's rated movies. */
+    long totalVotes(int a) {
+        long sum = 0;
+        for (int i = filmOffsets[a]; i < filmOffsets[a + 1]; i++) sum += Math.max(0, catalog.votesValue(films[i]));
+        return sum;
+    }
+
+    Map<String, Object> personRow(int a) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", MovieCatalog.decodeId("nm", actorIds[a]));
+        m.put("name", name(a));
+        m.put("birthYear", birthYears[a] == 0 ? null : Short.toString(birthYears[a]));
+        return m;
+    }
+
+    String name(int a) {
+        if (nameNull[a]) return null;
+        return new String(nameBytes, nameOffsets[a], nameOffsets[a + 1] - nameOffsets[a], StandardCharsets.UTF_8);
+    }
+
+    /** rating * ln(1 + votes), or null for unrated movies. */
+    private Double score(int r) {
+        float rating = catalog.ratingValue(r);
+        // Parse the printed rating so 8.4 is the double 8.4, not the float widened
+        return Float.isNaN(rating) ? null : Double.parseDouble(catalog.rating(r)) * Math.log1p(catalog.votesValue(r));
+    }
+
+    long memoryBytes() {
+        return 4L * (actorIds.length + filmOffsets.length + films.length + castOffsets.length + cast.length + nameOffsets.length)
+                + nameBytes.length + 4L * actorIds.length;
+    }
+
+    /** Collects credits, then the people behind them. */
+    static final class Builder {
+        private final MovieCatalog catalog;
+        private int n;
+        private int[] creditActors = new int[1 << 16];
+        private int[] creditRows = new int[1 << 16];
+        private int[] actorIds;
+        private String[] names;
+        private boolean[] hasPerson;
+        private short[] birthYears;
+
+        Builder(MovieCatalog catalog) {
+            this.catalog = catalog;
+        }
+
+        void addCredit(String nconst, String tconst) {
+            int code = MovieCatalog.encodeId("nm", nconst);
+            if (code < 0) throw new IllegalStateException("Cannot encode nconst " + nconst);
+            int r = catalog.rowOf(tconst);
+            // Not a movie, or loaded after the catalog was built
+            if (r < 0) return;
+            if (n == creditActors.length) {
+                creditActors = Arrays.copyOf(creditActors, n * 2);
+                creditRows = Arrays.copyOf(creditRows, n * 2);
+            }
+            creditActors[n] = code;
+            creditRows[n] = r;
+            n++;
+        }
+
+        /** Fixes the set of actors; call after the last credit and before {@link #addPerson}. */
+        void endCredits() {
+            int[] ids = Arrays.copyOf(creditActors, n);
+            Arrays.sort(ids);
+            int distinct = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i == 0 || ids[i] != ids[i - 1]) ids[distinct++] = ids[i];
+            }
+            actorIds = Arrays.copyOf(ids, distinct);
+            names = new String[distinct];
+            hasPerson = new boolean[distinct];
+            birthYears = new short[distinct];
+        }
+
+        void addPerson(String nconst, String name, String birthYear) {
+            int code = MovieCatalog.encodeId("nm", nconst);
+            int a = code < 0 ? -1 : Arrays.binarySearch(actorIds, code);
+            if (a < 0) return;
+            short y = 0;
+            if (birthYear != null) {
+                y = MovieCatalog.parseYear(birthYear);
+                if (y <= 0) throw new IllegalStateException("Cannot encode birthyear " + birthYear + " of " + nconst);
+            }
+            if (hasPerson[a]) throw new IllegalStateException("Duplicate nconst " + nconst);
+            hasPerson[a] = true;
+            names[a] = name;
+            birthYears[a] = y;
+        }
+
+        ActorGraph build() {
+            int actors = actorIds.length;
+            // One entry per (actor, movie), however many acting credits link them
+            long[] pairs = new long[n];
+            for (int i = 0; i < n; i++) {
+                pairs[i] = (long) Arrays.binarySearch(actorIds, creditActors[i]) << 32 | creditRows[i];
+            }
+            creditActors = null;
+            creditRows = null;
+            Arrays.sort(pairs);
+            int e = 0;
+            for (int i = 0; i < pairs.length; i++) {
+                if (i == 0 || pairs[i] != pairs[i - 1]) pairs[e++] = pairs[i];
+            }
+
+            int[] scorePos = scoreOrder();
+            int[] byScore = new int[scorePos.length];
+            for (int r = 0; r < scorePos.length; r++) byScore[scorePos[r]] = r;
+
+            int[] filmOffsets = new int[actors + 1];
+            int[] castOffsets = new int[catalog.size + 1];
+            for (int i = 0; i < e; i++) {
+                filmOffsets[(int) (pairs[i] >>> 32) + 1]++;
+                castOffsets[(int) pairs[i] + 1]++;
+            }
+            for (int a = 0; a < actors; a++) filmOffsets[a + 1] += filmOffsets[a];
+            for (int r = 0; r < catalog.size; r++) castOffsets[r + 1] += castOffsets[r];
+
+            int[] films = new int[e];
+            int[] cast = new int[e];
+            int[] castFill = Arrays.copyOf(castOffsets, catalog.size);
+            for (int i = 0; i < e; i++) {
+                int a = (int) (pairs[i] >>> 32);
+                int r = (int) pairs[i];
+                // pairs are sorted by actor, so actor slices fill in order
+                films[i] = scorePos[r];
+                cast[castFill[r]++] = a;
+            }
+            for (int a = 0; a < actors; a++) {
+                Arrays.sort(films, filmOffsets[a], filmOffsets[a + 1]);
+                for (int i = filmOffsets[a]; i < filmOffsets[a + 1]; i++) films[i] = byScore[films[i]];
+            }
+
+            int[] nameOffsets = new int[actors + 1];
+            boolean[] nameNull = new boolean[actors];
+            byte[][] encoded = new byte[actors][];
+            int bytes = 0;
+            for (int a = 0; a < actors; a++) {
+                nameNull[a] = names[a] == null;
+                encoded[a] = names[a] == null ? new byte[0] : names[a].getBytes(StandardCharsets.UTF_8);
+                bytes += encoded[a].length;
+            }
+            byte[] nameBytes = new byte[bytes];
+            int at = 0;
+            for (int a = 0; a < actors; a++) {
+                nameOffsets[a] = at;
+                System.arraycopy(encoded[a], 0, nameBytes, at, encoded[a].length);
+                at += encoded[a].length;
+            }
+            nameOffsets[actors] = at;
+            return new ActorGraph(catalog, actorIds, filmOffsets, films, castOffsets, cast,
+                    nameOffsets, nameBytes, hasPerson, nameNull, birthYears);
+        }
+
+        /** Each catalog row's position when sorted like the SQL: score, rating, votes, all desc nulls last, then tconst. */
+        private int[] scoreOrder() {
+            double[] score = new double[catalog.size];
+            Integer[] order = new Integer[catalog.size];
+            for (int r = 0; r < catalog.size; r++) {
+                order[r] = r;
+                float rating = catalog.ratingValue(r);
+                score[r] = Float.isNaN(rating) ? Double.NaN : Double.parseDouble(catalog.rating(r)) * Math.log1p(catalog.votesValue(r));
+            }
+            Arrays.sort(order, (x, y) -> {
+                boolean nx = Double.isNaN(score[x]), ny = Double.isNaN(score[y]);
+                if (nx != ny) return nx ? 1 : -1;
+                if (!nx) {
+                    int c = Double.compare(score[y], score[x]);
+                    if (c != 0) return c;
+                }
+                // rank already orders by rating desc, votes desc, nulls last, then tconst
+                return Integer.compare(catalog.rankPos[x], catalog.rankPos[y]);
+            });
+            int[] pos = new int[catalog.size];
+            for (int i = 0; i < order.length; i++) pos[order[i]] = i;
+            return pos;
+        }
+    }
+}
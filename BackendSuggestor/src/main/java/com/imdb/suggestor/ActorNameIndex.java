@@ -0,0 +1,269 @@
+package com.imdb.suggestor;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Autocomplete over the names in an {@link ActorGraph}. Names are folded
+ * (accents stripped, lower case) to UTF-8 and stored in popularity order:
+ * total votes of the actor's movies, then number of movies, then nconst.
+ * A rank is a position in that order, and every list below is sorted by
+ * rank, so the first matches found are the most popular ones.
+ *
+ * Queries of three or more bytes are substring matches: candidates come
+ * from the posting list of the query's rarest trigram and are checked
+ * against the folded name. Shorter queries match the start of a word
+ * through lists keyed on a word's first two bytes.
+ *
+ * suggest.actor in db-init/04-derived-schema.sql holds the same names,
+ * folding and order, so the SQL fallback answers like the index.
+ */
+final class ActorNameIndex {
+    private final ActorGraph graph;
+    // Actor index of each rank
+    private final int[] byRank;
+    // Folded name of rank r is folded[foldedOffsets[r] .. foldedOffsets[r + 1])
+    private final int[] foldedOffsets;
+    private final byte[] folded;
+    // Ranks of names containing trigramKeys[t] are postings[trigramOffsets[t] .. trigramOffsets[t + 1])
+    private final int[] trigramKeys;
+    private final int[] trigramOffsets;
+    private final int[] postings;
+    // Ranks of names with a word starting with bytes b0 b1 (b1 = 0 at the end of the name) are
+    // prefixRanks[prefixOffsets[b0 << 8 | b1] .. prefixOffsets[(b0 << 8 | b1) + 1])
+    private final int[] prefixOffsets;
+    private final int[] prefixRanks;
+
+    private ActorNameIndex(ActorGraph graph, int[] byRank, int[] foldedOffsets, byte[] folded,
+                           int[] trigramKeys, int[] trigramOffsets, int[] postings, int[] prefixOffsets, int[] prefixRanks) {
+        this.graph = graph;
+        this.byRank = byRank;
+        this.foldedOffsets = foldedOffsets;
+        this.folded = folded;
+        this.trigramKeys = trigramKeys;
+        this.trigramOffsets = trigramOffsets;
+        this.postings = postings;
+        this.prefixOffsets = prefixOffsets;
+        this.prefixRanks = prefixRanks;
+    }
+
+    int names() {
+        return byRank.length;
+    }
+
+    long memoryBytes() {
+        return 4L * (byRank.length + foldedOffsets.length + trigramKeys.length + trigramOffsets.length + postings.length
+                + prefixOffsets.length + prefixRanks.length) + folded.length;
+    }
+
+    /** Up to limit actors matching the query, most popular first, or null for a negative limit. */
+    List<Map<String, Object>> search(String query, int limit) {
+        if (limit < 0) return null;
+        byte[] q = fold(query).getBytes(StandardCharsets.UTF_8);
+        List<Map<String, Object>> out = new ArrayList<>();
+        if (q.length == 0 || limit == 0) return out;
+        if (q.length >= 3) {
+            int best = -1;
+            for (int i = 0; i + 3 <= q.length; i++) {
+                int t = Arrays.binarySearch(trigramKeys, trigram(q, i));
+                if (t < 0) return out;
+                if (best < 0 || size(trigramOffsets, t) < size(trigramOffsets, best)) best = t;
+            }
+            for (int i = trigramOffsets[best]; i < trigramOffsets[best + 1] && out.size() < limit; i++) {
+                int r = postings[i];
+                if (contains(r, q)) out.add(graph.personRow(byRank[r]));
+            }
+        } else if (q.length == 2) {
+            int k = (q[0] & 0xFF) << 8 | (q[1] & 0xFF);
+            for (int i = prefixOffsets[k]; i < prefixOffsets[k + 1] && out.size() < limit; i++) {
+                out.add(graph.personRow(byRank[prefixRanks[i]]));
+            }
+        } else {
+            // Merge the 256 lists of words starting with this byte; a name can be in several
+            int base = (q[0] & 0xFF) << 8;
+            int[] at = Arrays.copyOfRange(prefixOffsets, base, base + 256);
+            int last = -1;
+            while (out.size() < limit) {
+                int min = -1;
+                for (int b = 0; b < 256; b++) {
+                    if (at[b] < prefixOffsets[base + b + 1] && (min < 0 || prefixRanks[at[b]] < prefixRanks[at[min]])) min = b;
+                }
+                if (min < 0) break;
+                int r = prefixRanks[at[min]++];
+                if (r != last) out.add(graph.personRow(byRank[r]));
+                last = r;
+            }
+        }
+        return out;
+    }
+
+    private boolean contains(int r, byte[] q) {
+        int from = foldedOffsets[r];
+        int to = foldedOffsets[r + 1] - q.length;
+        for (int i = from; i <= to; i++) {
+            int j = 0;
+            while (j < q.length && folded[i + j] == q[j]) j++;
+            if (j == q.length) return true;
+        }
+        return false;
+    }
+
+    private static int size(int[] offsets, int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    private static int trigram(byte[] b, int i) {
+        return (b[i] & 0xFF) << 16 | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF);
+    }
+
+    /**
+     * Strips accents, lower-cases, and collapses whitespace, so accented and plain spellings compare equal.
+     * suggest.fold in db-init/04-derived-schema.sql is the same function; change both together.
+     */
+    static String fold(String s) {
+        String d = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder b = new StringBuilder(d.length());
+        boolean space = false;
+        for (int i = 0; i < d.length(); i++) {
+            char c = d.charAt(i);
+            if (isCombiningDiacritic(c)) continue;
+            if (Character.isWhitespace(c)) {
+                space = b.length() > 0;
+                continue;
+            }
+            if (space) b.append(' ');
+            space = false;
+            // Letters that do not decompose into a base letter and a mark: o-slash, l-stroke, d-stroke, dotless i,
+            // final sigma, sharp s, ae, oe
+            switch (Character.toLowerCase(c)) {
+                case '\u00f8': b.append('o'); break;
+                case '\u0142': b.append('l'); break;
+                case '\u0111': b.append('d'); break;
+                case '\u0131': b.append('i'); break;
+                case '\u03c2': b.append('\u03c3'); break;
+                case '\u00df': b.append("ss"); break;
+                case '\u00e6': b.append("ae"); break;
+                case '\u0153': b.append("oe"); break;
+                default: b.append(Character.toLowerCase(c));
+            }
+        }
+        return b.toString();
+    }
+
+    // Only the diacritic blocks: vowel signs and other marks in non-Latin scripts are part of the letter
+    private static boolean isCombiningDiacritic(char c) {
+        return (c >= '\u0300' && c <= '\u036f') || (c >= '\u1ab0' && c <= '\u1aff') || (c >= '\u1dc0' && c <= '\u1dff')
+                || (c >= '\u20d0' && c <= '\u20ff') || (c >= '\ufe20' && c <= '\ufe2f');
+    }
+
+    // JdbcMovieRepository.wordPrefixPattern uses the same separators
+    private static boolean wordStart(byte[] name, int i) {
+        if (i == 0) return true;
+        byte p = name[i - 1];
+        return p == ' ' || p == '-' || p == '.' || p == '\'';
+    }
+
+    /** Distinct trigrams of a folded name, sorted. */
+    private static int[] trigrams(byte[] name) {
+        if (name.length < 3) return new int[0];
+        int[] keys = new int[name.length - 2];
+        for (int i = 0; i < keys.length; i++) keys[i] = trigram(name, i);
+        return distinct(keys, keys.length);
+    }
+
+    /** Distinct two-byte keys of the words in a folded name, sorted. */
+    private static int[] prefixes(byte[] name) {
+        int[] keys = new int[name.length];
+        int n = 0;
+        for (int i = 0; i < name.length; i++) {
+            if (wordStart(name, i) && name[i] != ' ') {
+                keys[n++] = (name[i] & 0xFF) << 8 | (i + 1 < name.length ? name[i + 1] & 0xFF : 0);
+            }
+        }
+        return distinct(keys, n);
+    }
+
+    private static int[] distinct(int[] keys, int n) {
+        Arrays.sort(keys, 0, n);
+        int d = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) keys[d++] = keys[i];
+        }
+        return Arrays.copyOf(keys, d);
+    }
+
+    static ActorNameIndex build(ActorGraph graph) {
+        int actors = graph.actors();
+        long[] votes = new long[actors];
+        List<Integer> named = new ArrayList<>();
+        for (int a = 0; a < actors; a++) {
+            if (!graph.hasPerson(a) || graph.name(a) == null) continue;
+            votes[a] = graph.totalVotes(a);
+            named.add(a);
+        }
+        // Actor indexes follow nconst order, which breaks the remaining ties
+        named.sort((x, y) -> votes[x] != votes[y] ? Long.compare(votes[y], votes[x])
+                : graph.filmCount(x) != graph.filmCount(y) ? Integer.compare(graph.filmCount(y), graph.filmCount(x))
+                : Integer.compare(x, y));
+        int m = named.size();
+        int[] byRank = new int[m];
+        byte[][] names = new byte[m][];
+        int bytes = 0;
+        for (int r = 0; r < m; r++) {
+            byRank[r] = named.get(r);
+            names[r] = fold(graph.name(byRank[r])).getBytes(StandardCharsets.UTF_8);
+            bytes += names[r].length;
+        }
+        int[] foldedOffsets = new int[m + 1];
+        byte[] folded = new byte[bytes];
+        for (int r = 0; r < m; r++) {
+            System.arraycopy(names[r], 0, folded, foldedOffsets[r], names[r].length);
+            foldedOffsets[r + 1] = foldedOffsets[r] + names[r].length;
+        }
+
+        // Count first, then fill; ranks are visited in order, so every list comes out sorted.
+        // Trigram counts sit in a 64K table per first byte, allocated for the bytes that occur.
+        int[][] counts = new int[256][];
+        int[] prefixOffsets = new int[(1 << 16) + 1];
+        for (int r = 0; r < m; r++) {
+            for (int k : trigrams(names[r])) {
+                if (counts[k >>> 16] == null) counts[k >>> 16] = new int[1 << 16];
+                counts[k >>> 16][k & 0xFFFF]++;
+            }
+            for (int k : prefixes(names[r])) prefixOffsets[k + 1]++;
+        }
+        // Turn each count into the trigram's position in trigramKeys
+        int distinct = 0;
+        for (int[] block : counts) {
+            if (block == null) continue;
+            for (int c : block) if (c > 0) distinct++;
+        }
+        int[] trigramKeys = new int[distinct];
+        int[] trigramOffsets = new int[distinct + 1];
+        int t = 0;
+        for (int hi = 0; hi < 256; hi++) {
+            if (counts[hi] == null) continue;
+            for (int lo = 0; lo < 1 << 16; lo++) {
+                if (counts[hi][lo] == 0) continue;
+                trigramKeys[t] = hi << 16 | lo;
+                trigramOffsets[t + 1] = trigramOffsets[t] + counts[hi][lo];
+                counts[hi][lo] = t++;
+            }
+        }
+        for (int k = 0; k < 1 << 16; k++) prefixOffsets[k + 1] += prefixOffsets[k];
+
+        int[] postings = new int[trigramOffsets[trigramKeys.length]];
+        int[] prefixRanks = new int[prefixOffsets[1 << 16]];
+        int[] trigramFill = Arrays.copyOf(trigramOffsets, trigramKeys.length);
+        int[] prefixFill = Arrays.copyOf(prefixOffsets, 1 << 16);
+        for (int r = 0; r < m; r++) {
+            for (int k : trigrams(names[r])) postings[trigramFill[counts[k >>> 16][k & 0xFFFF]]++] = r;
+            for (int k : prefixes(names[r])) prefixRanks[prefixFill[k]++] = r;
+        }
+        return new ActorNameIndex(graph, byRank, foldedOffsets, folded, trigramKeys, trigramOffsets, postings, prefixOffsets, prefixRanks);
+    }
+}
@@ -2,6 +2,11 @@ package com.imdb.suggestor;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.imdb.common.CachedJson;
+import com.imdb.common.Metrics;
+import com.imdb.common.RequestExecutor;
+import com.imdb.common.SlowQueryLog;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -12,25 +17,40 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedHashMap;
 import java.util.Arrays;
+import java.util.Locale;
 import java.net.URI;
-import java.sql.*;
 
 public class App {
     private static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     private static final int DEFAULT_PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "3010"));
+    private static final int GZIP_MIN_BYTES = Integer.parseInt(System.getenv().getOrDefault("GZIP_MIN_BYTES", "1024"));
+    private static final int BATCH_MAX_IDS = Integer.parseInt(System.getenv().getOrDefault("BATCH_MAX_IDS", "100"));
+    private static final long GENRES_TTL_SECONDS = 3600;
+    // Serialized once and served until the TTL passes; genres only change with a new import
+    private static volatile CachedJson genres;
+    private static volatile long genresLoadedAt;
+    private static MovieRepository repository;
     private static final int TIMEOUT_MS = (int) Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("QUERY_TIMEOUT_SECONDS", "10"))).toMillis();
 
     public static void main(String[] args) throws Exception {
-        Db.initPool();
+        repository = MovieRepository.fromEnv();
+        Metrics.registerPools(Db::poolBeans, Db::poolMax);
+        SlowQueryLog.init(() -> Db.newUnpooledConnection("slow-query-explain"));
+        Metrics.registerStats("suggestor_executor", RequestExecutor::stats);
+        Metrics.registerStats("suggestor_index", repository::stats);
+        // Headers and body go out in separate writes; without TCP_NODELAY a keep-alive client waits on delayed ACKs (~40ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
         HttpServer server = HttpServer.create(new InetSocketAddress(DEFAULT_PORT), 0);
-        server.createContext("/api", new ApiHandler());
-        server.setExecutor(null);
+        server.createContext("/api", RequestExecutor.configure(server, Metrics.instrument(new ApiHandler()), Db.poolSize()));
         server.start();
         System.out.println("BackendSuggestor running on port " + DEFAULT_PORT);
     }
@@ -48,27 +68,45 @@ public class App {
                     return;
                 }
 
+                if ("/api/metrics".equals(path) && "GET".equalsIgnoreCase(method)) {
+                    writeMetrics(exchange);
+                    return;
+                }
+
+                // Without ADMIN_TOKEN the route does not exist and falls through to 404
+                if ("/api/admin/slow-queries".equals(path) && SlowQueryLog.adminEnabled()) {
+                    if (!SlowQueryLog.authorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                        writeJson(exchange, 401, Map.of("error", "Unauthorized"));
+                    } else if ("GET".equalsIgnoreCase(method)) {
+                        writeJson(exchange, 200, Map.of("thresholdMs", SlowQueryLog.thresholdMs(), "queries", SlowQueryLog.entries()));
+                    } else if ("DELETE".equalsIgnoreCase(method)) {
+                        SlowQueryLog.clear();
+                        writeNoContent(exchange);
+                    } else {
+                        writeJson(exchange, 405, Map.of("error", "Method not allowed"));
+                    }
+                    return;
+                }
+
                 if ("/api/health".equals(path) && "GET".equalsIgnoreCase(method)) {
-                    writeJson(exchange, 200, Map.of("status", "ok"));
+                    writeJson(exchange, 200, Map.of("status", "ok", "schema", DerivedSchema.state(), "executor", RequestExecutor.stats(), "templates", QueryTemplate.stats(), "replicas", Db.replicaStats(), "index", repository.stats()));
                     return;
                 }
 
                 // List available genres
                 if ("/api/genres".equals(path) && "GET".equalsIgnoreCase(method)) {
-                    try (Connection c = Db.getConnection();
-                         PreparedStatement ps = c.prepareStatement(
-                                 "select distinct trim(g) as genre from (" +
-                                         " select unnest(string_to_array(genres, ',')) g from title_basics where genres is not null" +
-                                         ") x where g <> '' order by genre asc")) {
-                        List<Map<String, Object>> items = new ArrayList<>();
-                        try (ResultSet rs = ps.executeQuery()) {
-                            while (rs.next()) {
-                                items.add(Map.of("name", rs.getString("genre")));
-                            }
-                        }
-                        writeJson(exchange, 200, Map.of("genres", items.stream().map(m -> m.get("name")).toArray()));
+                    CachedJson cached = genres;
+                    if (cached != null && System.nanoTime() - genresLoadedAt < GENRES_TTL_SECONDS * 1_000_000_000L) {
+                        writeCached(exchange, cached);
+                        return;
+                    }
+                    try {
+                        cached = CachedJson.of(MAPPER, Map.of("genres", repository.genres()));
+                        genresLoadedAt = System.nanoTime();
+                        genres = cached;
+                        writeCached(exchange, cached);
                     } catch (Exception e) {
-                        writeJson(exchange, 400, Map.of("error", e.getMessage()));
+                        writeError(exchange, e);
                     }
                     return;
                 }
@@ -81,60 +119,44 @@ public class App {
                     String year = Optional.ofNullable(q.get("year")).orElse("");
                     int limit = parseIntOr(q.get("limit"), 50);
                     int offset = parseIntOr(q.get("offset"), 0);
-
-                    StringBuilder sql = new StringBuilder();
-                    sql.append("select tb.tconst as id, tb.primarytitle as title, tb.startyear as year, tb.genres as genres, tr.averagerating as rating, tr.numvotes as votes\n");
-                    sql.append("from title_basics tb\n");
-                    sql.append("left join title_ratings tr on tr.tconst = tb.tconst\n");
-                    if (!actorId.isBlank()) {
-                        // Check if actorId is an nconst (starts with nm) or a name
-                        if (actorId.startsWith("nm")) {
-                            sql.append("join title_principals tp on tp.tconst = tb.tconst and tp.nconst = ?\n");
-                        } else {
-                            // Search by actor name
-                            sql.append("join title_principals tp on tp.tconst = tb.tconst\n");
-                            sql.append("join name_basics nb on nb.nconst = tp.nconst and nb.primaryname ILIKE ?\n");
-                        }
-                    }
-                    sql.append("where tb.titletype = 'movie'\n");
-                    List<Object> params = new ArrayList<>();
-                    if (!genre.isBlank()) {
-                        sql.append("  and tb.genres ILIKE ?\n");
-                        params.add("%" + genre + "%");
+                    try {
+                        MovieCursor after = q.get("cursor") == null ? null : MovieCursor.decode(q.get("cursor"));
+                        List<Map<String, Object>> items = repository.movies(genre, actorId, year, after, limit, offset);
+                        // A full page may have more after it; the client passes next back as cursor to get them
+                        Map<String, Object> page = new LinkedHashMap<>();
+                        page.put("items", items);
+                        page.put("next", limit > 0 && items.size() == limit ? MovieCursor.after(items.get(items.size() - 1)).encode() : null);
+                        writeJson(exchange, 200, page);
+                    } catch (Exception e) {
+                        writeError(exchange, e);
                     }
-                    if (!actorId.isBlank()) {
-                        if (actorId.startsWith("nm")) {
-                            params.add(actorId);
-                        } else {
-                            params.add("%" + actorId + "%");
-                        }
+                    return;
+                }
+
+                // Details of several movies or actors in one request, in the order asked for
+                if (("/api/movies/batch".equals(path) || "/api/actors/batch".equals(path)) && "GET".equalsIgnoreCase(method)) {
+                    List<String> ids = parseIds(parseQuery(exchange.getRequestURI()).get("ids"));
+                    if (ids.isEmpty()) {
+                        writeJson(exchange, 400, Map.of("error", "Query parameter 'ids' is required"));
+                        return;
                     }
-                    if (!year.isBlank()) {
-                        sql.append("  and tb.startyear = ?\n");
-                        params.add(year);
+                    if (ids.size() > BATCH_MAX_IDS) {
+                        writeJson(exchange, 400, Map.of("error", "At most " + BATCH_MAX_IDS + " ids per request"));
+                        return;
                     }
-                    sql.append("order by tr.averagerating::numeric desc nulls last, tr.numvotes::numeric desc nulls last\n");
-                    sql.append("limit ? offset ?");
-                    params.add(limit);
-                    params.add(offset);
-
-                    try (Connection c = Db.getConnection(); PreparedStatement ps = prepare(c, sql.toString(), params)) {
-                        List<Map<String, Object>> items = new ArrayList<>();
-                        try (ResultSet rs = ps.executeQuery()) {
-                            while (rs.next()) {
-                                Map<String, Object> m = new LinkedHashMap<>();
-                                m.put("id", rs.getString("id"));
-                                m.put("title", rs.getString("title"));
-                                m.put("year", rs.getObject("year"));
-                                m.put("genres", rs.getString("genres"));
-                                m.put("rating", rs.getObject("rating"));
-                                m.put("votes", rs.getObject("votes"));
-                                items.add(m);
-                            }
-                        }
-                        writeJson(exchange, 200, Map.of("items", items));
+                    try {
+                        boolean movies = path.startsWith("/api/movies/");
+                        List<Map<String, Object>> found = movies ? repository.moviesById(ids) : repository.actorsById(ids);
+                        Set<Object> foundIds = new HashSet<>();
+                        for (Map<String, Object> m : found) foundIds.add(m.get("id"));
+                        List<String> missing = new ArrayList<>();
+                        for (String id : ids) if (!foundIds.contains(id)) missing.add(id);
+                        Map<String, Object> batch = new LinkedHashMap<>();
+                        batch.put(movies ? "movies" : "actors", found);
+                        batch.put("missing", missing);
+                        writeJson(exchange, 200, batch);
                     } catch (Exception e) {
-                        writeJson(exchange, 400, Map.of("error", e.getMessage()));
+                        writeError(exchange, e);
                     }
                     return;
                 }
@@ -142,43 +164,12 @@ public class App {
                 // Movie details with cast
                 if (path.startsWith("/api/movies/") && "GET".equalsIgnoreCase(method)) {
                     String id = path.substring("/api/movies/".length());
-                    try (Connection c = Db.getConnection()) {
-                        Map<String, Object> movie;
-                        try (PreparedStatement ps = c.prepareStatement(
-                                "select tb.tconst as id, tb.primarytitle as title, tb.startyear as year, tb.genres as genres, tr.averagerating as rating, tr.numvotes as votes " +
-                                        "from title_basics tb left join title_ratings tr on tr.tconst = tb.tconst where tb.tconst = ?")) {
-                            ps.setString(1, id);
-                            try (ResultSet rs = ps.executeQuery()) {
-                                if (!rs.next()) { writeJson(exchange, 404, Map.of("error", "Movie not found")); return; }
-                                movie = new LinkedHashMap<>();
-                                movie.put("id", rs.getString("id"));
-                                movie.put("title", rs.getString("title"));
-                                movie.put("year", rs.getObject("year"));
-                                movie.put("genres", rs.getString("genres"));
-                                movie.put("rating", rs.getObject("rating"));
-                                movie.put("votes", rs.getObject("votes"));
-                            }
-                        }
-                        List<Map<String, Object>> actors = new ArrayList<>();
-                        try (PreparedStatement ps = c.prepareStatement(
-                                "select nb.nconst as id, nb.primaryname as name, tp.category as category " +
-                                        "from title_principals tp join name_basics nb on nb.nconst = tp.nconst " +
-                                        "where tp.tconst = ? and tp.category in ('actor','actress') order by nb.primaryname asc")) {
-                            ps.setString(1, id);
-                            try (ResultSet rs = ps.executeQuery()) {
-                                while (rs.next()) {
-                                    Map<String, Object> a = new LinkedHashMap<>();
-                                    a.put("id", rs.getString("id"));
-                                    a.put("name", rs.getString("name"));
-                                    a.put("category", rs.getString("category"));
-                                    actors.add(a);
-                                }
-                            }
-                        }
-                        movie.put("actors", actors);
-                        writeJson(exchange, 200, movie);
+                    try {
+                        Map<String, Object> movie = repository.movie(id);
+                        if (movie == null) writeJson(exchange, 404, Map.of("error", "Movie not found"));
+                        else writeJson(exchange, 200, movie);
                     } catch (Exception e) {
-                        writeJson(exchange, 400, Map.of("error", e.getMessage()));
+                        writeError(exchange, e);
                     }
                     return;
                 }
@@ -188,35 +179,28 @@ public class App {
                     Map<String, String> q = parseQuery(exchange.getRequestURI());
                     String query = Optional.ofNullable(q.get("q")).orElse("").trim();
                     int limit = parseIntOr(q.get("limit"), 20);
-                    
+
                     if (query.isBlank()) {
                         writeJson(exchange, 400, Map.of("error", "Query parameter 'q' is required"));
                         return;
                     }
-                    
-                    try (Connection c = Db.getConnection();
-                         PreparedStatement ps = c.prepareStatement(
-                                 "select nb.nconst as id, nb.primaryname as name, nb.birthyear as birthYear " +
-                                 "from name_basics nb " +
-                                 "where nb.primaryname ILIKE ? " +
-                                 "order by nb.primaryname asc " +
-                                 "limit ?")) {
-                        ps.setString(1, "%" + query + "%");
-                        ps.setInt(2, limit);
-                        
-                        List<Map<String, Object>> actors = new ArrayList<>();
-                        try (ResultSet rs = ps.executeQuery()) {
-                            while (rs.next()) {
-                                Map<String, Object> actor = new LinkedHashMap<>();
-                                actor.put("id", rs.getString("id"));
-                                actor.put("name", rs.getString("name"));
-                                actor.put("birthYear", rs.getObject("birthYear"));
-                                actors.add(actor);
-                            }
-                        }
-                        writeJson(exchange, 200, Map.of("actors", actors));
+
+                    try {
+                        writeJson(exchange, 200, Map.of("actors", repository.searchActors(query, limit)));
+                    } catch (Exception e) {
+                        writeError(exchange, e);
+                    }
+                    return;
+                }
+
+                // Actors who appeared in the most movies with this one
+                if (path.startsWith("/api/actors/") && path.endsWith("/costars") && "GET".equalsIgnoreCase(method)) {
+                    String id = path.substring("/api/actors/".length(), path.length() - "/costars".length());
+                    int limit = Math.max(0, Math.min(50, parseIntOr(parseQuery(exchange.getRequestURI()).get("limit"), 10)));
+                    try {
+                        writeJson(exchange, 200, Map.of("actors", repository.coStars(id, limit)));
                     } catch (Exception e) {
-                        writeJson(exchange, 400, Map.of("error", e.getMessage()));
+                        writeError(exchange, e);
                     }
                     return;
                 }
@@ -224,48 +208,12 @@ public class App {
                 // Actor details with top 10 films by combined score (rating * ln(1+votes))
                 if (path.startsWith("/api/actors/") && "GET".equalsIgnoreCase(method)) {
                     String id = path.substring("/api/actors/".length());
-                    try (Connection c = Db.getConnection()) {
-                        Map<String, Object> actor;
-                        try (PreparedStatement ps = c.prepareStatement(
-                                "select nb.nconst as id, nb.primaryname as name, nb.birthyear as birthYear " +
-                                        "from name_basics nb where nb.nconst = ?")) {
-                            ps.setString(1, id);
-                            try (ResultSet rs = ps.executeQuery()) {
-                                if (!rs.next()) { writeJson(exchange, 404, Map.of("error", "Actor not found")); return; }
-                                actor = new LinkedHashMap<>();
-                                actor.put("id", rs.getString("id"));
-                                actor.put("name", rs.getString("name"));
-                                actor.put("birthYear", rs.getObject("birthYear"));
-                            }
-                        }
-                        List<Map<String, Object>> films = new ArrayList<>();
-                        try (PreparedStatement ps = c.prepareStatement(
-                                "select tb.tconst as id, tb.primarytitle as title, tb.startyear as year, tr.averagerating as rating, tr.numvotes as votes, " +
-                                        " (tr.averagerating::numeric * ln(1 + tr.numvotes::numeric)) as score " +
-                                        "from title_principals tp " +
-                                        " join title_basics tb on tb.tconst = tp.tconst and tb.titletype = 'movie' " +
-                                        " left join title_ratings tr on tr.tconst = tb.tconst " +
-                                        "where tp.nconst = ? and tp.category in ('actor','actress') " +
-                                        "order by score desc nulls last, tr.averagerating::numeric desc nulls last, tr.numvotes::numeric desc nulls last " +
-                                        "limit 10")) {
-                            ps.setString(1, id);
-                            try (ResultSet rs = ps.executeQuery()) {
-                                while (rs.next()) {
-                                    Map<String, Object> f = new LinkedHashMap<>();
-                                    f.put("id", rs.getString("id"));
-                                    f.put("title", rs.getString("title"));
-                                    f.put("year", rs.getObject("year"));
-                                    f.put("rating", rs.getObject("rating"));
-                                    f.put("votes", rs.getObject("votes"));
-                                    f.put("score", rs.getObject("score"));
-                                    films.add(f);
-                                }
-                            }
-                        }
-                        actor.put("topFilms", films);
-                        writeJson(exchange, 200, actor);
+                    try {
+                        Map<String, Object> actor = repository.actor(id);
+                        if (actor == null) writeJson(exchange, 404, Map.of("error", "Actor not found"));
+                        else writeJson(exchange, 200, actor);
                     } catch (Exception e) {
-                        writeJson(exchange, 400, Map.of("error", e.getMessage()));
+                        writeError(exchange, e);
                     }
                     return;
                 }
@@ -308,17 +256,19 @@ public class App {
         catch (Exception e) { return s; }
     }
 
-    private static int parseIntOr(String s, int def) {
-        try { return s == null ? def : Integer.parseInt(s); } catch (Exception e) { return def; }
+    /** Comma-separated ids, trimmed, without blanks or repeats. */
+    private static List<String> parseIds(String s) {
+        Set<String> ids = new LinkedHashSet<>();
+        if (s != null) {
+            for (String id : s.split(",")) {
+                if (!id.isBlank()) ids.add(id.trim());
+            }
+        }
+        return new ArrayList<>(ids);
     }
 
-    private static PreparedStatement prepare(Connection c, String sql, List<Object> params) throws SQLException {
-        PreparedStatement ps = c.prepareStatement(sql);
-        int idx = 1;
-        for (Object p : params) {
-            ps.setObject(idx++, p);
-        }
-        return ps;
+    private static int parseIntOr(String s, int def) {
+        try { return s == null ? def : Integer.parseInt(s); } catch (Exception e) { return def; }
     }
 
     private static void addCors(HttpExchange ex) {
@@ -328,12 +278,73 @@ public class App {
         ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
     }
 
+    /** Successful GETs get an ETag, gzip negotiation and the route's Cache-Control; everything else is sent as is. */
     private static void writeJson(HttpExchange ex, int status, Object obj) throws IOException {
         byte[] bytes = MAPPER.writeValueAsBytes(obj);
+        if (status == 200 && "GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            writeCached(ex, CachedJson.of(bytes));
+            return;
+        }
+        ex.getResponseHeaders().set("Cache-Control", "no-store");
         ex.sendResponseHeaders(status, bytes.length);
         try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
     }
 
+    /** 503 while schema suggest is being built, so clients retry; any other failure is reported as a bad request. */
+    private static void writeError(HttpExchange ex, Exception e) throws IOException {
+        if (e instanceof DerivedSchema.NotReady) {
+            ex.getResponseHeaders().set("Retry-After", "30");
+            writeJson(ex, 503, Map.of("error", e.getMessage()));
+        } else {
+            writeJson(ex, 400, Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Sends a pre-serialized body, gzipped when accepted and worth it, or 304 when the client already has it. */
+    private static void writeCached(HttpExchange ex, CachedJson body) throws IOException {
+        boolean gzip = body.bytes.length >= GZIP_MIN_BYTES && acceptsGzip(ex);
+        Headers h = ex.getResponseHeaders();
+        h.set("Cache-Control", cacheControl(ex.getRequestURI().getPath()));
+        h.set("Vary", "Accept-Encoding");
+        h.set("ETag", gzip ? body.gzipEtag() : body.etag);
+        if (body.matches(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        byte[] bytes = body.bytes;
+        if (gzip) {
+            h.set("Content-Encoding", "gzip");
+            bytes = body.gzipped();
+        }
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+    }
+
+    /** The catalogue only changes with a new import, so browsers may reuse it for a while. */
+    private static String cacheControl(String path) {
+        if (path.equals("/api/genres")) return "public, max-age=" + GENRES_TTL_SECONDS;
+        if (path.startsWith("/api/movies") || path.startsWith("/api/actors")) return "public, max-age=300";
+        return "no-store";
+    }
+
+    private static boolean acceptsGzip(HttpExchange ex) {
+        for (String value : ex.getRequestHeaders().getOrDefault("Accept-Encoding", List.of())) {
+            for (String coding : value.split(",")) {
+                String c = coding.trim().toLowerCase(Locale.ROOT);
+                if (c.equals("gzip") || (c.startsWith("gzip;") && !c.replace(" ", "").matches("gzip;q=0(\\.0*)?"))) return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeMetrics(HttpExchange ex) throws IOException {
+        byte[] bytes = Metrics.render().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+    }
+
     private static void writeNoContent(HttpExchange ex) throws IOException {
         ex.sendResponseHeaders(204, -1);
         ex.close();
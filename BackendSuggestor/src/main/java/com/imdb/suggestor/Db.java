@@ -1,43 +1,80 @@
 package com.imdb.suggestor;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import com.imdb.common.ReplicaRouter;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Connection pools, one per workload class so a burst of lookups cannot
+ * starve the metadata queries. Read-only workloads are spread over the
+ * replicas in DB_REPLICAS by {@link ReplicaRouter}.
+ */
 public class Db {
-    private static HikariDataSource ds;
+    private static final int POOL_SIZE = Integer.parseInt(System.getenv().getOrDefault("DB_POOL_SIZE", "10"));
+    // Executions of the same SQL on a connection before it becomes a named server-side prepared
+    // statement. Set 0 behind PgBouncer in transaction mode, where named statements don't survive.
+    private static final String PREPARE_THRESHOLD = System.getenv().getOrDefault("DB_PREPARE_THRESHOLD", "5");
+    // plan_cache_mode (auto, force_custom_plan, force_generic_plan) for the prepared templates. The
+    // /api/movies statements force custom plans for themselves; see QueryTemplate.registerCustomPlan.
+    private static final String PLAN_CACHE_MODE = System.getenv().getOrDefault("DB_PLAN_CACHE_MODE", "auto");
+
+    public enum Workload implements ReplicaRouter.Workload {
+        /** Movie, actor and search queries. */
+        LOOKUP("DB_POOL_LOOKUP", POOL_SIZE, true),
+        /** The genre list; always on the primary. */
+        METADATA("DB_POOL_METADATA", 2, false);
+
+        final int size;
+        final boolean replicaReads;
+
+        Workload(String env, int defaultSize, boolean replicaReads) {
+            this.size = Integer.parseInt(System.getenv().getOrDefault(env, String.valueOf(defaultSize)));
+            this.replicaReads = replicaReads;
+        }
+
+        @Override public int size() { return size; }
+
+        @Override public boolean replicaReads() { return replicaReads; }
+    }
+
+    private static ReplicaRouter<Workload> router;
 
     public static void initPool() {
-        HikariConfig cfg = new HikariConfig();
-        String host = envOr("DB_HOST", "localhost");
-        String port = envOr("DB_PORT", "5432");
-        String db = envOr("DB_NAME", "imdb");
-        String user = envOr("DB_USER", "postgres");
-        String pass = envOr("DB_PASSWORD", "postgres");
-        String jdbc = "jdbc:postgresql://" + host + ":" + port + "/" + db;
-        cfg.setJdbcUrl(jdbc);
-        cfg.setUsername(user);
-        cfg.setPassword(pass);
-        cfg.setMaximumPoolSize(10);
-        cfg.setMinimumIdle(1);
-        cfg.setConnectionTimeout(10_000);
-        cfg.setIdleTimeout(60_000);
-        cfg.setMaxLifetime(30 * 60_000);
-        cfg.setConnectionInitSql("SET TIME ZONE 'UTC'");
-        cfg.addDataSourceProperty("options", "-c TimeZone=UTC");
-        // Add PostgreSQL-specific properties
-        cfg.addDataSourceProperty("ssl", "false");
-        cfg.addDataSourceProperty("sslmode", "disable");
-        cfg.addDataSourceProperty("prepareThreshold", "0"); // Disable server-side prepared statements
-        ds = new HikariDataSource(cfg);
+        router = new ReplicaRouter<>(Workload.class, (cfg, w) -> {
+            cfg.addDataSourceProperty("options", "-c TimeZone=UTC" + (PLAN_CACHE_MODE.isBlank() ? "" : " -c plan_cache_mode=" + PLAN_CACHE_MODE));
+            cfg.addDataSourceProperty("prepareThreshold", PREPARE_THRESHOLD);
+            cfg.addDataSourceProperty("ApplicationName", "imdb-suggestor-" + w.label());
+        });
     }
 
-    public static Connection getConnection() throws SQLException { return ds.getConnection(); }
+    /** Size of the lookup pool, which bounds how many requests are worth running at once. */
+    public static int poolSize() { return Workload.LOOKUP.size; }
+
+    /** Live counters of every pool by pool name, for /api/metrics; empty before the pools are started. */
+    public static Map<String, HikariPoolMXBean> poolBeans() {
+        return router == null ? Map.of() : router.poolBeans();
+    }
+
+    /** Maximum size of a pool named by {@link #poolBeans}. */
+    public static int poolMax(String poolName) {
+        return router == null ? 0 : router.poolMax(poolName);
+    }
+
+    /** Replica health for /api/health. */
+    public static List<Map<String, Object>> replicaStats() {
+        return router == null ? List.of() : router.replicaStats();
+    }
+
+    public static Connection getConnection(Workload w) throws SQLException {
+        return router.getConnection(w);
+    }
 
-    private static String envOr(String k, String def) {
-        String v = System.getenv(k);
-        return (v == null || v.isBlank()) ? def : v;
+    /** A standalone connection to the primary, for background work that must not take a pool slot. */
+    public static Connection newUnpooledConnection(String applicationName) throws SQLException {
+        return router.newUnpooledConnection(applicationName);
     }
 }
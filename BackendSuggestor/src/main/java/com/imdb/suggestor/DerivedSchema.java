@@ -0,0 +1,214 @@
+package com.imdb.suggestor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builds schema "suggest" when the database predates it. A new volume gets it
+ * from db-init/04-derived-schema.sql after the import, but the init scripts
+ * never run again on an existing volume. The jar carries the same script and
+ * runs it statement by statement on a background thread, under an advisory
+ * lock so that of several instances starting together one builds and the rest
+ * wait for it. Until the schema is swapped in, queries fail with
+ * {@link NotReady}, which the API answers with 503.
+ */
+final class DerivedSchema {
+    private static final boolean AUTO_BUILD = Boolean.parseBoolean(System.getenv().getOrDefault("SUGGEST_SCHEMA_BUILD", "true"));
+    private static final String SCRIPT = "/db/04-derived-schema.sql";
+
+    private static final CompletableFuture<Void> READY = new CompletableFuture<>();
+    private static volatile String state = "unchecked";
+
+    /** The schema is not there yet, or could not be built. */
+    static final class NotReady extends SQLException {
+        NotReady(String message) {
+            super(message, "55000");
+        }
+    }
+
+    private DerivedSchema() {}
+
+    /** Records that the schema is current, so queries may run. */
+    static void ready() {
+        state = "ready";
+        READY.complete(null);
+    }
+
+    /** Starts building the schema in the background; fails right away when building is turned off. */
+    static void buildInBackground() {
+        if (!AUTO_BUILD) {
+            throw new IllegalStateException("Schema suggest not found; build it with db-init/04-derived-schema.sql after importing");
+        }
+        state = "building";
+        Thread t = new Thread(() -> {
+            try {
+                build();
+                ready();
+            } catch (Exception e) {
+                state = "failed: " + e.getMessage();
+                System.err.println("Schema suggest build failed: " + e.getMessage());
+            }
+        }, "suggest-schema-build");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Throws unless the schema is ready. */
+    static void check() throws NotReady {
+        if (READY.isDone()) return;
+        String s = state;
+        throw new NotReady(s.startsWith("failed")
+                ? "Schema suggest could not be built (" + s.substring("failed: ".length()) + ")"
+                : "The movie database is being prepared; retry shortly");
+    }
+
+    /** Runs the callback once the schema is ready: now if it is, otherwise on the build thread. */
+    static void whenReady(Runnable callback) {
+        READY.thenRun(callback);
+    }
+
+    /** "ready", "building", "failed: ..." or, before the repository has looked, "unchecked". */
+    static String state() { return state; }
+
+    private static void build() throws SQLException {
+        // Unpooled: the build runs for minutes on a full import, longer than a pooled connection should be held
+        try (Connection c = Db.newUnpooledConnection("suggest-schema-build"); Statement st = c.createStatement()) {
+            // Session-level, so closing the connection releases it even when the build fails mid-transaction
+            st.execute("select pg_advisory_lock(hashtext('suggest-schema-build'))");
+            // Another instance may have built it while this one waited for the lock
+            if (exists(st)) return;
+            if (!imported(st)) {
+                throw new IllegalStateException("Schema suggest not found and title_basics is empty; import the dataset first");
+            }
+            System.out.println("Schema suggest not found or out of date; building it from the imported tables");
+            long start = System.nanoTime();
+            run(c, st, statements(script()));
+            System.out.println("Schema suggest built in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * Runs each statement on its own, in autocommit like psql does, except between the script's
+     * BEGIN and COMMIT, which become one JDBC transaction so the swap is atomic.
+     */
+    private static void run(Connection c, Statement st, List<String> statements) throws SQLException {
+        try {
+            for (String sql : statements) {
+                String word = sql.toUpperCase(Locale.ROOT);
+                if (word.equals("BEGIN")) {
+                    c.setAutoCommit(false);
+                } else if (word.equals("COMMIT")) {
+                    c.commit();
+                    c.setAutoCommit(true);
+                } else {
+                    long start = System.nanoTime();
+                    st.execute(sql);
+                    System.out.println("  " + sql.lines().findFirst().orElse("") + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                }
+            }
+        } catch (SQLException e) {
+            if (!c.getAutoCommit()) c.rollback();
+            throw e;
+        }
+    }
+
+    private static boolean exists(Statement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery("select to_regclass('suggest.actor') is not null")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static boolean imported(Statement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery("select to_regclass('public.title_basics') is not null")) {
+            if (!rs.next() || !rs.getBoolean(1)) return false;
+        }
+        try (ResultSet rs = st.executeQuery("select exists (select 1 from title_basics where tconst like 'tt%')")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Splits a script on the semicolons outside comments, quoted strings and identifiers, and
+     * $tag$ bodies. Comments outside those are dropped, and so are statements left empty.
+     */
+    static List<String> statements(String script) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        int n = script.length();
+        int i = 0;
+        while (i < n) {
+            char ch = script.charAt(i);
+            int end;
+            if (ch == '-' && i + 1 < n && script.charAt(i + 1) == '-') {
+                end = script.indexOf('\n', i);
+                i = end < 0 ? n : end;
+                continue;
+            }
+            if (ch == '/' && i + 1 < n && script.charAt(i + 1) == '*') {
+                end = script.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                cur.append(' ');
+                continue;
+            }
+            if (ch == ';') {
+                add(out, cur);
+                i++;
+                continue;
+            }
+            if (ch == '\'' || ch == '"') {
+                boolean escapes = ch == '\'' && i > 0 && (script.charAt(i - 1) == 'E' || script.charAt(i - 1) == 'e')
+                        && (i < 2 || !isWordChar(script.charAt(i - 2)));
+                end = i + 1;
+                while (end < n && script.charAt(end) != ch) end += escapes && script.charAt(end) == '\\' ? 2 : 1;
+                end = Math.min(n, end + 1);
+            } else if (ch == '$' && (i == 0 || !isWordChar(script.charAt(i - 1))) && dollarTagEnd(script, i) > 0) {
+                int tagEnd = dollarTagEnd(script, i);
+                int close = script.indexOf(script.substring(i, tagEnd), tagEnd);
+                end = close < 0 ? n : close + (tagEnd - i);
+            } else {
+                end = i + 1;
+            }
+            cur.append(script, i, end);
+            i = end;
+        }
+        add(out, cur);
+        return out;
+    }
+
+    private static void add(List<String> out, StringBuilder cur) {
+        String s = cur.toString().trim();
+        if (!s.isEmpty()) out.add(s);
+        cur.setLength(0);
+    }
+
+    private static boolean isWordChar(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+    }
+
+    /** End of a $tag$ opener starting at i, or -1. */
+    private static int dollarTagEnd(String s, int i) {
+        int j = i + 1;
+        while (j < s.length() && (Character.isLetterOrDigit(s.charAt(j)) || s.charAt(j) == '_')) j++;
+        if (j < s.length() && s.charAt(j) == '$' && (j == i + 1 || !Character.isDigit(s.charAt(i + 1)))) return j + 1;
+        return -1;
+    }
+
+    private static String script() {
+        try (InputStream in = DerivedSchema.class.getResourceAsStream(SCRIPT)) {
+            if (in == null) throw new IllegalStateException(SCRIPT + " is not on the classpath");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.imdb.suggestor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Answers the Suggestor endpoints from IMDb TSV files held in memory,
+ * mirroring the SQL in {@link JdbcMovieRepository}: same filters, ordering
+ * and row shapes, with values kept as the strings Postgres stores. Loads the
+ * bundled sample, or title.basics/title.ratings/title.principals/name.basics
+ * (.tsv or .tsv.gz) from FIXTURE_DIR.
+ */
+class InMemoryMovieRepository implements MovieRepository {
+    private static final String NULL = "\\N";
+    // IMDb ids are zero-padded to a minimum width, so ordering them by number is by length, then text
+    private static final Comparator<String> BY_NUMBER = Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    private static final class Title {
+        String id, type, title, year, genres, rating, votes;
+    }
+
+    private static final class Person {
+        String id, name, birthYear;
+    }
+
+    private static final class Principal {
+        String titleId, personId, category;
+    }
+
+    private final Map<String, Title> titles = new LinkedHashMap<>();
+    private final Map<String, Person> people = new LinkedHashMap<>();
+    private final Map<String, List<Principal>> byTitle = new HashMap<>();
+    private final Map<String, List<Principal>> byPerson = new HashMap<>();
+    private final List<String> genres;
+
+    private InMemoryMovieRepository(String dir) throws IOException {
+        for (String[] r : read(dir, "title.basics", "tconst", "titleType", "primaryTitle", "startYear", "genres")) {
+            Title t = new Title();
+            t.id = r[0];
+            t.type = r[1];
+            t.title = r[2];
+            t.year = r[3];
+            t.genres = r[4];
+            titles.put(t.id, t);
+        }
+        for (String[] r : read(dir, "title.ratings", "tconst", "averageRating", "numVotes")) {
+            Title t = titles.get(r[0]);
+            if (t == null) continue;
+            t.rating = r[1];
+            t.votes = r[2];
+        }
+        for (String[] r : read(dir, "name.basics", "nconst", "primaryName", "birthYear")) {
+            Person p = new Person();
+            p.id = r[0];
+            p.name = r[1];
+            p.birthYear = r[2];
+            people.put(p.id, p);
+        }
+        for (String[] r : read(dir, "title.principals", "tconst", "nconst", "category")) {
+            Principal p = new Principal();
+            p.titleId = r[0];
+            p.personId = r[1];
+            p.category = r[2];
+            byTitle.computeIfAbsent(p.titleId, k -> new ArrayList<>()).add(p);
+            byPerson.computeIfAbsent(p.personId, k -> new ArrayList<>()).add(p);
+        }
+        TreeSet<String> all = new TreeSet<>();
+        for (Title t : titles.values()) {
+            if (t.genres == null) continue;
+            for (String g : t.genres.split(",")) {
+                if (!g.trim().isEmpty()) all.add(g.trim());
+            }
+        }
+        genres = List.copyOf(all);
+    }
+
+    static InMemoryMovieRepository load(String dir) throws IOException {
+        InMemoryMovieRepository repo = new InMemoryMovieRepository(dir);
+        System.out.println("Loaded in-memory fixture: " + repo.titles.size() + " titles, " + repo.people.size() + " people");
+        return repo;
+    }
+
+    @Override
+    public List<String> genres() {
+        return genres;
+    }
+
+    @Override
+    public List<Map<String, Object>> movies(String genre, String actorId, String year, MovieCursor after, int limit, int offset) {
+        String genreLc = genre.toLowerCase(Locale.ROOT);
+        String actorLc = actorId.toLowerCase(Locale.ROOT);
+        List<Title> matches = new ArrayList<>();
+        for (Title t : titles.values()) {
+            if (!"movie".equals(t.type)) continue;
+            if (!genre.isBlank() && (t.genres == null || !t.genres.toLowerCase(Locale.ROOT).contains(genreLc))) continue;
+            if (!year.isBlank() && !year.equals(t.year)) continue;
+            if (after != null && !isAfter(t, after)) continue;
+            if (actorId.isBlank()) {
+                matches.add(t);
+                continue;
+            }
+            for (Principal p : byTitle.getOrDefault(t.id, List.of())) {
+                if (isActing(p) && (actorId.startsWith("nm") ? actorId.equals(p.personId) : nameContains(p.personId, actorLc))) {
+                    matches.add(t);
+                    break;
+                }
+            }
+        }
+        matches.sort(Comparator.comparing((Title t) -> number(t.rating), Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(t -> number(t.votes), Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(t -> t.id, BY_NUMBER));
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (int i = Math.max(0, offset); i < matches.size() && out.size() < limit; i++) {
+            out.add(movieRow(matches.get(i)));
+        }
+        return out;
+    }
+
+    @Override
+    public void scanMovies(MovieSink sink) {
+        for (Title t : titles.values()) {
+            if ("movie".equals(t.type)) sink.accept(t.id, t.title, t.year, t.genres, t.rating, t.votes);
+        }
+    }
+
+    @Override
+    public void scanCredits(CreditSink sink) {
+        for (List<Principal> credits : byTitle.values()) {
+            for (Principal p : credits) {
+                Title t = titles.get(p.titleId);
+                if (t != null && "movie".equals(t.type) && isActing(p)) sink.accept(p.personId, p.titleId);
+            }
+        }
+    }
+
+    @Override
+    public void scanPeople(PersonSink sink) {
+        for (Person p : people.values()) sink.accept(p.id, p.name, p.birthYear);
+    }
+
+    @Override
+    public Map<String, Object> movie(String id) {
+        Title t = titles.get(id);
+        if (t == null) return null;
+        Map<String, Object> movie = movieRow(t);
+        List<Map<String, Object>> actors = new ArrayList<>();
+        for (Principal p : byTitle.getOrDefault(id, List.of())) {
+            Person person = people.get(p.personId);
+            if (person == null || !isActing(p)) continue;
+            Map<String, Object> a = new LinkedHashMap<>();
+            a.put("id", person.id);
+            a.put("name", person.name);
+            a.put("category", p.category);
+            actors.add(a);
+        }
+        actors.sort(Comparator.comparing(a -> (String) a.get("name"), Comparator.nullsLast(Comparator.naturalOrder())));
+        movie.put("actors", actors);
+        return movie;
+    }
+
+    @Override
+    public List<Map<String, Object>> searchActors(String query, int limit) {
+        String q = query.toLowerCase(Locale.ROOT);
+        List<Person> matches = new ArrayList<>();
+        for (Person p : people.values()) {
+            if (p.name != null && p.name.toLowerCase(Locale.ROOT).contains(q)) matches.add(p);
+        }
+        matches.sort(Comparator.comparing(p -> p.name));
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Person p : matches.subList(0, Math.min(Math.max(0, limit), matches.size()))) out.add(personRow(p));
+        return out;
+    }
+
+    @Override
+    public Map<String, Object> actor(String id) {
+        Person person = people.get(id);
+        if (person == null) return null;
+        Map<String, Object> actor = personRow(person);
+        List<Title> films = new ArrayList<>();
+        for (Principal p : byPerson.getOrDefault(id, List.of())) {
+            Title t = titles.get(p.titleId);
+            if (t != null && "movie".equals(t.type) && isActing(p)) films.add(t);
+        }
+        films.sort(Comparator.comparing(InMemoryMovieRepository::score, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(t -> number(t.rating), Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(t -> number(t.votes), Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(t -> t.id, BY_NUMBER));
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (Title t : films.subList(0, Math.min(10, films.size()))) {
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put("id", t.id);
+            f.put("title", t.title);
+            f.put("year", t.year);
+            f.put("rating", t.rating);
+            f.put("votes", t.votes);
+            f.put("score", score(t));
+            top.add(f);
+        }
+        actor.put("topFilms", top);
+        return actor;
+    }
+
+    @Override
+    public List<Map<String, Object>> coStars(String id, int limit) {
+        Map<String, Set<String>> shared = new HashMap<>();
+        for (Principal p : byPerson.getOrDefault(id, List.of())) {
+            Title t = titles.get(p.titleId);
+            if (t == null || !"movie".equals(t.type) || !isActing(p)) continue;
+            for (Principal other : byTitle.getOrDefault(p.titleId, List.of())) {
+                if (!other.personId.equals(id) && isActing(other) && people.containsKey(other.personId)) {
+                    shared.computeIfAbsent(other.personId, k -> new TreeSet<>()).add(p.titleId);
+                }
+            }
+        }
+        List<Map<String, Object>> out = new ArrayList<>();
+        shared.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<String, Set<String>> e) -> e.getValue().size()).reversed()
+                        .thenComparing(Map.Entry::getKey, BY_NUMBER))
+                .limit(Math.max(0, limit))
+                .forEach(e -> {
+                    Map<String, Object> m = new LinkedHashMap<>();
+                    m.put("id", e.getKey());
+                    m.put("name", people.get(e.getKey()).name);
+                    m.put("sharedFilms", e.getValue().size());
+                    out.add(m);
+                });
+        return out;
+    }
+
+    private boolean nameContains(String personId, String fragmentLc) {
+        Person p = people.get(personId);
+        return p != null && p.name != null && p.name.toLowerCase(Locale.ROOT).contains(fragmentLc);
+    }
+
+    private static boolean isActing(Principal p) {
+        return "actor".equals(p.category) || "actress".equals(p.category);
+    }
+
+    private static Map<String, Object> movieRow(Title t) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", t.id);
+        m.put("title", t.title);
+        m.put("year", t.year);
+        m.put("genres", t.genres);
+        m.put("rating", t.rating);
+        m.put("votes", t.votes);
+        return m;
+    }
+
+    private static Map<String, Object> personRow(Person p) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", p.id);
+        m.put("name", p.name);
+        m.put("birthYear", p.birthYear);
+        return m;
+    }
+
+    private static Double score(Title t) {
+        Double rating = number(t.rating);
+        Double votes = number(t.votes);
+        return rating == null || votes == null ? null : rating * Math.log1p(votes);
+    }
+
+    /** Whether t comes after the cursor in the movies order. */
+    private static boolean isAfter(Title t, MovieCursor after) {
+        int c = compareDesc(number(t.rating), number(after.rating));
+        if (c == 0) c = compareDesc(number(t.votes), number(after.votes));
+        return c != 0 ? c > 0 : BY_NUMBER.compare(t.id, after.id) > 0;
+    }
+
+    private static int compareDesc(Double a, Double b) {
+        if (a == null || b == null) return a == null && b == null ? 0 : a == null ? 1 : -1;
+        return Double.compare(b, a);
+    }
+
+    private static Double number(String s) {
+        if (s == null) return null;
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Reads the named columns of one IMDb TSV file, mapping \N to null. */
+    private static List<String[]> read(String dir, String name, String... columns) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(open(dir, name), StandardCharsets.UTF_8))) {
+            String header = in.readLine();
+            if (header == null) return List.of();
+            List<String> names = Arrays.asList(header.split("\t", -1));
+            int[] idx = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                idx[i] = names.indexOf(columns[i]);
+                if (idx[i] < 0) throw new IOException(name + " has no column " + columns[i]);
+            }
+            List<String[]> rows = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] cells = line.split("\t", -1);
+                String[] row = new String[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    String v = idx[i] < cells.length ? cells[idx[i]] : null;
+                    row[i] = NULL.equals(v) ? null : v;
+                }
+                rows.add(row);
+            }
+            return Collections.unmodifiableList(rows);
+        }
+    }
+
+    private static InputStream open(String dir, String name) throws IOException {
+        if (dir == null || dir.isBlank()) {
+            InputStream in = InMemoryMovieRepository.class.getResourceAsStream("/fixture/" + name + ".tsv");
+            if (in == null) throw new IOException("fixture/" + name + ".tsv not found on classpath");
+            return in;
+        }
+        Path plain = Paths.get(dir, name + ".tsv");
+        if (Files.exists(plain)) return Files.newInputStream(plain);
+        return new GZIPInputStream(Files.newInputStream(Paths.get(dir, name + ".tsv.gz")), 1 << 16);
+    }
+}
@@ -0,0 +1,226 @@
+package com.imdb.suggestor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves what it can from in-memory indexes built off the wrapped
+ * repository, and passes everything else through. Indexes load in the
+ * background after startup, so requests use the wrapped repository until
+ * they are ready or if a build fails. MOVIE_INDEX_REFRESH_MINUTES rebuilds
+ * them periodically to pick up a new import.
+ */
+class IndexedMovieRepository implements MovieRepository {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getenv().getOrDefault("MOVIE_INDEX", "true"));
+    private static final long REFRESH_MINUTES = Long.parseLong(System.getenv().getOrDefault("MOVIE_INDEX_REFRESH_MINUTES", "0"));
+
+    private final MovieRepository delegate;
+    private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "movie-index-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile MovieCatalog catalog;
+    private volatile long catalogBuildMs;
+    private volatile ActorGraph graph;
+    private volatile long graphBuildMs;
+    private volatile ActorNameIndex names;
+    private volatile long namesBuildMs;
+    private volatile String lastError;
+    private final LongAdder served = new LongAdder();
+    private final LongAdder passedThrough = new LongAdder();
+
+    private IndexedMovieRepository(MovieRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    static IndexedMovieRepository start(MovieRepository delegate) {
+        IndexedMovieRepository repo = new IndexedMovieRepository(delegate);
+        // A schema still being built would fail the first load, so it waits until there is data to scan
+        delegate.whenReady(() -> repo.loader.execute(repo::rebuild));
+        if (REFRESH_MINUTES > 0) repo.loader.scheduleWithFixedDelay(repo::rebuild, REFRESH_MINUTES, REFRESH_MINUTES, TimeUnit.MINUTES);
+        return repo;
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        MovieCatalog c;
+        try {
+            MovieCatalog.Builder b = new MovieCatalog.Builder();
+            delegate.scanMovies(b::add);
+            c = b.build();
+        } catch (Exception e) {
+            // Keep serving from the previous indexes, or from SQL if there are none
+            lastError = String.valueOf(e.getMessage());
+            System.err.println("Movie catalog build failed: " + lastError);
+            return;
+        }
+        catalogBuildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Movie catalog: " + c.size + " movies, " + c.memoryBytes() / 1024 + " KiB, built in " + catalogBuildMs + " ms");
+
+        start = System.nanoTime();
+        ActorGraph g;
+        try {
+            ActorGraph.Builder b = new ActorGraph.Builder(c);
+            delegate.scanCredits(b::addCredit);
+            b.endCredits();
+            delegate.scanPeople(b::addPerson);
+            g = b.build();
+        } catch (Exception e) {
+            // The graph's rows point into one catalog, so a new catalog goes live only with its graph
+            lastError = String.valueOf(e.getMessage());
+            System.err.println("Actor graph build failed: " + lastError);
+            if (graph == null) catalog = c;
+            return;
+        }
+        graphBuildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Actor graph: " + g.actors() + " actors, " + g.credits() + " credits, " + g.memoryBytes() / 1024 + " KiB, built in " + graphBuildMs + " ms");
+        catalog = c;
+        graph = g;
+
+        start = System.nanoTime();
+        ActorNameIndex n = ActorNameIndex.build(g);
+        namesBuildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Actor name index: " + n.names() + " names, " + n.memoryBytes() / 1024 + " KiB, built in " + namesBuildMs + " ms");
+        names = n;
+        lastError = null;
+    }
+
+    @Override
+    public List<String> genres() throws SQLException {
+        return delegate.genres();
+    }
+
+    @Override
+    public List<Map<String, Object>> movies(String genre, String actorId, String year, MovieCursor after, int limit, int offset) throws SQLException {
+        MovieCatalog c = catalog;
+        ActorGraph g = graph;
+        List<Map<String, Object>> rows = null;
+        if (c != null && actorId.isBlank()) {
+            rows = c.movies(genre, year, after, limit, offset);
+        } else if (g != null && actorId.startsWith("nm")) {
+            rows = g.movies(actorId, genre, year, after, limit, offset);
+        }
+        if (rows != null) {
+            served.increment();
+            return rows;
+        }
+        passedThrough.increment();
+        return delegate.movies(genre, actorId, year, after, limit, offset);
+    }
+
+    @Override
+    public Map<String, Object> movie(String id) throws SQLException {
+        return delegate.movie(id);
+    }
+
+    @Override
+    public List<Map<String, Object>> searchActors(String query, int limit) throws SQLException {
+        ActorNameIndex n = names;
+        List<Map<String, Object>> rows = n == null ? null : n.search(query, limit);
+        if (rows != null) {
+            served.increment();
+            return rows;
+        }
+        passedThrough.increment();
+        return delegate.searchActors(query, limit);
+    }
+
+    @Override
+    public Map<String, Object> actor(String id) throws SQLException {
+        ActorGraph g = graph;
+        Map<String, Object> actor = g == null ? null : g.actor(id);
+        if (actor != null) {
+            served.increment();
+            return actor;
+        }
+        passedThrough.increment();
+        return delegate.actor(id);
+    }
+
+    @Override
+    public List<Map<String, Object>> moviesById(List<String> ids) throws SQLException {
+        return delegate.moviesById(ids);
+    }
+
+    @Override
+    public List<Map<String, Object>> actorsById(List<String> ids) throws SQLException {
+        ActorGraph g = graph;
+        Map<String, Map<String, Object>> byId = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> a = g == null ? null : g.actor(id);
+            if (a != null) byId.put(id, a);
+            else misses.add(id);
+        }
+        // Whoever the graph does not know goes to the wrapped repository as one smaller batch
+        if (!misses.isEmpty()) {
+            for (Map<String, Object> a : delegate.actorsById(misses)) byId.put((String) a.get("id"), a);
+        }
+        if (misses.isEmpty()) served.increment();
+        else passedThrough.increment();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> a = byId.get(id);
+            if (a != null) out.add(a);
+        }
+        return out;
+    }
+
+    @Override
+    public List<Map<String, Object>> coStars(String id, int limit) throws SQLException {
+        ActorGraph g = graph;
+        List<Map<String, Object>> rows = g == null ? null : g.coStars(id, limit);
+        if (rows != null) {
+            served.increment();
+            return rows;
+        }
+        passedThrough.increment();
+        return delegate.coStars(id, limit);
+    }
+
+    @Override
+    public void scanMovies(MovieSink sink) throws SQLException {
+        delegate.scanMovies(sink);
+    }
+
+    @Override
+    public void scanCredits(CreditSink sink) throws SQLException {
+        delegate.scanCredits(sink);
+    }
+
+    @Override
+    public void scanPeople(PersonSink sink) throws SQLException {
+        delegate.scanPeople(sink);
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        MovieCatalog c = catalog;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("catalogMovies", c == null ? 0 : c.size);
+        m.put("catalogBytes", c == null ? 0 : c.memoryBytes());
+        m.put("catalogBuildMs", catalogBuildMs);
+        ActorGraph g = graph;
+        m.put("graphActors", g == null ? 0 : g.actors());
+        m.put("graphCredits", g == null ? 0 : g.credits());
+        m.put("graphBytes", g == null ? 0 : g.memoryBytes());
+        m.put("graphBuildMs", graphBuildMs);
+        ActorNameIndex n = names;
+        m.put("nameIndexNames", n == null ? 0 : n.names());
+        m.put("nameIndexBytes", n == null ? 0 : n.memoryBytes());
+        m.put("nameIndexBuildMs", namesBuildMs);
+        m.put("served", served.sum());
+        m.put("passedThrough", passedThrough.sum());
+        if (lastError != null) m.put("lastError", lastError);
+        return m;
+    }
+}
@@ -0,0 +1,340 @@
+package com.imdb.suggestor;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Postgres-backed repository. Every statement is a registered {@link QueryTemplate}.
+ * Statements read the typed, indexed copy in schema "suggest" that
+ * db-init/04-derived-schema.sql builds from the imported tables, or
+ * {@link DerivedSchema} in the background when it is missing. Ids are stored as
+ * their number and printed back as tt/nm ids, and every value comes back as the
+ * text the import stored.
+ */
+class JdbcMovieRepository implements MovieRepository {
+    private static final String[] MOVIE_KEYS = {"id", "title", "year", "genres", "rating", "votes"};
+    private static final String[] PERSON_KEYS = {"id", "name", "birthYear"};
+    private static final String MOVIE_COLUMNS = "suggest.tconst(t.id) as id, t.primarytitle as title, t.startyear::text as year, " +
+            "array_to_string(t.genres, ',') as genres, t.rating::text as rating, t.votes::text as votes";
+    private static final String PERSON_COLUMNS = "suggest.nconst(p.id) as id, p.primaryname as name, p.birthyear::text as birthYear";
+
+    // suggest.actor is the newest table, so its presence means the schema is current
+    private static final QueryTemplate SCHEMA = QueryTemplate.register("schema",
+            "select to_regclass('suggest.actor') is not null as ready",
+            "ready");
+    private static final QueryTemplate GENRES = QueryTemplate.register("genres",
+            "select distinct trim(name) as genre from suggest.genre where trim(name) <> '' order by genre asc",
+            "genre");
+    private static final QueryTemplate MOVIE = QueryTemplate.register("movie",
+            "select " + MOVIE_COLUMNS + " from suggest.title t where t.id = ?",
+            MOVIE_KEYS);
+    private static final QueryTemplate MOVIE_CAST = QueryTemplate.register("movie_cast",
+            "select suggest.nconst(p.id) as id, p.primaryname as name, a.category as category " +
+            "from suggest.acting a join suggest.person p on p.id = a.person_id " +
+            "where a.title_id = ? order by p.primaryname asc",
+            "id", "name", "category");
+    // Actor search answers like ActorNameIndex: folded names, substring matches from three UTF-8 bytes
+    // up and word-prefix matches below that, most popular first
+    private static final QueryTemplate ACTOR_SEARCH = QueryTemplate.register("actor_search",
+            "select " + PERSON_COLUMNS + " " +
+            "from suggest.actor p " +
+            "where p.folded like ? " +
+            "order by p.total_votes desc, p.film_count desc, p.id " +
+            "limit ?",
+            PERSON_KEYS);
+    private static final QueryTemplate ACTOR_SEARCH_PREFIX = QueryTemplate.register("actor_search_prefix",
+            "select " + PERSON_COLUMNS + " " +
+            "from suggest.actor p " +
+            "where p.folded ~ ? " +
+            "order by p.total_votes desc, p.film_count desc, p.id " +
+            "limit ?",
+            PERSON_KEYS);
+    private static final QueryTemplate ACTOR = QueryTemplate.register("actor",
+            "select " + PERSON_COLUMNS + " from suggest.person p where p.id = ?",
+            PERSON_KEYS);
+    private static final QueryTemplate ACTOR_FILMS = QueryTemplate.register("actor_movies",
+            "select suggest.tconst(t.id) as id, t.primarytitle as title, t.startyear::text as year, t.rating::text as rating, t.votes::text as votes, t.score as score " +
+            "from suggest.acting a " +
+            " join suggest.title t on t.id = a.title_id and t.titletype = 'movie' " +
+            "where a.person_id = ? " +
+            "order by t.score desc nulls last, t.rating desc nulls last, t.votes desc nulls last, t.id " +
+            "limit 10",
+            "id", "title", "year", "rating", "votes", "score");
+
+    // Batch lookups bind every id as one integer[] so a whole batch is a single statement. The first column
+    // says which movie or actor a row belongs to and is dropped when the rows are grouped.
+    private static final QueryTemplate MOVIE_BATCH = QueryTemplate.register("movie_batch",
+            "select " + MOVIE_COLUMNS + " from suggest.title t where t.id = any(?)",
+            MOVIE_KEYS);
+    private static final QueryTemplate MOVIE_CAST_BATCH = QueryTemplate.register("movie_cast_batch",
+            "select suggest.tconst(a.title_id) as movieId, suggest.nconst(p.id) as id, p.primaryname as name, a.category as category " +
+            "from suggest.acting a join suggest.person p on p.id = a.person_id " +
+            "where a.title_id = any(?) order by p.primaryname asc",
+            "movieId", "id", "name", "category");
+    private static final QueryTemplate ACTOR_BATCH = QueryTemplate.register("actor_batch",
+            "select " + PERSON_COLUMNS + " from suggest.person p where p.id = any(?)",
+            PERSON_KEYS);
+    private static final QueryTemplate ACTOR_FILMS_BATCH = QueryTemplate.register("actor_movies_batch",
+            "select suggest.nconst(person_id) as actorId, suggest.tconst(id) as id, title, year, rating, votes, score from (" +
+            " select a.person_id, t.id, t.primarytitle as title, t.startyear::text as year, t.rating::text as rating, t.votes::text as votes, t.score, " +
+            "  row_number() over (partition by a.person_id order by t.score desc nulls last, t.rating desc nulls last, t.votes desc nulls last, t.id) as n " +
+            " from suggest.acting a " +
+            "  join suggest.title t on t.id = a.title_id and t.titletype = 'movie' " +
+            " where a.person_id = any(?)" +
+            ") x where n <= 10 order by person_id, n",
+            "actorId", "id", "title", "year", "rating", "votes", "score");
+
+    private static final QueryTemplate COSTARS = QueryTemplate.register("costars",
+            "select suggest.nconst(p.id) as id, p.primaryname as name, count(distinct a2.title_id) as sharedFilms " +
+            "from suggest.acting a1 " +
+            " join suggest.title t on t.id = a1.title_id and t.titletype = 'movie' " +
+            " join suggest.acting a2 on a2.title_id = a1.title_id and a2.person_id <> a1.person_id " +
+            " join suggest.person p on p.id = a2.person_id " +
+            "where a1.person_id = ? " +
+            "group by p.id, p.primaryname " +
+            "order by sharedFilms desc, p.id " +
+            "limit ?",
+            "id", "name", "sharedFilms");
+    private static final QueryTemplate CREDIT_SCAN = QueryTemplate.register("credit_scan",
+            "select suggest.nconst(a.person_id), suggest.tconst(a.title_id) from suggest.acting a " +
+            "join suggest.title t on t.id = a.title_id and t.titletype = 'movie'",
+            "personId", "titleId");
+    private static final QueryTemplate PERSON_SCAN = QueryTemplate.register("person_scan",
+            "select " + PERSON_COLUMNS + " from suggest.person p",
+            PERSON_KEYS);
+    private static final QueryTemplate MOVIE_SCAN = QueryTemplate.register("movie_scan",
+            "select " + MOVIE_COLUMNS + " from suggest.title t where t.titletype = 'movie'",
+            MOVIE_KEYS);
+
+    // /api/movies has one shape per way of filtering by actor. Genre, year and the cursor are always
+    // bound, with null meaning "any", so every filter combination reuses one of three statements.
+    // A plain genre fragment matches the genres whose name contains it, so the genres GIN index
+    // applies; fragments with a comma or LIKE wildcards match the joined text as before.
+    // The sort and the cursor use the same expressions as the title_*_rank indexes: (rating, votes)
+    // negated with unrated as -1, then id, compared as one row value.
+    // The actor filter is a semi-join on acting credits, so each movie appears once.
+    // Because of the null binds these three are planned for the actual values on every call.
+    private static final QueryTemplate MOVIES = moviesShape("movies", "");
+    private static final QueryTemplate MOVIES_BY_ACTOR_ID = moviesShape("movies_by_actor_id",
+            "  and exists (select 1 from suggest.acting a where a.title_id = t.id and a.person_id = ?)\n");
+    private static final QueryTemplate MOVIES_BY_ACTOR_NAME = moviesShape("movies_by_actor_name",
+            "  and exists (select 1 from suggest.acting a join suggest.person p on p.id = a.person_id\n" +
+            "              where a.title_id = t.id and p.primaryname ILIKE ?)\n");
+
+    private static QueryTemplate moviesShape(String name, String actorFilter) {
+        return QueryTemplate.registerCustomPlan(name,
+                "select " + MOVIE_COLUMNS + "\n" +
+                "from suggest.title t\n" +
+                "where t.titletype = 'movie'\n" +
+                actorFilter +
+                "  and (?::text is null or t.genres && (select array_agg(g.name) from suggest.genre g where g.name ILIKE ?))\n" +
+                "  and (?::text is null or array_to_string(t.genres, ',') ILIKE ?)\n" +
+                "  and (?::smallint is null or t.startyear = ?)\n" +
+                "  and (?::integer is null or (-coalesce(t.rating, -1), -coalesce(t.votes, -1), t.id) > (?::numeric, ?::integer, ?::integer))\n" +
+                "order by -coalesce(t.rating, -1), -coalesce(t.votes, -1), t.id\n" +
+                "limit ? offset ?",
+                MOVIE_KEYS);
+    }
+
+    JdbcMovieRepository() throws SQLException {
+        boolean ready;
+        try (Connection c = Db.getConnection(Db.Workload.METADATA)) {
+            ready = Boolean.TRUE.equals(SCHEMA.query(c).get(0).get("ready"));
+        }
+        if (ready) DerivedSchema.ready();
+        else DerivedSchema.buildInBackground();
+    }
+
+    /** A pooled connection, once schema suggest is there to query. */
+    private static Connection connect(Db.Workload w) throws SQLException {
+        DerivedSchema.check();
+        return Db.getConnection(w);
+    }
+
+    @Override
+    public void whenReady(Runnable callback) {
+        DerivedSchema.whenReady(callback);
+    }
+
+    @Override
+    public List<String> genres() throws SQLException {
+        List<String> out = new ArrayList<>();
+        try (Connection c = connect(Db.Workload.METADATA)) {
+            for (Map<String, Object> row : GENRES.query(c)) out.add((String) row.get("genre"));
+        }
+        return out;
+    }
+
+    @Override
+    public List<Map<String, Object>> movies(String genre, String actorId, String year, MovieCursor after, int limit, int offset) throws SQLException {
+        boolean plainGenre = !genre.isBlank() && genre.chars().noneMatch(ch -> ch == ',' || ch == '%' || ch == '_' || ch == '\\');
+        String genreNames = plainGenre ? "%" + genre + "%" : null;
+        String genrePattern = genre.isBlank() || plainGenre ? null : "%" + genre + "%";
+        Short yearParam = null;
+        if (!year.isBlank()) {
+            // Stored years print without leading zeros or signs, so any other text matches nothing
+            yearParam = MovieCatalog.parseYear(year);
+            if (yearParam <= 0) return new ArrayList<>();
+        }
+        Integer afterId = after == null ? null : after.idKey();
+        BigDecimal afterRating = after == null ? null : after.ratingKey().negate();
+        BigDecimal afterVotes = after == null ? null : after.votesKey().negate();
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            if (actorId.isBlank()) {
+                return MOVIES.query(c, genreNames, genreNames, genrePattern, genrePattern, yearParam, yearParam,
+                        afterId, afterRating, afterVotes, afterId, limit, offset);
+            }
+            // Check if actorId is an nconst (starts with nm) or a name
+            if (actorId.startsWith("nm")) {
+                int person = MovieCatalog.encodeId("nm", actorId);
+                if (person < 0) return new ArrayList<>();
+                return MOVIES_BY_ACTOR_ID.query(c, person, genreNames, genreNames, genrePattern, genrePattern, yearParam, yearParam,
+                        afterId, afterRating, afterVotes, afterId, limit, offset);
+            }
+            return MOVIES_BY_ACTOR_NAME.query(c, "%" + actorId + "%", genreNames, genreNames, genrePattern, genrePattern, yearParam, yearParam,
+                    afterId, afterRating, afterVotes, afterId, limit, offset);
+        }
+    }
+
+    @Override
+    public void scanMovies(MovieSink sink) throws SQLException {
+        try (Connection c = connect(Db.Workload.METADATA)) {
+            MOVIE_SCAN.forEach(c, 10_000, rs -> sink.accept(rs.getString(1), rs.getString(2), rs.getString(3),
+                    rs.getString(4), rs.getString(5), rs.getString(6)));
+        }
+    }
+
+    @Override
+    public void scanCredits(CreditSink sink) throws SQLException {
+        try (Connection c = connect(Db.Workload.METADATA)) {
+            CREDIT_SCAN.forEach(c, 50_000, rs -> sink.accept(rs.getString(1), rs.getString(2)));
+        }
+    }
+
+    @Override
+    public void scanPeople(PersonSink sink) throws SQLException {
+        try (Connection c = connect(Db.Workload.METADATA)) {
+            PERSON_SCAN.forEach(c, 50_000, rs -> sink.accept(rs.getString(1), rs.getString(2), rs.getString(3)));
+        }
+    }
+
+    @Override
+    public Map<String, Object> movie(String id) throws SQLException {
+        int key = MovieCatalog.encodeId("tt", id);
+        if (key < 0) return null;
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            List<Map<String, Object>> rows = MOVIE.query(c, key);
+            if (rows.isEmpty()) return null;
+            Map<String, Object> movie = rows.get(0);
+            movie.put("actors", MOVIE_CAST.query(c, key));
+            return movie;
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> moviesById(List<String> ids) throws SQLException {
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            Array keys = c.createArrayOf("integer", encode("tt", ids));
+            Map<String, Map<String, Object>> byId = new HashMap<>();
+            for (Map<String, Object> m : MOVIE_BATCH.query(c, keys)) {
+                m.put("actors", new ArrayList<Map<String, Object>>());
+                byId.put((String) m.get("id"), m);
+            }
+            if (!byId.isEmpty()) group(byId, "actors", MOVIE_CAST_BATCH.query(c, keys));
+            return inOrder(ids, byId);
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> actorsById(List<String> ids) throws SQLException {
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            Array keys = c.createArrayOf("integer", encode("nm", ids));
+            Map<String, Map<String, Object>> byId = new HashMap<>();
+            for (Map<String, Object> m : ACTOR_BATCH.query(c, keys)) {
+                m.put("topFilms", new ArrayList<Map<String, Object>>());
+                byId.put((String) m.get("id"), m);
+            }
+            if (!byId.isEmpty()) group(byId, "topFilms", ACTOR_FILMS_BATCH.query(c, keys));
+            return inOrder(ids, byId);
+        }
+    }
+
+    /** Appends each child row to the list under key of the parent named by its first column, which is removed. */
+    @SuppressWarnings("unchecked")
+    private static void group(Map<String, Map<String, Object>> parents, String key, List<Map<String, Object>> children) {
+        for (Map<String, Object> child : children) {
+            Map<String, Object> parent = parents.get((String) child.remove(child.keySet().iterator().next()));
+            if (parent != null) ((List<Map<String, Object>>) parent.get(key)).add(child);
+        }
+    }
+
+    /** The numbers of the ids that are well-formed; the rest cannot exist. */
+    private static Integer[] encode(String prefix, List<String> ids) {
+        List<Integer> out = new ArrayList<>();
+        for (String id : ids) {
+            int key = MovieCatalog.encodeId(prefix, id);
+            if (key >= 0) out.add(key);
+        }
+        return out.toArray(new Integer[0]);
+    }
+
+    private static List<Map<String, Object>> inOrder(List<String> ids, Map<String, Map<String, Object>> byId) {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> m = byId.get(id);
+            if (m != null) out.add(m);
+        }
+        return out;
+    }
+
+    @Override
+    public List<Map<String, Object>> searchActors(String query, int limit) throws SQLException {
+        String q = ActorNameIndex.fold(query);
+        if (q.isEmpty() || limit == 0) return new ArrayList<>();
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            if (q.getBytes(StandardCharsets.UTF_8).length >= 3) {
+                return ACTOR_SEARCH.query(c, "%" + q.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%", limit);
+            }
+            return ACTOR_SEARCH_PREFIX.query(c, wordPrefixPattern(q), limit);
+        }
+    }
+
+    /** A regex for q at the start of the name or after one of ActorNameIndex's word separators. */
+    static String wordPrefixPattern(String q) {
+        StringBuilder p = new StringBuilder("(^|[ .'-])");
+        q.codePoints().forEach(cp -> {
+            if (!Character.isLetterOrDigit(cp)) p.append('\\');
+            p.appendCodePoint(cp);
+        });
+        return p.toString();
+    }
+
+    @Override
+    public Map<String, Object> actor(String id) throws SQLException {
+        int key = MovieCatalog.encodeId("nm", id);
+        if (key < 0) return null;
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            List<Map<String, Object>> rows = ACTOR.query(c, key);
+            if (rows.isEmpty()) return null;
+            Map<String, Object> actor = rows.get(0);
+            actor.put("topFilms", ACTOR_FILMS.query(c, key));
+            return actor;
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> coStars(String id, int limit) throws SQLException {
+        int key = MovieCatalog.encodeId("nm", id);
+        if (key < 0) return new ArrayList<>();
+        try (Connection c = connect(Db.Workload.LOOKUP)) {
+            return COSTARS.query(c, key, limit);
+        }
+    }
+}
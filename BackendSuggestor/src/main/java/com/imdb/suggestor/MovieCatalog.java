@@ -0,0 +1,448 @@
+package com.imdb.suggestor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Every movie held column by column in primitive arrays, rows sorted by
+ * tconst, plus the row order of the SQL's "rating desc, votes desc" sort,
+ * overall and per year. A genre/year page is a walk down that order that
+ * stops once the page is full. Values are only accepted if they print back to the stored text, so
+ * answers match the SQL byte for byte; anything else fails the build and
+ * the Suggestor keeps using SQL.
+ */
+final class MovieCatalog {
+    final int size;
+    // tconst without "tt"; rows are sorted by it
+    final int[] ids;
+    // 0 where startyear is \N
+    private final short[] years;
+    // Bit i set when the movie has genreNames[i]
+    private final long[] genreMasks;
+    // Index into genreTexts of the stored genres text, which the mask alone cannot restore
+    private final short[] genreCombos;
+    // NaN where unrated
+    private final float[] ratings;
+    // -1 where unrated
+    private final int[] votes;
+    // UTF-8 titles, row r at titleBytes[titleOffsets[r] .. titleOffsets[r + 1])
+    private final int[] titleOffsets;
+    private final byte[] titleBytes;
+    private final boolean[] titleNull;
+    // Rows by rating desc, votes desc, nulls last, then tconst, and each row's position in that order
+    final int[] rank;
+    final int[] rankPos;
+    // Rows of each year in rank order: year y's rows are byYear[yearOffsets[y - firstYear] .. yearOffsets[y - firstYear + 1])
+    private final short firstYear;
+    private final int[] yearOffsets;
+    private final int[] byYear;
+    private final String[] genreNames;
+    // Each distinct genres text, e.g. "Crime,Drama"; null for \N
+    private final String[] genreTexts;
+
+    private MovieCatalog(Builder b, int[] order) {
+        size = b.n;
+        ids = new int[size];
+        years = new short[size];
+        genreMasks = new long[size];
+        genreCombos = new short[size];
+        ratings = new float[size];
+        votes = new int[size];
+        titleNull = new boolean[size];
+        titleOffsets = new int[size + 1];
+        int bytes = 0;
+        for (int r = 0; r < size; r++) {
+            byte[] t = b.titles.get(order[r]);
+            bytes += t == null ? 0 : t.length;
+        }
+        titleBytes = new byte[bytes];
+        int at = 0;
+        for (int r = 0; r < size; r++) {
+            int src = order[r];
+            ids[r] = b.ids[src];
+            years[r] = b.years[src];
+            genreMasks[r] = b.genreMasks[src];
+            genreCombos[r] = b.genreCombos[src];
+            ratings[r] = b.ratings[src];
+            votes[r] = b.votes[src];
+            byte[] t = b.titles.get(src);
+            titleNull[r] = t == null;
+            titleOffsets[r] = at;
+            if (t != null) {
+                System.arraycopy(t, 0, titleBytes, at, t.length);
+                at += t.length;
+            }
+        }
+        titleOffsets[size] = at;
+        genreNames = b.genreNames.toArray(new String[0]);
+        genreTexts = b.genreTexts.toArray(new String[0]);
+
+        Integer[] byRank = new Integer[size];
+        for (int r = 0; r < size; r++) byRank[r] = r;
+        Arrays.sort(byRank, (x, y) -> {
+            int c = compareDesc(ratings[x], ratings[y]);
+            if (c != 0) return c;
+            c = Integer.compare(votes[y], votes[x]);
+            return c != 0 ? c : Integer.compare(ids[x], ids[y]);
+        });
+        rank = new int[size];
+        rankPos = new int[size];
+        for (int i = 0; i < size; i++) {
+            rank[i] = byRank[i];
+            rankPos[byRank[i]] = i;
+        }
+
+        short lo = Short.MAX_VALUE, hi = 0;
+        for (int r = 0; r < size; r++) {
+            if (years[r] == 0) continue;
+            lo = (short) Math.min(lo, years[r]);
+            hi = (short) Math.max(hi, years[r]);
+        }
+        firstYear = hi == 0 ? 1 : lo;
+        int span = hi == 0 ? 0 : hi - lo + 1;
+        yearOffsets = new int[span + 1];
+        for (int r = 0; r < size; r++) {
+            if (years[r] != 0) yearOffsets[years[r] - firstYear + 1]++;
+        }
+        for (int i = 0; i < span; i++) yearOffsets[i + 1] += yearOffsets[i];
+        byYear = new int[yearOffsets[span]];
+        int[] fill = Arrays.copyOf(yearOffsets, span);
+        // Walking rank order keeps each year's slice in rank order
+        for (int i = 0; i < size; i++) {
+            int r = rank[i];
+            if (years[r] != 0) byYear[fill[years[r] - firstYear]++] = r;
+        }
+    }
+
+    private static int compareDesc(float a, float b) {
+        boolean na = Float.isNaN(a), nb = Float.isNaN(b);
+        if (na || nb) return na == nb ? 0 : na ? 1 : -1;
+        return Float.compare(b, a);
+    }
+
+    /**
+     * A page of movies matching genre and year (blank for any) after the cursor, if any, or
+     * null when the filter needs LIKE semantics or the cursor holds values the catalog does not model.
+     */
+    List<Map<String, Object>> movies(String genre, String year, MovieCursor after, int limit, int offset) {
+        if (limit < 0 || offset < 0) return null;
+        GenreFilter g = genreFilter(genre);
+        if (g == null) return null;
+        int start = after == null ? 0 : startPos(after);
+        if (start < 0) return null;
+        List<Map<String, Object>> out = new ArrayList<>(Math.min(limit, 256));
+        short y = yearFilter(year);
+        if (g.none || y < 0) return out;
+        // A year narrows the walk to that year's slice, already in rank order
+        int[] order = rank;
+        int from = start, to = size;
+        if (y != 0) {
+            int slot = y - firstYear;
+            if (slot < 0 || slot + 1 >= yearOffsets.length) return out;
+            order = byYear;
+            from = yearOffsets[slot];
+            to = yearOffsets[slot + 1];
+            // The slice is in rank order, so the cursor is a binary search away
+            for (int hi = to; from < hi; ) {
+                int mid = (from + hi) >>> 1;
+                if (rankPos[byYear[mid]] >= start) hi = mid;
+                else from = mid + 1;
+            }
+        }
+        int skip = offset;
+        for (int i = from; i < to && out.size() < limit; i++) {
+            int r = order[i];
+            if (!matches(r, g, y)) continue;
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            out.add(row(r));
+        }
+        return out;
+    }
+
+    /** Like {@link #movies(String, String, MovieCursor, int, int)}, among rows[from..to) only; rows must be distinct. */
+    List<Map<String, Object>> movies(int[] rows, int from, int to, String genre, String year, MovieCursor after, int limit, int offset) {
+        if (limit < 0 || offset < 0) return null;
+        GenreFilter g = genreFilter(genre);
+        if (g == null) return null;
+        int start = after == null ? 0 : startPos(after);
+        if (start < 0) return null;
+        List<Map<String, Object>> out = new ArrayList<>(Math.min(limit, 256));
+        short y = yearFilter(year);
+        if (g.none || y < 0) return out;
+        int[] positions = new int[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (rankPos[rows[i]] >= start && matches(rows[i], g, y)) positions[n++] = rankPos[rows[i]];
+        }
+        // Candidate lists are short, so sorting by rank position beats walking the whole rank
+        Arrays.sort(positions, 0, n);
+        for (int i = offset; i < n && out.size() < limit; i++) out.add(row(rank[positions[i]]));
+        return out;
+    }
+
+    /** The first rank position after the cursor, or -1 if its rating or votes are not values the catalog stores. */
+    private int startPos(MovieCursor after) {
+        float rating = Float.NaN;
+        int v = -1;
+        try {
+            if (after.rating != null) rating = Float.parseFloat(after.rating);
+            if (after.votes != null) v = Integer.parseInt(after.votes);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (after.votes != null && v < 0) return -1;
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int r = rank[mid];
+            int c = compareDesc(ratings[r], rating);
+            if (c == 0) c = Integer.compare(v, votes[r]);
+            if (c == 0) c = Integer.compare(ids[r], after.idKey());
+            if (c > 0) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    private boolean matches(int r, GenreFilter g, short y) {
+        return (y == 0 || years[r] == y) && g.matches(genreMasks[r], genreCombos[r]);
+    }
+
+    /** 0 for any year, -1 when no stored year prints as the text, so nothing can match. */
+    private static short yearFilter(String year) {
+        if (year.isBlank()) return 0;
+        short y = parseYear(year);
+        return y > 0 ? y : -1;
+    }
+
+    /** The row index of a tconst, or -1. */
+    int rowOf(String tconst) {
+        int id = encodeId("tt", tconst);
+        if (id < 0) return -1;
+        int r = Arrays.binarySearch(ids, id);
+        return r < 0 ? -1 : r;
+    }
+
+    Map<String, Object> row(int r) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", id(r));
+        m.put("title", title(r));
+        m.put("year", year(r));
+        m.put("genres", genreTexts[genreCombos[r]]);
+        m.put("rating", rating(r));
+        m.put("votes", votesText(r));
+        return m;
+    }
+
+    String id(int r) {
+        return decodeId("tt", ids[r]);
+    }
+
+    String title(int r) {
+        if (titleNull[r]) return null;
+        return new String(titleBytes, titleOffsets[r], titleOffsets[r + 1] - titleOffsets[r], StandardCharsets.UTF_8);
+    }
+
+    String rating(int r) {
+        return Float.isNaN(ratings[r]) ? null : Float.toString(ratings[r]);
+    }
+
+    String votesText(int r) {
+        return votes[r] < 0 ? null : Integer.toString(votes[r]);
+    }
+
+    String year(int r) {
+        return years[r] == 0 ? null : Short.toString(years[r]);
+    }
+
+    short yearValue(int r) {
+        return years[r];
+    }
+
+    long genreMask(int r) {
+        return genreMasks[r];
+    }
+
+    float ratingValue(int r) {
+        return ratings[r];
+    }
+
+    int votesValue(int r) {
+        return votes[r];
+    }
+
+    long memoryBytes() {
+        return (long) size * (4 + 2 + 8 + 2 + 4 + 4 + 4 + 4 + 4 + 1) + 4L * (byYear.length + yearOffsets.length) + 4 + titleBytes.length;
+    }
+
+    /** Which movies match genres ILIKE '%genre%'. */
+    static final class GenreFilter {
+        final boolean any;
+        final boolean none;
+        final long bits;
+        // Set for fragments spanning a comma, which only the full text can match
+        final boolean[] combos;
+
+        GenreFilter(boolean any, long bits, boolean[] combos) {
+            this.any = any;
+            this.bits = bits;
+            this.combos = combos;
+            boolean anyCombo = false;
+            if (combos != null) for (boolean c : combos) anyCombo |= c;
+            this.none = !any && bits == 0 && !anyCombo;
+        }
+
+        boolean matches(long mask, short combo) {
+            if (any) return true;
+            return combos == null ? (mask & bits) != 0 : combos[combo];
+        }
+    }
+
+    /** The filter for a genre fragment, or null if it contains LIKE wildcards. */
+    GenreFilter genreFilter(String genre) {
+        if (genre.isBlank()) return new GenreFilter(true, 0, null);
+        if (genre.indexOf('%') >= 0 || genre.indexOf('_') >= 0 || genre.indexOf('\\') >= 0) return null;
+        String lc = genre.toLowerCase(Locale.ROOT);
+        if (lc.indexOf(',') < 0) {
+            // Without a comma the fragment lies inside one genre name, so a bit test is exact
+            long bits = 0;
+            for (int i = 0; i < genreNames.length; i++) {
+                if (genreNames[i].toLowerCase(Locale.ROOT).contains(lc)) bits |= 1L << i;
+            }
+            return new GenreFilter(false, bits, null);
+        }
+        boolean[] combos = new boolean[genreTexts.length];
+        for (int i = 0; i < genreTexts.length; i++) {
+            combos[i] = genreTexts[i] != null && genreTexts[i].toLowerCase(Locale.ROOT).contains(lc);
+        }
+        return new GenreFilter(false, 0, combos);
+    }
+
+    static short parseYear(String text) {
+        try {
+            short y = Short.parseShort(text);
+            return y > 0 && Short.toString(y).equals(text) ? y : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** tt0111161 -> 111161, nm0000151 -> 151; IMDb pads to 7 digits. -1 if the id does not have that form. */
+    static int encodeId(String prefix, String id) {
+        if (id == null || id.length() < 9 || !id.startsWith(prefix)) return -1;
+        try {
+            int n = Integer.parseInt(id, prefix.length(), id.length(), 10);
+            return n >= 0 && decodeId(prefix, n).equals(id) ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String decodeId(String prefix, int n) {
+        String digits = Integer.toString(n);
+        return digits.length() >= 7 ? prefix + digits : prefix + "0000000".substring(digits.length()) + digits;
+    }
+
+    /** Collects rows in load order; rejects any value that would not print back as stored. */
+    static final class Builder {
+        private int n;
+        private int[] ids = new int[1 << 16];
+        private short[] years = new short[1 << 16];
+        private long[] genreMasks = new long[1 << 16];
+        private short[] genreCombos = new short[1 << 16];
+        private float[] ratings = new float[1 << 16];
+        private int[] votes = new int[1 << 16];
+        private final List<byte[]> titles = new ArrayList<>();
+        private final List<String> genreNames = new ArrayList<>();
+        private final Map<String, Integer> genreBits = new HashMap<>();
+        private final List<String> genreTexts = new ArrayList<>();
+        private final Map<String, Integer> comboIds = new HashMap<>();
+        private final Map<String, Long> comboMasks = new HashMap<>();
+
+        void add(String id, String title, String year, String genres, String rating, String votesText) {
+            if (n == ids.length) {
+                int cap = n * 2;
+                ids = Arrays.copyOf(ids, cap);
+                years = Arrays.copyOf(years, cap);
+                genreMasks = Arrays.copyOf(genreMasks, cap);
+                genreCombos = Arrays.copyOf(genreCombos, cap);
+                ratings = Arrays.copyOf(ratings, cap);
+                votes = Arrays.copyOf(votes, cap);
+            }
+            int code = encodeId("tt", id);
+            if (code < 0) throw new IllegalStateException("Cannot encode tconst " + id);
+            ids[n] = code;
+            if (year == null) {
+                years[n] = 0;
+            } else {
+                years[n] = parseYear(year);
+                if (years[n] <= 0) throw new IllegalStateException("Cannot encode startyear " + year + " of " + id);
+            }
+            genreCombos[n] = combo(genres);
+            genreMasks[n] = genres == null ? 0 : comboMasks.computeIfAbsent(genres, g -> mask(id, g));
+            if (rating == null) {
+                ratings[n] = Float.NaN;
+            } else {
+                ratings[n] = Float.parseFloat(rating);
+                if (!Float.toString(ratings[n]).equals(rating)) throw new IllegalStateException("Cannot encode rating " + rating + " of " + id);
+            }
+            if (votesText == null) {
+                votes[n] = -1;
+            } else {
+                votes[n] = Integer.parseInt(votesText);
+                if (votes[n] < 0 || !Integer.toString(votes[n]).equals(votesText)) throw new IllegalStateException("Cannot encode votes " + votesText + " of " + id);
+            }
+            if ((rating == null) != (votesText == null)) throw new IllegalStateException("Rating without votes for " + id);
+            titles.add(title == null ? null : title.getBytes(StandardCharsets.UTF_8));
+            n++;
+        }
+
+        private short combo(String genres) {
+            Integer c = comboIds.get(genres);
+            if (c == null) {
+                if (genreTexts.size() > Short.MAX_VALUE) throw new IllegalStateException("Too many distinct genre lists");
+                c = genreTexts.size();
+                genreTexts.add(genres);
+                comboIds.put(genres, c);
+            }
+            return (short) (int) c;
+        }
+
+        private long mask(String id, String genres) {
+            if (genres.isEmpty()) throw new IllegalStateException("Empty genres for " + id);
+            long mask = 0;
+            for (String g : genres.split(",", -1)) {
+                Integer bit = genreBits.get(g);
+                if (bit == null) {
+                    if (genreNames.size() == 64) throw new IllegalStateException("More than 64 genres");
+                    bit = genreNames.size();
+                    genreNames.add(g);
+                    genreBits.put(g, bit);
+                }
+                mask |= 1L << bit;
+            }
+            return mask;
+        }
+
+        MovieCatalog build() {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+            int[] sorted = new int[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = order[i];
+                if (i > 0 && ids[order[i]] == ids[order[i - 1]]) throw new IllegalStateException("Duplicate tconst " + decodeId("tt", ids[order[i]]));
+            }
+            return new MovieCatalog(this, sorted);
+        }
+    }
+}
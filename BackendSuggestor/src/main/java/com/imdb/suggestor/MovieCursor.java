@@ -0,0 +1,65 @@
+package com.imdb.suggestor;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * A position in the /api/movies order (rating desc, votes desc, nulls last,
+ * then tconst), handed to clients as an opaque token. The next page starts
+ * after the position instead of skipping offset rows, so its cost does not
+ * grow with depth and rows do not shift when others are inserted or rerated.
+ */
+final class MovieCursor {
+    private static final String NULL = "\\N";
+
+    // As the API returns them; rating and votes are null for unrated movies
+    final String rating;
+    final String votes;
+    final String id;
+
+    private MovieCursor(String rating, String votes, String id) {
+        this.rating = rating;
+        this.votes = votes;
+        this.id = id;
+    }
+
+    /** The position just after a row of an /api/movies page. */
+    static MovieCursor after(Map<String, Object> row) {
+        return new MovieCursor((String) row.get("rating"), (String) row.get("votes"), (String) row.get("id"));
+    }
+
+    String encode() {
+        String s = (rating == null ? NULL : rating) + "\t" + (votes == null ? NULL : votes) + "\t" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static MovieCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\t", -1);
+            if (parts.length != 3 || parts[2].isEmpty()) throw new IllegalArgumentException();
+            MovieCursor c = new MovieCursor(NULL.equals(parts[0]) ? null : parts[0], NULL.equals(parts[1]) ? null : parts[1], parts[2]);
+            c.ratingKey();
+            c.votesKey();
+            if (c.idKey() < 0) throw new IllegalArgumentException();
+            return c;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    /** The rating as a number, with unrated as -1 so it sorts below every real rating. */
+    BigDecimal ratingKey() {
+        return rating == null ? BigDecimal.ONE.negate() : new BigDecimal(rating);
+    }
+
+    BigDecimal votesKey() {
+        return votes == null ? BigDecimal.ONE.negate() : new BigDecimal(votes);
+    }
+
+    /** The tconst as its number; ties sort by it. */
+    int idKey() {
+        return MovieCatalog.encodeId("tt", id);
+    }
+}
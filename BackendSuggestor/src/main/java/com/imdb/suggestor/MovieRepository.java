@@ -0,0 +1,96 @@
+package com.imdb.suggestor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Data access behind the Suggestor endpoints. Rows are returned in the shape
+ * the API sends them. DATA_SOURCE=memory serves a TSV fixture instead of
+ * Postgres, for load-testing the HTTP and serialization layers.
+ */
+public interface MovieRepository {
+    List<String> genres() throws SQLException;
+
+    /**
+     * Movies ordered by rating then votes, starting after the cursor if one is given. actorId is
+     * an nconst, or otherwise a name fragment, matched against acting credits.
+     */
+    List<Map<String, Object>> movies(String genre, String actorId, String year, MovieCursor after, int limit, int offset) throws SQLException;
+
+    /** The movie with its actors, or null. */
+    Map<String, Object> movie(String id) throws SQLException;
+
+    /** Movies with their actors, like {@link #movie}, in the order of ids; unknown ids are left out. */
+    default List<Map<String, Object>> moviesById(List<String> ids) throws SQLException {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> m = movie(id);
+            if (m != null) out.add(m);
+        }
+        return out;
+    }
+
+    List<Map<String, Object>> searchActors(String query, int limit) throws SQLException;
+
+    /** The person with their top 10 films, or null. */
+    Map<String, Object> actor(String id) throws SQLException;
+
+    /** People with their top films, like {@link #actor}, in the order of ids; unknown ids are left out. */
+    default List<Map<String, Object>> actorsById(List<String> ids) throws SQLException {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> a = actor(id);
+            if (a != null) out.add(a);
+        }
+        return out;
+    }
+
+    /** Actors who share the most movies with this one, with the shared count. */
+    List<Map<String, Object>> coStars(String id, int limit) throws SQLException;
+
+    interface MovieSink {
+        void accept(String id, String title, String year, String genres, String rating, String votes);
+    }
+
+    /** Every movie with its rating, as stored, for building in-memory indexes. */
+    void scanMovies(MovieSink sink) throws SQLException;
+
+    interface CreditSink {
+        void accept(String personId, String titleId);
+    }
+
+    /** Every actor/actress credit in a movie. */
+    void scanCredits(CreditSink sink) throws SQLException;
+
+    interface PersonSink {
+        void accept(String id, String name, String birthYear);
+    }
+
+    /** Every person in name_basics. */
+    void scanPeople(PersonSink sink) throws SQLException;
+
+    /** Runs the callback once the repository can answer queries; right away unless its data is still being prepared. */
+    default void whenReady(Runnable callback) {
+        callback.run();
+    }
+
+    /** Counters for /api/health and /api/metrics. */
+    default Map<String, Object> stats() {
+        return Map.of();
+    }
+
+    static MovieRepository fromEnv() throws Exception {
+        String source = System.getenv().getOrDefault("DATA_SOURCE", "postgres").toLowerCase(Locale.ROOT);
+        MovieRepository base;
+        if ("memory".equals(source)) {
+            base = InMemoryMovieRepository.load(System.getenv("FIXTURE_DIR"));
+        } else {
+            Db.initPool();
+            base = new JdbcMovieRepository();
+        }
+        return IndexedMovieRepository.ENABLED ? IndexedMovieRepository.start(base) : base;
+    }
+}
@@ -0,0 +1,167 @@
+package com.imdb.suggestor;
+
+import com.imdb.common.Metrics;
+import com.imdb.common.SlowQueryLog;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named, fixed SQL string. Since the text never varies, the driver's
+ * per-connection statement cache turns it into a server-side prepared
+ * statement after DB_PREPARE_THRESHOLD executions, so PostgreSQL parses and
+ * plans it once per connection. Calls, rows and latency are tracked per template.
+ * A template registered with {@link #registerCustomPlan} is planned for its
+ * actual parameters on every call instead of reusing a generic plan.
+ */
+final class QueryTemplate {
+    private static final Map<String, QueryTemplate> REGISTRY = new LinkedHashMap<>();
+
+    final String name;
+    final String sql;
+    // Response keys by column position; Postgres folds unquoted aliases like birthYear to lower case
+    private final String[] keys;
+    private final boolean customPlan;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private QueryTemplate(String name, String sql, boolean customPlan, String[] keys) {
+        this.name = name;
+        this.sql = sql;
+        this.customPlan = customPlan;
+        this.keys = keys;
+    }
+
+    static QueryTemplate register(String name, String sql, String... keys) {
+        return register(new QueryTemplate(name, sql, false, keys));
+    }
+
+    /**
+     * For statements whose binds switch filters on and off (null meaning "any"): a generic plan
+     * has to cover every combination and so cannot use the index that the actual values would.
+     */
+    static QueryTemplate registerCustomPlan(String name, String sql, String... keys) {
+        return register(new QueryTemplate(name, sql, true, keys));
+    }
+
+    private static QueryTemplate register(QueryTemplate t) {
+        String name = t.name;
+        synchronized (REGISTRY) {
+            if (REGISTRY.putIfAbsent(name, t) != null) throw new IllegalStateException("Duplicate query template " + name);
+        }
+        return t;
+    }
+
+    /** Runs the template and maps each row onto its keys, recording it in the stats, metrics and slow-query log. */
+    List<Map<String, Object>> query(Connection c, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        List<Map<String, Object>> out = new ArrayList<>();
+        boolean autoCommit = c.getAutoCommit();
+        try {
+            if (customPlan) {
+                // SET LOCAL lasts until the end of the transaction, so the other templates on this connection keep plan_cache_mode
+                c.setAutoCommit(false);
+                try (Statement st = c.createStatement()) {
+                    st.execute("set local plan_cache_mode = force_custom_plan");
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Map<String, Object> m = new LinkedHashMap<>();
+                        for (int i = 0; i < keys.length; i++) m.put(keys[i], rs.getObject(i + 1));
+                        out.add(m);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            if (customPlan) {
+                c.rollback();
+                c.setAutoCommit(autoCommit);
+            }
+        }
+        long took = System.nanoTime() - start;
+        calls.increment();
+        rows.add(out.size());
+        nanos.add(took);
+        maxNanos.accumulateAndGet(took, Math::max);
+        Metrics.recordQuery(name, took);
+        SlowQueryLog.record(name, sql, Arrays.asList(params), took, out.size());
+        return out;
+    }
+
+    interface RowHandler {
+        void accept(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Streams every row to the handler instead of building maps, for bulk loads.
+     * Runs in a transaction so the driver fetches fetchSize rows at a time.
+     */
+    long forEach(Connection c, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        long n = 0;
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setFetchSize(fetchSize);
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(rs);
+                    n++;
+                }
+            }
+        } catch (SQLException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            c.rollback();
+            c.setAutoCommit(autoCommit);
+        }
+        long took = System.nanoTime() - start;
+        calls.increment();
+        rows.add(n);
+        nanos.add(took);
+        maxNanos.accumulateAndGet(took, Math::max);
+        Metrics.recordQuery(name, took);
+        return n;
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        synchronized (REGISTRY) {
+            for (QueryTemplate t : REGISTRY.values()) {
+                long n = t.calls.sum();
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("calls", n);
+                m.put("errors", t.errors.sum());
+                m.put("rows", t.rows.sum());
+                m.put("meanMs", n == 0 ? 0.0 : t.nanos.sum() / 1e6 / n);
+                m.put("maxMs", t.maxNanos.get() / 1e6);
+                out.put(t.name, m);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,157 @@
+package com.imdb.suggestor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the index against a brute-force scan of the same synthetic data. The scan is the
+ * specification the SQL fallback in JdbcMovieRepository follows as well.
+ */
+class ActorNameIndexTest {
+    private static final String[] SYLLABLES = {
+            "an", "ber", "cho", "da", "el", "fé", "gö", "hø", "ian", "jo", "ka", "lu", "mé",
+            "ni", "or", "pa", "qu", "ré", "sa", "tø", "ul", "vi", "wa", "xé", "ya", "zo",
+            "ß", "æ", "ł", "đ", "ı", "œ", "Ö", "É", "Ł", "Ø",
+            "é", "ñ", "रु", "жа",
+    };
+    private static final String[] PREFIXES = {"", "", "", "", "O'", "Mc", "Jean-", "J. ", "  ", "de la "};
+
+    private static final Map<String, String> NAMES = new HashMap<>();
+    private static final Map<String, Integer> VOTES = new HashMap<>();
+    private static final List<String[]> CREDITS = new ArrayList<>();
+    // Distinct movies per actor, as the brute-force scan sees them
+    private static final Map<String, Set<String>> FILMS = new HashMap<>();
+    private static final Map<String, String> FOLDED = new HashMap<>();
+    private static ActorNameIndex index;
+
+    @BeforeAll
+    static void build() {
+        Random rnd = new Random(42);
+        MovieCatalog.Builder movies = new MovieCatalog.Builder();
+        for (int m = 1; m <= 400; m++) {
+            String tconst = MovieCatalog.decodeId("tt", m);
+            boolean rated = rnd.nextInt(5) > 0;
+            int votes = rnd.nextInt(4) == 0 ? 1000 : rnd.nextInt(100_000);
+            movies.add(tconst, "Movie " + m, "1999", "Drama", rated ? "7.5" : null, rated ? Integer.toString(votes) : null);
+            if (rated) VOTES.put(tconst, votes);
+            else VOTES.put(tconst, 0);
+        }
+        MovieCatalog catalog = movies.build();
+
+        for (int p = 1; p <= 3000; p++) {
+            String nconst = MovieCatalog.decodeId("nm", p);
+            int credits = rnd.nextInt(6);
+            for (int i = 0; i < credits; i++) {
+                // Titles above 400 are not movies, so they must not count
+                String tconst = MovieCatalog.decodeId("tt", 1 + rnd.nextInt(480));
+                CREDITS.add(new String[]{nconst, tconst});
+                if (rnd.nextInt(10) == 0) CREDITS.add(new String[]{nconst, tconst});
+            }
+            if (rnd.nextInt(40) == 0) continue;
+            NAMES.put(nconst, rnd.nextInt(50) == 0 ? null : name(rnd));
+        }
+
+        ActorGraph.Builder graph = new ActorGraph.Builder(catalog);
+        for (String[] c : CREDITS) graph.addCredit(c[0], c[1]);
+        graph.endCredits();
+        for (Map.Entry<String, String> e : NAMES.entrySet()) graph.addPerson(e.getKey(), e.getValue(), null);
+        index = ActorNameIndex.build(graph.build());
+
+        for (String[] c : CREDITS) {
+            if (Integer.parseInt(c[1].substring(2)) <= 400) FILMS.computeIfAbsent(c[0], k -> new TreeSet<>()).add(c[1]);
+        }
+        NAMES.forEach((id, name) -> {
+            if (name != null) FOLDED.put(id, ActorNameIndex.fold(name));
+        });
+    }
+
+    private static String name(Random rnd) {
+        StringBuilder b = new StringBuilder(PREFIXES[rnd.nextInt(PREFIXES.length)]);
+        for (int w = 0; w < 1 + rnd.nextInt(3); w++) {
+            if (w > 0) b.append(rnd.nextInt(8) == 0 ? "  " : rnd.nextInt(8) == 0 ? "-" : " ");
+            for (int s = 0; s < 1 + rnd.nextInt(3); s++) {
+                String syl = SYLLABLES[rnd.nextInt(SYLLABLES.length)];
+                b.append(s == 0 ? Character.toUpperCase(syl.charAt(0)) + syl.substring(1) : syl);
+            }
+        }
+        return b.toString();
+    }
+
+    /** Ids of matching actors, ranked by summed votes of their distinct movies, then movie count, then nconst. */
+    private static List<String> bruteForce(String query, int limit) {
+        String q = ActorNameIndex.fold(query);
+        if (q.isEmpty()) return List.of();
+        boolean substring = q.getBytes(StandardCharsets.UTF_8).length >= 3;
+        List<String> matches = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> e : FILMS.entrySet()) {
+            String folded = FOLDED.get(e.getKey());
+            if (folded == null) continue;
+            if (substring ? folded.contains(q) : wordPrefix(folded, q)) matches.add(e.getKey());
+        }
+        Map<String, Long> votes = new HashMap<>();
+        for (String id : matches) votes.put(id, FILMS.get(id).stream().mapToLong(VOTES::get).sum());
+        matches.sort(Comparator.<String>comparingLong(votes::get).reversed()
+                .thenComparing(Comparator.<String>comparingInt(id -> FILMS.get(id).size()).reversed())
+                .thenComparing(Comparator.naturalOrder()));
+        return matches.subList(0, Math.min(limit, matches.size()));
+    }
+
+    private static boolean wordPrefix(String folded, String q) {
+        for (int i = 0; i < folded.length(); i++) {
+            boolean start = i == 0 || " -.'".indexOf(folded.charAt(i - 1)) >= 0;
+            if (start && folded.charAt(i) != ' ' && folded.startsWith(q, i)) return true;
+        }
+        return false;
+    }
+
+    private static List<String> indexed(String query, int limit) {
+        List<String> ids = new ArrayList<>();
+        for (Map<String, Object> row : index.search(query, limit)) ids.add((String) row.get("id"));
+        return ids;
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Set<String> queries = new LinkedHashSet<>(List.of(
+                "", " ", "a", "J", "jo", "JO", "j.", "o'", "-l", "de la", "  ZO  ", "é", "e", "ss", "ae",
+                "ß", "Ł", "l", "o", "ø", "oe", "ж", "жа", "रु",
+                "%", "_", "a%", "zzz", "n\u0303", "ñ"));
+        for (String name : NAMES.values()) {
+            if (name == null) continue;
+            String folded = ActorNameIndex.fold(name);
+            queries.add(name);
+            if (folded.length() > 4) queries.add(folded.substring(1, 4));
+            if (folded.length() > 1) queries.add(folded.substring(0, 2));
+            if (queries.size() > 1500) break;
+        }
+        for (String q : queries) {
+            assertEquals(bruteForce(q, 10), indexed(q, 10), "query '" + q + "'");
+            assertEquals(bruteForce(q, 5000), indexed(q, 5000), "query '" + q + "', no limit");
+        }
+    }
+
+    @Test
+    void foldsAccentsCaseAndWhitespace() {
+        assertEquals("zoe saldana", ActorNameIndex.fold("  Zoë   Saldaña "));
+        // Decomposed input folds the same
+        assertEquals("zoe saldana", ActorNameIndex.fold("Zoe\u0308 Saldan\u0303a"));
+        assertEquals("soren strauss", ActorNameIndex.fold("SØREN Strauß"));
+        assertEquals("lukasz oe ae d i", ActorNameIndex.fold("Łukasz Œ Æ Đ ı"));
+        assertEquals("\u03c3\u03bf\u03c6\u03bf\u03c3", ActorNameIndex.fold("\u03a3\u039f\u03a6\u039f\u03a3"));
+        // Vowel signs of other scripts are part of the letter, not accents
+        assertEquals("रुख", ActorNameIndex.fold("रुख"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.imdb.suggestor;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DerivedSchemaTest {
+    @Test
+    void splitsOnSemicolonsOutsideLiteralsAndComments() {
+        List<String> s = DerivedSchema.statements(
+                "-- leading; comment\n"
+                + "SELECT 'a;b', \"x;y\" FROM t; /* block; */ SELECT E'it\\'s;' ;\n"
+                + "DO $tag$ BEGIN PERFORM 1; END $tag$;\n"
+                + "-- trailing only;\n");
+        assertEquals(List.of(
+                "SELECT 'a;b', \"x;y\" FROM t",
+                "SELECT E'it\\'s;'",
+                "DO $tag$ BEGIN PERFORM 1; END $tag$"), s);
+    }
+
+    @Test
+    void positionalParametersAreNotDollarQuotes() {
+        assertEquals(List.of("SELECT $1 + $2", "SELECT 1"), DerivedSchema.statements("SELECT $1 + $2; SELECT 1;"));
+    }
+
+    @Test
+    void bundledScriptKeepsDoBlocksWholeAndTheSwapInItsTransaction() throws IOException {
+        String script;
+        try (InputStream in = DerivedSchema.class.getResourceAsStream("/db/04-derived-schema.sql")) {
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<String> s = DerivedSchema.statements(script);
+        for (String sql : s) {
+            assertFalse(sql.startsWith("--"), sql);
+            if (sql.startsWith("DO ")) assertTrue(sql.endsWith("$$"), sql);
+        }
+        int begin = s.indexOf("BEGIN");
+        int commit = s.indexOf("COMMIT");
+        assertTrue(begin >= 0 && commit > begin);
+        assertTrue(s.subList(begin, commit).contains("ALTER SCHEMA suggest_next RENAME TO suggest"));
+        assertEquals("DROP SCHEMA IF EXISTS suggest_old CASCADE", s.get(s.size() - 1));
+    }
+}
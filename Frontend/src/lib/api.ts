@@ -25,11 +25,11 @@ export async function getNextProblemId(id: string) {
 }
 
 export async function getSchema(tables: string[]) {
-  if (!tables || tables.length === 0) return { schemas: {} as Record<string, any[]> }
+  if (!tables || tables.length === 0) return { schemas: {} as Record<string, any[]>, estimates: {} as Record<string, number | null> }
   const qs = tables.map(t => encodeURIComponent(t)).join(',')
   const res = await fetch(`${BASE}/api/schema?tables=${qs}`)
   if (!res.ok) throw new Error('Failed to fetch schema')
-  return res.json() as Promise<{ schemas: Record<string, Array<{name:string,type:string,nullable:boolean}>> }>
+  return res.json() as Promise<{ schemas: Record<string, Array<{name:string,type:string,nullable:boolean}>>, estimates?: Record<string, number | null> }>
 }
 
 export async function getSolution(id: string) {
@@ -47,11 +47,36 @@ export async function runQuery(sql: string) {
   return res.json()
 }
 
-export async function grade(problemId: string, sql: string) {
+export type RunPage = { rows: any[]; cursor: string | null; page: number; hasMore: boolean; error?: string }
+
+// Opens a server-side cursor; pass the returned cursor to nextPage until it comes back null
+export async function runQueryPaged(sql: string, pageSize = 100) {
+  const res = await fetch(`${BASE}/api/run`, {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json' },
+    body: JSON.stringify({ sql, pageSize })
+  })
+  return res.json() as Promise<RunPage>
+}
+
+export async function nextPage(cursor: string) {
+  const res = await fetch(`${BASE}/api/run`, {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json' },
+    body: JSON.stringify({ cursor })
+  })
+  return res.json() as Promise<RunPage>
+}
+
+export async function closeCursor(cursor: string) {
+  await fetch(`${BASE}/api/run/cursors/${encodeURIComponent(cursor)}`, { method: 'DELETE' })
+}
+
+export async function grade(problemId: string, sql: string, mode?: 'sample' | 'full') {
   const res = await fetch(`${BASE}/api/grade`, {
     method: 'POST',
     headers: { 'Content-Type': 'application/json' },
-    body: JSON.stringify({ problemId, sql })
+    body: JSON.stringify(mode ? { problemId, sql, mode } : { problemId, sql })
   })
   return res.json()
 }
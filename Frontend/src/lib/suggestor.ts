@@ -21,14 +21,16 @@ export async function getGenres() {
 }
 
 export type MovieLite = { id: string; title: string; year?: number; genres?: string; rating?: number; votes?: number }
-export async function getMovies(params: { genre?: string; actorId?: string; year?: string; limit?: number; offset?: number }) {
+export async function getMovies(params: { genre?: string; actorId?: string; year?: string; limit?: number; offset?: number; cursor?: string }) {
   const q = new URLSearchParams()
   if (params.genre) q.set('genre', params.genre)
   if (params.actorId) q.set('actorId', params.actorId)
   if (params.year) q.set('year', params.year)
   if (params.limit != null) q.set('limit', String(params.limit))
   if (params.offset != null) q.set('offset', String(params.offset))
-  return http<{ items: MovieLite[] }>(`/api/movies?${q.toString()}`)
+  if (params.cursor) q.set('cursor', params.cursor)
+  // next is set when the page was full; pass it back as cursor for the following page
+  return http<{ items: MovieLite[]; next: string | null }>(`/api/movies?${q.toString()}`)
 }
 
 export type MovieDetails = MovieLite & { actors: Array<{ id: string; name: string; category: string }> }
@@ -48,3 +50,8 @@ export type ActorDetails = { id: string; name: string; birthYear?: number; topFi
 export async function getActor(id: string) {
   return http<ActorDetails>(`/api/actors/${encodeURIComponent(id)}`)
 }
+
+export type CoStar = { id: string; name: string; sharedFilms: number }
+export async function getCoStars(id: string, limit: number = 10) {
+  return http<{ actors: CoStar[] }>(`/api/actors/${encodeURIComponent(id)}/costars?limit=${limit}`)
+}
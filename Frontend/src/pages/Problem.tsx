@@ -1,7 +1,7 @@
-import React, { useEffect, useMemo, useState } from 'react'
+import React, { useEffect, useMemo, useRef, useState } from 'react'
 import { Link, useNavigate } from 'react-router-dom'
 import { useParams } from 'react-router-dom'
-import { getProblem, runQuery, grade, getHint, getNextProblemId, getSchema, getSolution } from '../lib/api'
+import { getProblem, runQuery, runQueryPaged, nextPage, closeCursor, grade, getHint, getNextProblemId, getSchema, getSolution } from '../lib/api'
 
 type Problem = {
   id: string
@@ -12,12 +12,21 @@ type Problem = {
   starterSql?: string
 }
 
+// Tables above this estimated size get a warning next to their columns
+const LARGE_TABLE_ROWS = 5_000_000
+// Rows a plain /api/run returns at most (ROW_LIMIT in the backend)
+const PREVIEW_ROWS = 10
+
 export default function ProblemPage() {
   const { id } = useParams()
   const nav = useNavigate()
   const [problem, setProblem] = useState<Problem | null>(null)
   const [sql, setSql] = useState('')
   const [rows, setRows] = useState<any[] | null>(null)
+  const [cursor, setCursor] = useState<string | null>(null)
+  // SQL of a Run that filled the preview, so Load more can reopen it through a cursor
+  const [preview, setPreview] = useState<string | null>(null)
+  const [loadingMore, setLoadingMore] = useState(false)
   const [grading, setGrading] = useState<{correct?: boolean, expectedCount?: number, actualCount?: number} | null>(null)
   const [loading, setLoading] = useState(true)
   const [error, setError] = useState<string | null>(null)
@@ -25,13 +34,26 @@ export default function ProblemPage() {
   const [hintLoading, setHintLoading] = useState(false)
   const [nextId, setNextId] = useState<string | null>(null)
   const [schemas, setSchemas] = useState<Record<string, Array<{name:string,type:string,nullable:boolean}>>>({})
+  const [estimates, setEstimates] = useState<Record<string, number | null>>({})
   const [solutionSql, setSolutionSql] = useState<string | null>(null)
   const [solutionLoading, setSolutionLoading] = useState(false)
+  // Latest open cursor, so it can be closed when the page unmounts
+  const cursorRef = useRef<string | null>(null)
+
+  const trackCursor = (c: string | null) => {
+    cursorRef.current = c
+    setCursor(c)
+  }
+
+  useEffect(() => () => { if (cursorRef.current) closeCursor(cursorRef.current).catch(() => {}) }, [])
 
   useEffect(() => {
     if (!id) return
     setLoading(true)
     setRows(null)
+    if (cursorRef.current) closeCursor(cursorRef.current).catch(() => {})
+    trackCursor(null)
+    setPreview(null)
     setGrading(null)
     setHint(null)
     getProblem(id)
@@ -45,6 +67,7 @@ export default function ProblemPage() {
         try {
           const sch = await getSchema(p.tables)
           setSchemas(sch.schemas || {})
+          setEstimates(sch.estimates || {})
         } catch {}
       })
       .catch(e => setError(String(e)))
@@ -80,9 +103,32 @@ export default function ProblemPage() {
     if (!hasSql) { setError('Please enter a SELECT query.'); return }
     setError(null)
     setRows(null)
+    if (cursorRef.current) closeCursor(cursorRef.current).catch(() => {})
+    trackCursor(null)
+    setPreview(null)
+    // Plain runs are cached and cheap; a cursor pins a connection, so it is only opened on Load more
     const res = await runQuery(sql)
     if (res.error) setError(res.error)
-    else setRows(res.rows)
+    else { setRows(res.rows); if (res.rows.length >= PREVIEW_ROWS) setPreview(sql) }
+  }
+
+  const loadMore = async () => {
+    if (!cursor && !preview) return
+    setLoadingMore(true)
+    try {
+      if (cursor) {
+        const res = await nextPage(cursor)
+        if (res.error) { setError(res.error); trackCursor(null) }
+        else { setRows(prev => [...(prev || []), ...res.rows]); trackCursor(res.cursor) }
+      } else {
+        // The first page repeats the preview rows, so it replaces them
+        const res = await runQueryPaged(preview!)
+        if (res.error) setError(res.error)
+        else { setRows(res.rows); trackCursor(res.cursor); setPreview(null) }
+      }
+    } finally {
+      setLoadingMore(false)
+    }
   }
 
   const doGrade = async () => {
@@ -155,7 +201,7 @@ export default function ProblemPage() {
 
         {/* Output */}
         <div className="space-y-2">
-          <strong className="text-sm">Results {rows ? `(${rows.length})` : ''}</strong>
+          <strong className="text-sm">Results {rows ? `(${rows.length}${cursor || preview ? '+' : ''})` : ''}</strong>
           {!rows && !error && (
             <div className="text-sm text-slate-500 border border-dashed border-slate-300 dark:border-slate-600 rounded-md p-6 text-center">
               Query results will appear here. Click Run to execute the query.
@@ -171,7 +217,7 @@ export default function ProblemPage() {
                   </tr>
                 </thead>
                 <tbody>
-                  {rows.slice(0,200).map((r,i) => (
+                  {rows.map((r,i) => (
                     <tr key={i} className={i % 2 === 0 ? 'bg-white dark:bg-slate-900' : 'bg-slate-50 dark:bg-slate-800'}>
                       {columns.map(c => <td key={c} className="px-3 py-2 border-b border-slate-100 dark:border-slate-800">{String(r[c])}</td>)}
                     </tr>
@@ -180,6 +226,9 @@ export default function ProblemPage() {
               </table>
             </div>
           )}
+          {rows && (cursor || preview) && (
+            <button onClick={loadMore} disabled={loadingMore} className="px-3 py-2 rounded-md bg-slate-200 hover:bg-slate-300 dark:bg-slate-700 dark:hover:bg-slate-600 text-sm">{loadingMore ? 'Loading...' : 'Load more'}</button>
+          )}
         </div>
 
         {grading && (
@@ -210,6 +259,9 @@ export default function ProblemPage() {
             {problem.tables.map(t => (
               <div key={t} className="border border-slate-200 dark:border-slate-700 rounded-md p-3">
                 <div className="text-sm font-medium mb-1">{t}</div>
+                {(estimates[t] ?? 0) >= LARGE_TABLE_ROWS && (
+                  <div className="text-xs text-amber-600 mb-1">~{Math.round((estimates[t] as number) / 1e6)}M rows: filter before joining</div>
+                )}
                 <ul className="text-xs list-disc list-inside max-h-40 overflow-auto">
                   {(schemas[t] || []).map(c => (
                     <li key={c.name} className="truncate">{c.name}</li>
@@ -1,6 +1,6 @@
 import React from 'react'
-import { useEffect, useMemo, useState } from 'react'
-import { getGenres, getMovies, getMovie, getActor, searchActors, type MovieLite, type MovieDetails, type ActorDetails, type ActorSearchResult } from '../lib/suggestor'
+import { useEffect, useMemo, useRef, useState } from 'react'
+import { getGenres, getMovies, getMovie, getActor, getCoStars, searchActors, type MovieLite, type MovieDetails, type ActorDetails, type ActorSearchResult, type CoStar } from '../lib/suggestor'
 
 export default function Suggestor() {
   const [genres, setGenres] = useState<string[]>([])
@@ -13,9 +13,12 @@ export default function Suggestor() {
   const [movies, setMovies] = useState<MovieLite[]>([])
   const [totalCount, setTotalCount] = useState<number>(0)
   const [currentPage, setCurrentPage] = useState<number>(1)
+  // pageCursors.current[p] is the cursor that fetches page p + 1; page 1 needs none
+  const pageCursors = useRef<(string | null)[]>([null])
   const [loading, setLoading] = useState(false)
   const [selectedMovie, setSelectedMovie] = useState<MovieDetails | null>(null)
   const [selectedActor, setSelectedActor] = useState<ActorDetails | null>(null)
+  const [coStars, setCoStars] = useState<CoStar[]>([])
   const [error, setError] = useState<string>('')
 
   useEffect(() => {
@@ -49,8 +52,11 @@ export default function Suggestor() {
       // Ensure page is a valid positive number
       const validPage = Math.max(1, Math.floor(page) || 1)
       const limit = 7
-      const offset = (validPage - 1) * limit
-      const res = await getMovies({ genre, actorId: selectedActorId || actorQuery, year, limit, offset })
+      if (validPage === 1) pageCursors.current = [null]
+      const cursor = pageCursors.current[validPage - 1]
+      if (validPage > 1 && !cursor) return
+      const res = await getMovies({ genre, actorId: selectedActorId || actorQuery, year, limit, cursor: cursor || undefined })
+      pageCursors.current[validPage] = res.next
       setMovies(res.items || [])
       setTotalCount(res.items?.length || 0) // Note: Backend doesn't return total count, so we'll use items length
       setCurrentPage(validPage)
@@ -81,6 +87,8 @@ export default function Suggestor() {
     try {
       const a = await getActor(id)
       setSelectedActor(a)
+      setCoStars([])
+      getCoStars(id).then(r => setCoStars(r.actors || [])).catch(() => {})
     } catch (e) {
       // ignore
     }
@@ -171,7 +179,7 @@ export default function Suggestor() {
                 </span>
                 <button
                   onClick={() => loadMovies(currentPage + 1)}
-                  disabled={movies.length < 7 || loading}
+                  disabled={!pageCursors.current[currentPage] || loading}
                   className="px-3 py-1 text-sm border rounded disabled:opacity-50 hover:bg-slate-50 dark:hover:bg-slate-800"
                 >
                   Next
@@ -229,6 +237,19 @@ export default function Suggestor() {
                   {(!selectedActor.topFilms || selectedActor.topFilms.length === 0) && <div className="p-2 text-sm text-slate-500">No films found.</div>}
                 </div>
               </div>
+              {coStars.length > 0 && (
+                <div className="mt-3">
+                  <div className="font-medium mb-2">Frequent Co-stars</div>
+                  <div className="divide-y border rounded-md">
+                    {coStars.map(c => (
+                      <button key={c.id} onClick={()=>openActor(c.id)} className="w-full text-left p-2 hover:bg-slate-50 dark:hover:bg-slate-800 flex justify-between">
+                        <span>{c.name}</span>
+                        <span className="text-xs text-slate-500">{c.sharedFilms} {c.sharedFilms === 1 ? 'film' : 'films'}</span>
+                      </button>
+                    ))}
+                  </div>
+                </div>
+              )}
             </div>
           )}
         </div>
@@ -18,7 +18,7 @@ fi
 
 # Build Backend image
 echo "Building Backend image..."
-docker build -t ${DOCKER_USERNAME}/imdb-backend:latest ./Backend
+docker build -f Backend/Dockerfile -t ${DOCKER_USERNAME}/imdb-backend:latest .
 if [ $? -eq 0 ]; then
     echo "Backend build successful, pushing to Docker Hub..."
     docker push ${DOCKER_USERNAME}/imdb-backend:latest
@@ -29,7 +29,7 @@ fi
 
 # Build Suggestor image
 echo "Building Suggestor image..."
-docker build -t ${DOCKER_USERNAME}/imdb-suggestor:latest ./BackendSuggestor
+docker build -f BackendSuggestor/Dockerfile -t ${DOCKER_USERNAME}/imdb-suggestor:latest .
 if [ $? -eq 0 ]; then
     echo "Suggestor build successful, pushing to Docker Hub..."
     docker push ${DOCKER_USERNAME}/imdb-suggestor:latest
@@ -0,0 +1,75 @@
+package com.imdb.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body serialized once, with a strong ETag derived from its bytes.
+ * The gzip encoding is compressed on first use and kept; it has its own ETag
+ * since it is a different representation.
+ */
+public final class CachedJson {
+    public final byte[] bytes;
+    public final String etag;
+    private volatile byte[] gzip;
+
+    private CachedJson(byte[] bytes, String etag) {
+        this.bytes = bytes;
+        this.etag = etag;
+    }
+
+    public static CachedJson of(ObjectMapper mapper, Object value) throws JsonProcessingException {
+        return of(mapper.writeValueAsBytes(value));
+    }
+
+    public static CachedJson of(byte[] bytes) {
+        return new CachedJson(bytes, etag(bytes));
+    }
+
+    public static String etag(byte[] bytes) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(h).substring(0, 22) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] gzipped() {
+        byte[] g = gzip;
+        if (g == null) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            g = buf.toByteArray();
+            gzip = g;
+        }
+        return g;
+    }
+
+    public String gzipEtag() {
+        return etag.substring(0, etag.length() - 1) + "-gz\"";
+    }
+
+    /** True when an If-None-Match header value names this body in either encoding. */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.startsWith("W/")) t = t.substring(2);
+            if (t.equals("*") || t.equals(etag) || t.equals(gzipEtag())) return true;
+        }
+        return false;
+    }
+}
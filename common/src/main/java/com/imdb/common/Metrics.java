@@ -0,0 +1,167 @@
+package com.imdb.common;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Request, JDBC, connection-pool and JVM metrics in the Prometheus text
+ * exposition format, served at /api/metrics. Recording is lock-free.
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, Histogram> REQUESTS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> QUERIES = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<Map<String, Object>>> STATS = new ConcurrentHashMap<>();
+    private static volatile Supplier<Map<String, HikariPoolMXBean>> pools = Map::of;
+    private static volatile ToIntFunction<String> poolMax = name -> 0;
+
+    /**
+     * Latencies in power-of-two microsecond buckets, HdrHistogram style with one
+     * bucket per magnitude. Bucket i counts values below 2^(i+7) us, i.e. from
+     * 128us up to about 67s, plus an overflow bucket.
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 20;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+        private final LongAdder sumMicros = new LongAdder();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int i = Math.max(0, 64 - Long.numberOfLeadingZeros(micros) - 7);
+            counts.incrementAndGet(Math.min(i, BUCKETS));
+            sumMicros.add(micros);
+        }
+
+        void render(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += counts.get(i);
+                double le = (1L << (i + 7)) / 1e6;
+                sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += counts.get(BUCKETS);
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum{").append(labels).append("} ").append(sumMicros.sum() / 1e6).append('\n');
+            sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+
+    /** Wraps the API handler so every exchange is timed by route template and status. */
+    public static HttpHandler instrument(HttpHandler handler) {
+        return ex -> {
+            long start = System.nanoTime();
+            try {
+                handler.handle(ex);
+            } finally {
+                int status = ex.getResponseCode();
+                String route = status == 404 ? "unmatched" : route(ex.getRequestURI().getPath());
+                String key = "method=\"" + ex.getRequestMethod() + "\",route=\"" + route + "\",status=\"" + status + "\"";
+                REQUESTS.computeIfAbsent(key, k -> new Histogram()).record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    public static void recordQuery(String template, long nanos) {
+        QUERIES.computeIfAbsent(template, k -> new Histogram()).record(nanos);
+    }
+
+    /** Sets where the connection pool gauges come from: live pool beans by pool name, and each pool's maximum size. */
+    public static void registerPools(Supplier<Map<String, HikariPoolMXBean>> beans, ToIntFunction<String> max) {
+        pools = beans;
+        poolMax = max;
+    }
+
+    /** Exposes the numeric entries of a stats map as gauges named prefix_entry. */
+    public static void registerStats(String prefix, Supplier<Map<String, Object>> stats) {
+        STATS.put(prefix, stats);
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder(8192);
+        sb.append("# HELP http_request_duration_seconds API request latency by route and status\n");
+        sb.append("# TYPE http_request_duration_seconds histogram\n");
+        new TreeMap<>(REQUESTS).forEach((labels, h) -> h.render(sb, "http_request_duration_seconds", labels));
+
+        sb.append("# HELP db_query_duration_seconds JDBC execution time by query template\n");
+        sb.append("# TYPE db_query_duration_seconds histogram\n");
+        new TreeMap<>(QUERIES).forEach((template, h) -> h.render(sb, "db_query_duration_seconds", "query=\"" + escape(template) + "\""));
+
+        Map<String, HikariPoolMXBean> beans = pools.get();
+        poolGauge(sb, beans, "hikari_connections_active", "Connections in use", HikariPoolMXBean::getActiveConnections);
+        poolGauge(sb, beans, "hikari_connections_idle", "Idle connections", HikariPoolMXBean::getIdleConnections);
+        poolGauge(sb, beans, "hikari_connections_pending", "Threads waiting for a connection", HikariPoolMXBean::getThreadsAwaitingConnection);
+        poolGauge(sb, beans, "hikari_connections_total", "Open connections", HikariPoolMXBean::getTotalConnections);
+        if (!beans.isEmpty()) {
+            sb.append("# HELP hikari_connections_max Maximum pool size\n# TYPE hikari_connections_max gauge\n");
+            beans.keySet().forEach(name -> sb.append("hikari_connections_max{pool=\"").append(escape(name)).append("\"} ").append(poolMax.applyAsInt(name)).append('\n'));
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        gauge(sb, "jvm_memory_heap_used_bytes", "Used heap", heap.getUsed());
+        gauge(sb, "jvm_memory_heap_committed_bytes", "Committed heap", heap.getCommitted());
+        gauge(sb, "jvm_memory_heap_max_bytes", "Maximum heap", heap.getMax());
+        gauge(sb, "jvm_threads_live", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        sb.append("# HELP jvm_gc_collections_total GC cycles by collector\n# TYPE jvm_gc_collections_total counter\n");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_collections_total{gc=\"").append(escape(gc.getName())).append("\"} ").append(gc.getCollectionCount()).append('\n');
+        }
+        sb.append("# HELP jvm_gc_collection_seconds_total Time spent in GC by collector\n# TYPE jvm_gc_collection_seconds_total counter\n");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(gc.getName())).append("\"} ").append(gc.getCollectionTime() / 1e3).append('\n');
+        }
+
+        new TreeMap<>(STATS).forEach((prefix, stats) -> {
+            for (Map.Entry<String, Object> e : stats.get().entrySet()) {
+                if (e.getValue() instanceof Number) {
+                    gauge(sb, prefix + "_" + snake(e.getKey()), null, ((Number) e.getValue()).doubleValue());
+                }
+            }
+        });
+        return sb.toString();
+    }
+
+    /** Collapses ids in the path so routes stay low-cardinality: /api/movies/tt0111161 -> /api/movies/{id}. */
+    static String route(String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        for (String seg : path.split("/")) {
+            if (seg.isEmpty()) continue;
+            sb.append('/');
+            boolean id = false;
+            for (int i = 0; i < seg.length() && !id; i++) id = Character.isDigit(seg.charAt(i));
+            sb.append(id ? "{id}" : seg);
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static void poolGauge(StringBuilder sb, Map<String, HikariPoolMXBean> pools, String name, String help, ToIntFunction<HikariPoolMXBean> value) {
+        if (pools.isEmpty()) return;
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        pools.forEach((pool, bean) -> sb.append(name).append("{pool=\"").append(escape(pool)).append("\"} ").append(value.applyAsInt(bean)).append('\n'));
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        if (help != null) sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String snake(String camel) {
+        return camel.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
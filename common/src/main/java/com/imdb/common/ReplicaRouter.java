@@ -0,0 +1,274 @@
+package com.imdb.common;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pools for the primary (DB_HOST, DB_PORT, DB_NAME, DB_USER,
+ * DB_PASSWORD) and the replicas in DB_REPLICAS (host[:port], comma separated,
+ * same database and credentials), one pool per workload on each. Read-only
+ * workloads go to the least loaded healthy replica; a replica that fails its
+ * health check or lags by more than DB_REPLICA_MAX_LAG_SECONDS is skipped, and
+ * the primary serves when no replica is usable. Each service declares its
+ * workloads and adds its own driver settings to every pool.
+ */
+public class ReplicaRouter<W extends Enum<W> & ReplicaRouter.Workload> {
+    private static final long REPLICA_MAX_LAG_SECONDS = Long.parseLong(System.getenv().getOrDefault("DB_REPLICA_MAX_LAG_SECONDS", "30"));
+    private static final long REPLICA_CHECK_SECONDS = Long.parseLong(System.getenv().getOrDefault("DB_REPLICA_CHECK_SECONDS", "5"));
+
+    /** A class of work with its own pool on every server. */
+    public interface Workload {
+        /** Maximum pool size. */
+        int size();
+
+        /** Whether the workload only reads and may run on a replica. */
+        boolean replicaReads();
+
+        default String label() { return ((Enum<?>) this).name().toLowerCase(); }
+    }
+
+    /** Service-specific driver settings, applied to each pool after the shared ones. */
+    public interface PoolSettings<W> {
+        void apply(HikariConfig cfg, W workload);
+    }
+
+    /** One database server and its pools. */
+    private final class Node {
+        final String name;
+        final String jdbcUrl;
+        final Map<W, HikariDataSource> pools;
+        volatile boolean healthy = true;
+        volatile double lagSeconds;
+        volatile String lastError;
+
+        Node(String name, String jdbcUrl) {
+            this.name = name;
+            this.jdbcUrl = jdbcUrl;
+            this.pools = new EnumMap<>(workloads);
+        }
+
+        /** In-use plus waiting connections, as a share of the pool. */
+        double load(W w) {
+            HikariPoolMXBean bean = pools.get(w).getHikariPoolMXBean();
+            if (bean == null) return 0;
+            return (bean.getActiveConnections() + bean.getThreadsAwaitingConnection()) / (double) w.size();
+        }
+    }
+
+    private final Class<W> workloads;
+    private final PoolSettings<W> settings;
+    private final String user;
+    private final String password;
+    private final Node primary;
+    private final List<Node> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** Opens the pools; only the primary has to be reachable. */
+    public ReplicaRouter(Class<W> workloads, PoolSettings<W> settings) {
+        this.workloads = workloads;
+        this.settings = settings;
+        user = envOr("DB_USER", "postgres");
+        password = envOr("DB_PASSWORD", "postgres");
+        primary = new Node("primary", jdbcUrl(envOr("DB_HOST", "localhost") + ":" + envOr("DB_PORT", "5432")));
+        for (W w : workloads.getEnumConstants()) primary.pools.put(w, newPool(primary, w, false));
+
+        int i = 0;
+        for (String r : envOr("DB_REPLICAS", "").split(",")) {
+            if (r.isBlank()) continue;
+            String hostPort = r.trim().contains(":") ? r.trim() : r.trim() + ":5432";
+            Node n = new Node("replica" + (++i), jdbcUrl(hostPort));
+            for (W w : workloads.getEnumConstants()) {
+                if (w.replicaReads()) n.pools.put(w, newPool(n, w, true));
+            }
+            replicas.add(n);
+        }
+        if (!replicas.isEmpty()) {
+            ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-replica-check");
+                t.setDaemon(true);
+                return t;
+            });
+            checker.scheduleWithFixedDelay(this::checkReplicas, 0, REPLICA_CHECK_SECONDS, TimeUnit.SECONDS);
+            System.out.println("Routing reads over " + replicas.size() + " replica(s)");
+        }
+    }
+
+    private static String jdbcUrl(String hostPort) {
+        return "jdbc:postgresql://" + hostPort + "/" + envOr("DB_NAME", "imdb");
+    }
+
+    private HikariDataSource newPool(Node node, W w, boolean replica) {
+        HikariConfig cfg = new HikariConfig();
+        cfg.setPoolName(node.name + "-" + w.label());
+        cfg.setJdbcUrl(node.jdbcUrl);
+        cfg.setUsername(user);
+        cfg.setPassword(password);
+        cfg.setMaximumPoolSize(w.size());
+        cfg.setMinimumIdle(1);
+        cfg.setConnectionTimeout(replica ? 2_000 : 10_000);
+        cfg.setIdleTimeout(60_000);
+        cfg.setMaxLifetime(30 * 60_000);
+        cfg.setConnectionInitSql("SET TIME ZONE 'UTC'");
+        if (replica) {
+            // A replica that is down at startup is just marked unhealthy; only the primary must be reachable
+            cfg.setInitializationFailTimeout(-1);
+            cfg.setReadOnly(true);
+        }
+        cfg.addDataSourceProperty("ssl", "false");
+        cfg.addDataSourceProperty("sslmode", "disable");
+        settings.apply(cfg, w);
+        return new HikariDataSource(cfg);
+    }
+
+    private static String envOr(String k, String def) {
+        String v = System.getenv(k);
+        return (v == null || v.isBlank()) ? def : v;
+    }
+
+    public Connection getConnection(W w) throws SQLException {
+        if (w.replicaReads() && !replicas.isEmpty()) {
+            Node n = leastLoaded(w);
+            if (n != null) {
+                try {
+                    return n.pools.get(w).getConnection();
+                } catch (SQLException e) {
+                    // A saturated pool times out too; that replica is busy, not down, so only this request moves
+                    if (connectionFailure(e)) markDown(n, e.getMessage());
+                }
+            }
+        }
+        return primary.pools.get(w).getConnection();
+    }
+
+    /**
+     * Whether the server could not be reached or refused the session: SQLSTATE class 08, or 57P
+     * (shutting down, starting up). Hikari's pool timeout carries the state of the last failed
+     * connection attempt as its cause, and no state at all when the pool was merely full.
+     */
+    static boolean connectionFailure(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (!(t instanceof SQLException)) continue;
+            String state = ((SQLException) t).getSQLState();
+            if (state != null && (state.startsWith("08") || state.startsWith("57P"))) return true;
+        }
+        return false;
+    }
+
+    /** The healthy replica with the smallest load; ties rotate so idle replicas share the work. */
+    private Node leastLoaded(W w) {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        Node best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            Node n = replicas.get((start + i) % replicas.size());
+            if (!n.healthy) continue;
+            double load = n.load(w);
+            if (load < bestLoad) {
+                best = n;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private void checkReplicas() {
+        for (Node n : replicas) {
+            // Unpooled, so a replica with a saturated pool is not mistaken for a dead one
+            Properties props = new Properties();
+            props.setProperty("user", user);
+            props.setProperty("password", password);
+            props.setProperty("connectTimeout", "2");
+            props.setProperty("socketTimeout", "5");
+            props.setProperty("ApplicationName", "replica-check");
+            try (Connection c = DriverManager.getConnection(n.jdbcUrl, props);
+                 Statement st = c.createStatement();
+                 // Zero when everything received has been replayed, so an idle primary does not read as lag
+                 ResultSet rs = st.executeQuery("select case when pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0 " +
+                         "else coalesce(extract(epoch from now() - pg_last_xact_replay_timestamp()), 0) end")) {
+                rs.next();
+                double lag = rs.getDouble(1);
+                n.lagSeconds = lag;
+                if (lag > REPLICA_MAX_LAG_SECONDS) {
+                    markDown(n, "replication lag " + lag + "s");
+                } else {
+                    if (!n.healthy) System.out.println("Replica " + n.name + " is healthy again");
+                    n.healthy = true;
+                    n.lastError = null;
+                }
+            } catch (SQLException e) {
+                markDown(n, e.getMessage());
+            }
+        }
+    }
+
+    private void markDown(Node n, String reason) {
+        if (n.healthy) System.err.println("Replica " + n.name + " taken out of rotation: " + reason);
+        n.healthy = false;
+        n.lastError = reason;
+    }
+
+    /** Live counters of every pool by pool name, for /api/metrics. */
+    public Map<String, HikariPoolMXBean> poolBeans() {
+        Map<String, HikariPoolMXBean> out = new LinkedHashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(primary);
+        nodes.addAll(replicas);
+        for (Node n : nodes) {
+            n.pools.forEach((w, ds) -> {
+                HikariPoolMXBean bean = ds.getHikariPoolMXBean();
+                if (bean != null) out.put(ds.getPoolName(), bean);
+            });
+        }
+        return out;
+    }
+
+    /** Maximum size of a pool named by {@link #poolBeans}. */
+    public int poolMax(String poolName) {
+        for (W w : workloads.getEnumConstants()) {
+            if (poolName.endsWith("-" + w.label())) return w.size();
+        }
+        return 0;
+    }
+
+    /** Replica health for /api/health. */
+    public List<Map<String, Object>> replicaStats() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Node n : replicas) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", n.name);
+            m.put("url", n.jdbcUrl);
+            m.put("healthy", n.healthy);
+            m.put("lagSeconds", n.lagSeconds);
+            if (n.lastError != null) m.put("lastError", n.lastError);
+            out.add(m);
+        }
+        return out;
+    }
+
+    /** A standalone connection to the primary, for background work that must not take a pool slot. */
+    public Connection newUnpooledConnection(String applicationName) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        props.setProperty("options", "-c TimeZone=UTC");
+        props.setProperty("ApplicationName", applicationName);
+        return DriverManager.getConnection(primary.jdbcUrl, props);
+    }
+}
@@ -0,0 +1,123 @@
+package com.imdb.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses how HTTP exchanges are executed (HTTP_EXECUTOR):
+ * <ul>
+ *   <li>{@code bounded} (default) - fixed worker pool with a bounded queue; overflow gets a 503</li>
+ *   <li>{@code virtual} - one virtual thread per request (Java 21+, falls back to bounded)</li>
+ *   <li>{@code dispatcher} - everything on the HttpServer dispatcher thread (the old behaviour)</li>
+ * </ul>
+ */
+public class RequestExecutor {
+    private static final byte[] BUSY = "{\"error\":\"Server busy, retry shortly\"}".getBytes(StandardCharsets.UTF_8);
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static String mode = "dispatcher";
+    private static ThreadPoolExecutor pool;
+
+    /**
+     * Sets the server's executor and returns the handler to register, wrapped so
+     * in-flight requests are counted. Worker counts default to a multiple of the
+     * DB pool: beyond that, extra threads would only wait on Hikari.
+     */
+    public static HttpHandler configure(HttpServer server, HttpHandler handler, int dbPoolSize) {
+        String requested = System.getenv().getOrDefault("HTTP_EXECUTOR", "bounded").toLowerCase(Locale.ROOT);
+        HttpHandler tracked = ex -> {
+            IN_FLIGHT.incrementAndGet();
+            try {
+                handler.handle(ex);
+            } finally {
+                IN_FLIGHT.decrementAndGet();
+            }
+        };
+        if ("dispatcher".equals(requested)) {
+            mode = "dispatcher";
+            server.setExecutor(null);
+            return tracked;
+        }
+        if ("virtual".equals(requested)) {
+            ExecutorService virtual = virtualThreadExecutor();
+            if (virtual != null) {
+                mode = "virtual";
+                server.setExecutor(virtual);
+                return tracked;
+            }
+            System.err.println("Virtual threads need Java 21+, using a bounded pool instead");
+        }
+        int threads = Integer.parseInt(System.getenv().getOrDefault("HTTP_THREADS", String.valueOf(dbPoolSize * 2)));
+        int queue = Integer.parseInt(System.getenv().getOrDefault("HTTP_QUEUE", String.valueOf(threads * 4)));
+        AtomicInteger seq = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queue)), r -> {
+            Thread t = new Thread(r, "http-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        mode = "bounded";
+        // The dispatcher thread only hands exchanges off, so it can still answer 503 when the queue is full
+        server.setExecutor(null);
+        return ex -> {
+            try {
+                pool.execute(() -> {
+                    try {
+                        tracked.handle(ex);
+                    } catch (IOException | RuntimeException e) {
+                        ex.close();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                REJECTED.increment();
+                rejectBusy(ex);
+            }
+        };
+    }
+
+    public static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("mode", mode);
+        m.put("inFlight", IN_FLIGHT.get());
+        m.put("rejected", REJECTED.sum());
+        if (pool != null) {
+            m.put("threads", pool.getMaximumPoolSize());
+            m.put("activeThreads", pool.getActiveCount());
+            m.put("queued", pool.getQueue().size());
+            m.put("queueCapacity", pool.getQueue().size() + pool.getQueue().remainingCapacity());
+        }
+        return m;
+    }
+
+    private static void rejectBusy(HttpExchange ex) throws IOException {
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        ex.getResponseHeaders().add("Retry-After", "1");
+        ex.sendResponseHeaders(503, BUSY.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(BUSY); }
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
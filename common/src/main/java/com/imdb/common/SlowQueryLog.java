@@ -0,0 +1,200 @@
+package com.imdb.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the last few queries that ran longer than SLOW_QUERY_MS in a ring
+ * buffer, each with an EXPLAIN (ANALYZE, BUFFERS) taken afterwards on a
+ * dedicated connection outside the pool. Served at /api/admin/slow-queries
+ * when ADMIN_TOKEN is set, and also emitted as a JFR event when a recording
+ * is running.
+ */
+public class SlowQueryLog {
+    private static final long THRESHOLD_MS = Long.parseLong(System.getenv().getOrDefault("SLOW_QUERY_MS", "1000"));
+    private static final int ENTRIES = Integer.parseInt(System.getenv().getOrDefault("SLOW_QUERY_ENTRIES", "50"));
+    private static final boolean EXPLAIN = Boolean.parseBoolean(System.getenv().getOrDefault("SLOW_QUERY_EXPLAIN", "true"));
+    private static final int EXPLAIN_TIMEOUT_SECONDS = Integer.parseInt(System.getenv().getOrDefault("SLOW_QUERY_EXPLAIN_TIMEOUT_SECONDS", "30"));
+    // The admin endpoint requires "Authorization: Bearer <token>" and is off without a token
+    private static final String ADMIN_TOKEN = System.getenv().getOrDefault("ADMIN_TOKEN", "");
+
+    private static final AtomicReferenceArray<Entry> RING = new AtomicReferenceArray<>(Math.max(1, ENTRIES));
+    private static final AtomicLong NEXT = new AtomicLong();
+    // One explain at a time; a burst of slow queries drops the extra explains rather than piling up
+    private static final ThreadPoolExecutor EXPLAINER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(4), r -> {
+                Thread t = new Thread(r, "slow-query-explain");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    private static volatile ConnectionSource connections;
+    private static Connection explainConnection;
+
+    /** Opens a connection outside the application's pools. */
+    @FunctionalInterface
+    public interface ConnectionSource {
+        Connection open() throws SQLException;
+    }
+
+    @Name("com.imdb.SlowQuery")
+    @Label("Slow SQL Query")
+    @Category("IMDb")
+    static final class SlowQueryEvent extends Event {
+        @Label("Template") String template;
+        @Label("SQL") String sql;
+        @Label("Parameters") String params;
+        @Label("Duration (ms)") long durationMs;
+        @Label("Rows") int rows;
+    }
+
+    static final class Entry {
+        final long seq;
+        final Instant at;
+        final String template;
+        final String sql;
+        final List<Object> params;
+        final long durationMs;
+        final int rows;
+        volatile String plan;
+
+        Entry(long seq, String template, String sql, List<Object> params, long durationMs, int rows) {
+            this.seq = seq;
+            this.at = Instant.now();
+            this.template = template;
+            this.sql = sql;
+            this.params = params;
+            this.durationMs = durationMs;
+            this.rows = rows;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("at", at.toString());
+            m.put("template", template);
+            m.put("sql", sql);
+            m.put("params", params);
+            m.put("durationMs", durationMs);
+            m.put("rows", rows);
+            m.put("plan", plan);
+            return m;
+        }
+    }
+
+    /** Where EXPLAIN gets its connection; until this is set, slow queries are logged without a plan. */
+    public static void init(ConnectionSource source) {
+        connections = source;
+    }
+
+    public static void record(String template, String sql, List<Object> params, long nanos, int rows) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (ms < THRESHOLD_MS) return;
+        List<Object> copy = params == null ? List.of() : new ArrayList<>(params);
+        long seq = NEXT.getAndIncrement();
+        Entry e = new Entry(seq, template, sql, copy, ms, rows);
+        RING.set((int) (seq % RING.length()), e);
+
+        SlowQueryEvent event = new SlowQueryEvent();
+        if (event.isEnabled()) {
+            event.template = template;
+            event.sql = sql;
+            event.params = String.valueOf(copy);
+            event.durationMs = ms;
+            event.rows = rows;
+            event.commit();
+        }
+        if (EXPLAIN && connections != null) EXPLAINER.execute(() -> e.plan = explain(sql, copy));
+    }
+
+    /** Newest first. */
+    public static List<Map<String, Object>> entries() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        long next = NEXT.get();
+        for (long seq = next - 1; seq >= Math.max(0, next - RING.length()); seq--) {
+            Entry e = RING.get((int) (seq % RING.length()));
+            if (e != null && e.seq == seq) out.add(e.toMap());
+        }
+        return out;
+    }
+
+    public static void clear() {
+        for (int i = 0; i < RING.length(); i++) RING.set(i, null);
+    }
+
+    public static boolean adminEnabled() { return !ADMIN_TOKEN.isEmpty(); }
+
+    public static boolean authorized(String authorizationHeader) {
+        if (!adminEnabled() || authorizationHeader == null) return false;
+        return MessageDigest.isEqual(("Bearer " + ADMIN_TOKEN).getBytes(StandardCharsets.UTF_8),
+                authorizationHeader.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static long thresholdMs() { return THRESHOLD_MS; }
+
+    /**
+     * ANALYZE runs the query again, so it goes through a read-only transaction
+     * with its own timeout on a connection that never competes with requests.
+     */
+    private static String explain(String sql, List<Object> params) {
+        try {
+            Connection c = explainConnection();
+            c.setAutoCommit(false);
+            try {
+                try (Statement st = c.createStatement()) {
+                    st.execute("SET LOCAL statement_timeout = '" + EXPLAIN_TIMEOUT_SECONDS + "s'");
+                    st.execute("SET LOCAL transaction_read_only = on");
+                }
+                try (PreparedStatement ps = c.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+                    int idx = 1;
+                    for (Object p : params) ps.setObject(idx++, p);
+                    StringBuilder plan = new StringBuilder();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) plan.append(rs.getString(1)).append('\n');
+                    }
+                    return plan.toString();
+                }
+            } finally {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+            closeExplainConnection();
+            return "EXPLAIN failed: " + e.getMessage();
+        }
+    }
+
+    private static Connection explainConnection() throws SQLException {
+        if (explainConnection == null || explainConnection.isClosed()) {
+            explainConnection = connections.open();
+        }
+        return explainConnection;
+    }
+
+    private static void closeExplainConnection() {
+        try {
+            if (explainConnection != null) explainConnection.close();
+        } catch (SQLException ignored) {
+            // Reopened on the next explain
+        }
+        explainConnection = null;
+    }
+}
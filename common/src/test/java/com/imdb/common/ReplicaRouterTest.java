@@ -0,0 +1,28 @@
+package com.imdb.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicaRouterTest {
+
+    @Test
+    void saturatedPoolIsNotAConnectionFailure() {
+        // What Hikari throws when every connection is in use and the last attempt to open one succeeded
+        assertFalse(ReplicaRouter.connectionFailure(new SQLTransientConnectionException("Connection is not available, request timed out")));
+        assertFalse(ReplicaRouter.connectionFailure(new SQLException("too many connections", "53300")));
+        assertFalse(ReplicaRouter.connectionFailure(new SQLException("canceling statement", "57014")));
+    }
+
+    @Test
+    void unreachableServerIsAConnectionFailure() {
+        SQLException refused = new SQLException("Connection refused", "08001");
+        assertTrue(ReplicaRouter.connectionFailure(new SQLTransientConnectionException("request timed out", "08001", refused)));
+        assertTrue(ReplicaRouter.connectionFailure(new SQLTransientConnectionException("request timed out", null, refused)));
+        assertTrue(ReplicaRouter.connectionFailure(new SQLException("the database system is starting up", "57P03")));
+    }
+}
@@ -57,3 +57,9 @@ CREATE TABLE IF NOT EXISTS name_basics (
     primaryProfession TEXT,
     knownForTitles TEXT
 );
+
+-- Bumped by the import step; the backends poll it to drop cached results
+CREATE TABLE IF NOT EXISTS dataset_meta (
+    version TEXT NOT NULL,
+    imported_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
@@ -41,4 +41,7 @@ import_table "title.episode.tsv.gz"      "title_episode"
 import_table "title.ratings.tsv.gz"      "title_ratings"
 import_table "name.basics.tsv.gz"        "name_basics"
 
+psql -U "$POSTGRES_USER" -d "$POSTGRES_DB" \
+  -c "INSERT INTO dataset_meta (version) VALUES (to_char(now(), 'YYYYMMDDHH24MISS'));" >/dev/null
+
 echo "🎉 IMDb dataset import complete!"
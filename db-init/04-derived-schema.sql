@@ -0,0 +1,145 @@
+-- Typed, indexed copy of what the Suggestor reads, in schema "suggest". The raw tables
+-- stay as imported, all TEXT, because the practice problems are written against them.
+--
+-- Runs after 02-import.sh when the database is first created. After a re-import, rebuild with
+--   psql -U imdb -d imdb -v ON_ERROR_STOP=1 -f db-init/04-derived-schema.sql
+-- It builds into suggest_next and swaps it in at the end, so the Suggestor keeps
+-- reading the old copy until the new one is complete.
+--
+-- Ids are stored as their number (tt0133093 -> 133093). Values the API returns are
+-- printed back from the typed columns, so the build checks that they all come out
+-- as the imported text and stops otherwise. 02-import.sh copies the files in text
+-- format, which keeps each header line as a row; the id prefix filters those out.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+DROP SCHEMA IF EXISTS suggest_next CASCADE;
+CREATE SCHEMA suggest_next;
+
+-- IMDb pads ids to 7 digits: tt0133093, tt10872600
+CREATE FUNCTION suggest_next.tconst(id integer) RETURNS text LANGUAGE sql IMMUTABLE PARALLEL SAFE
+    AS $$ SELECT 'tt' || CASE WHEN id < 10000000 THEN lpad(id::text, 7, '0') ELSE id::text END $$;
+CREATE FUNCTION suggest_next.nconst(id integer) RETURNS text LANGUAGE sql IMMUTABLE PARALLEL SAFE
+    AS $$ SELECT 'nm' || CASE WHEN id < 10000000 THEN lpad(id::text, 7, '0') ELSE id::text END $$;
+-- ActorNameIndex.fold in SQL: drop combining diacritics, lower-case, spell out o-slash, l-stroke,
+-- d-stroke, dotless i, final sigma, sharp s, ae and oe, and collapse whitespace. Change both together.
+-- lower() goes through ICU so the result does not depend on the database locale; the whitespace
+-- class is Java's Character.isWhitespace.
+CREATE FUNCTION suggest_next.fold(s text) RETURNS text LANGUAGE sql IMMUTABLE PARALLEL SAFE
+    AS $$ SELECT btrim(regexp_replace(
+              replace(replace(replace(translate(
+                  lower(regexp_replace(normalize(s, NFD), '[\u0300-\u036f\u1ab0-\u1aff\u1dc0-\u1dff\u20d0-\u20ff\ufe20-\ufe2f]', '', 'g') COLLATE "und-x-icu"),
+                  U&'\00f8\0142\0111\0131\03c2', U&'oldi\03c3'), U&'\00df', 'ss'), U&'\00e6', 'ae'), U&'\0153', 'oe'),
+              '[\t\n\u000b\f\r\u001c-\u001f \u1680\u2000-\u2006\u2008-\u200a\u2028\u2029\u205f\u3000]+', ' ', 'g'), ' ') $$;
+
+-- Every title with its rating folded in, and score = rating * ln(1 + votes) for ranking an actor's films
+CREATE TABLE suggest_next.title AS
+SELECT substr(tb.tconst, 3)::integer AS id,
+       tb.titletype,
+       tb.primarytitle,
+       tb.startyear::smallint AS startyear,
+       string_to_array(tb.genres, ',') AS genres,
+       tr.averagerating::numeric AS rating,
+       tr.numvotes::integer AS votes,
+       tr.averagerating::numeric * ln(1 + tr.numvotes::numeric) AS score
+FROM title_basics tb
+LEFT JOIN title_ratings tr ON tr.tconst = tb.tconst
+WHERE tb.tconst LIKE 'tt%';
+
+-- Acting credits only; nothing in the Suggestor reads the other categories
+CREATE TABLE suggest_next.acting AS
+SELECT substr(tconst, 3)::integer AS title_id,
+       ordering::smallint AS ordering,
+       substr(nconst, 3)::integer AS person_id,
+       category
+FROM title_principals
+WHERE category IN ('actor', 'actress') AND tconst LIKE 'tt%' AND nconst LIKE 'nm%';
+
+CREATE TABLE suggest_next.person AS
+SELECT substr(nconst, 3)::integer AS id,
+       primaryname,
+       birthyear::smallint AS birthyear
+FROM name_basics
+WHERE nconst LIKE 'nm%';
+
+-- Who actor search can return, as ActorNameIndex ranks them: people with a name and an acting
+-- credit in a movie, by votes summed over their distinct movies, then number of movies, then id
+CREATE TABLE suggest_next.actor AS
+SELECT p.id, p.primaryname, p.birthyear, suggest_next.fold(p.primaryname) AS folded,
+       sum(coalesce(t.votes, 0))::bigint AS total_votes,
+       count(*)::integer AS film_count
+FROM (SELECT DISTINCT person_id, title_id FROM suggest_next.acting) a
+JOIN suggest_next.title t ON t.id = a.title_id AND t.titletype = 'movie'
+JOIN suggest_next.person p ON p.id = a.person_id
+WHERE p.primaryname IS NOT NULL
+GROUP BY p.id, p.primaryname, p.birthyear;
+
+-- Every distinct genre element exactly as stored, so a match here can be looked up in title.genres
+CREATE TABLE suggest_next.genre AS
+SELECT DISTINCT g AS name
+FROM suggest_next.title, unnest(genres) g;
+
+-- min() rather than LIMIT 1: a limit makes the planner expect an early mismatch and pick a
+-- nested loop, which takes hours on a full import when nothing mismatches
+DO $$
+DECLARE
+    bad text;
+BEGIN
+    SELECT min(tb.tconst) INTO bad
+    FROM title_basics tb
+    LEFT JOIN title_ratings tr ON tr.tconst = tb.tconst
+    JOIN suggest_next.title t ON t.id = substr(tb.tconst, 3)::integer
+    WHERE tb.tconst LIKE 'tt%' AND (suggest_next.tconst(t.id) <> tb.tconst
+       OR t.startyear::text IS DISTINCT FROM tb.startyear
+       OR array_to_string(t.genres, ',') IS DISTINCT FROM tb.genres
+       OR t.rating::text IS DISTINCT FROM tr.averagerating
+       OR t.votes::text IS DISTINCT FROM tr.numvotes);
+    IF bad IS NOT NULL THEN
+        RAISE EXCEPTION 'title % does not print back as imported', bad;
+    END IF;
+    SELECT min(nb.nconst) INTO bad
+    FROM name_basics nb
+    JOIN suggest_next.person p ON p.id = substr(nb.nconst, 3)::integer
+    WHERE nb.nconst LIKE 'nm%' AND (suggest_next.nconst(p.id) <> nb.nconst
+       OR p.birthyear::text IS DISTINCT FROM nb.birthyear);
+    IF bad IS NOT NULL THEN
+        RAISE EXCEPTION 'person % does not print back as imported', bad;
+    END IF;
+END $$;
+
+ALTER TABLE suggest_next.title ADD PRIMARY KEY (id);
+ALTER TABLE suggest_next.acting ADD PRIMARY KEY (title_id, ordering);
+ALTER TABLE suggest_next.person ADD PRIMARY KEY (id);
+ALTER TABLE suggest_next.actor ADD PRIMARY KEY (id);
+ALTER TABLE suggest_next.genre ADD PRIMARY KEY (name);
+
+-- /api/movies sorts by rating desc, votes desc, unrated last, then id. Unrated maps to -1 and the
+-- keys are negated so that one ascending index serves the sort and the keyset cursor alike.
+CREATE INDEX title_type_year_rank ON suggest_next.title
+    (titletype, startyear, (-coalesce(rating, -1)), (-coalesce(votes, -1)), id);
+CREATE INDEX title_movie_rank ON suggest_next.title
+    ((-coalesce(rating, -1)), (-coalesce(votes, -1)), id) WHERE titletype = 'movie';
+CREATE INDEX title_genres ON suggest_next.title USING gin (genres);
+CREATE INDEX acting_person_title ON suggest_next.acting (person_id, title_id);
+CREATE INDEX person_name_trgm ON suggest_next.person USING gin (primaryname gin_trgm_ops);
+-- Substring search goes through the trigrams; short word-prefix queries walk the ranking until the limit
+CREATE INDEX actor_folded_trgm ON suggest_next.actor USING gin (folded gin_trgm_ops);
+CREATE INDEX actor_rank ON suggest_next.actor (total_votes DESC, film_count DESC, id);
+
+ANALYZE suggest_next.title;
+ANALYZE suggest_next.acting;
+ANALYZE suggest_next.person;
+ANALYZE suggest_next.actor;
+ANALYZE suggest_next.genre;
+
+BEGIN;
+DROP SCHEMA IF EXISTS suggest_old CASCADE;
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_namespace WHERE nspname = 'suggest') THEN
+        ALTER SCHEMA suggest RENAME TO suggest_old;
+    END IF;
+END $$;
+ALTER SCHEMA suggest_next RENAME TO suggest;
+COMMIT;
+DROP SCHEMA IF EXISTS suggest_old CASCADE;
@@ -0,0 +1,147 @@
+-- Plans and timings of the Suggestor's main queries, first against the imported tables, then against
+-- schema "suggest" built by db-init/04-derived-schema.sql. Run each section twice and compare the
+-- second run, so both read from a warm cache:
+--   psql -U imdb -d imdb -f db/explain-suggestor.sql > explain.txt
+--
+-- Execution times of the second run, 2026-10-17, PostgreSQL 16 on 1 CPU with shared_buffers=512MB
+-- and work_mem=64MB, against synthetic data at about a tenth of the full import (1.1M titles, 6.0M
+-- principals, 1.4M people). The full import is larger and slower on the raw tables; rerun before
+-- quoting these. Building suggest from the same data took 49 s.
+--
+--   query                               raw tables    suggest
+--   /api/movies?genre=Drama&year=1999     824.6 ms    17.5 ms
+--   /api/movies, first page               605.7 ms     0.09 ms
+--   /api/movies?actorId=...              1712.1 ms    58.8 ms
+--   /api/movies/{id} cast                1790.7 ms     0.07 ms
+--   /api/actors/{id} top films           1815.5 ms    88.5 ms
+--   /api/actors/{id}/costars             4111.4 ms    73.5 ms
+--   /api/actors/search?q=hanks            802.8 ms     0.29 ms
+--   /api/actors/search?q=to                  -        0.27 ms
+
+\set actor '''nm0000158'''
+\set actor_id 158
+\set movie '''tt0133093'''
+\set movie_id 133093
+
+\echo '=== /api/movies?genre=Drama&year=1999, raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT tb.tconst, tb.primarytitle, tb.startyear, tb.genres, tr.averagerating, tr.numvotes
+FROM title_basics tb LEFT JOIN title_ratings tr ON tr.tconst = tb.tconst
+WHERE tb.titletype = 'movie' AND tb.genres ILIKE '%Drama%' AND tb.startyear = '1999'
+ORDER BY -coalesce(tr.averagerating::numeric, -1), -coalesce(tr.numvotes::numeric, -1), tb.tconst
+LIMIT 20;
+
+\echo '=== /api/movies?genre=Drama&year=1999, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.tconst(t.id), t.primarytitle, t.startyear, t.genres, t.rating, t.votes
+FROM suggest.title t
+WHERE t.titletype = 'movie'
+  AND t.genres && (SELECT array_agg(g.name) FROM suggest.genre g WHERE g.name ILIKE '%Drama%')
+  AND t.startyear = 1999
+ORDER BY -coalesce(t.rating, -1), -coalesce(t.votes, -1), t.id
+LIMIT 20;
+
+\echo '=== /api/movies, first page, raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT tb.tconst, tb.primarytitle, tb.startyear, tb.genres, tr.averagerating, tr.numvotes
+FROM title_basics tb LEFT JOIN title_ratings tr ON tr.tconst = tb.tconst
+WHERE tb.titletype = 'movie'
+ORDER BY -coalesce(tr.averagerating::numeric, -1), -coalesce(tr.numvotes::numeric, -1), tb.tconst
+LIMIT 20;
+
+\echo '=== /api/movies, first page, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.tconst(t.id), t.primarytitle, t.startyear, t.genres, t.rating, t.votes
+FROM suggest.title t
+WHERE t.titletype = 'movie'
+ORDER BY -coalesce(t.rating, -1), -coalesce(t.votes, -1), t.id
+LIMIT 20;
+
+\echo '=== /api/movies?actorId=..., raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT tb.tconst, tb.primarytitle, tb.startyear, tb.genres, tr.averagerating, tr.numvotes
+FROM title_basics tb LEFT JOIN title_ratings tr ON tr.tconst = tb.tconst
+WHERE tb.titletype = 'movie'
+  AND EXISTS (SELECT 1 FROM title_principals tp WHERE tp.tconst = tb.tconst AND tp.nconst = :actor AND tp.category IN ('actor', 'actress'))
+ORDER BY -coalesce(tr.averagerating::numeric, -1), -coalesce(tr.numvotes::numeric, -1), tb.tconst
+LIMIT 20;
+
+\echo '=== /api/movies?actorId=..., suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.tconst(t.id), t.primarytitle, t.startyear, t.genres, t.rating, t.votes
+FROM suggest.title t
+WHERE t.titletype = 'movie'
+  AND EXISTS (SELECT 1 FROM suggest.acting a WHERE a.title_id = t.id AND a.person_id = :actor_id)
+ORDER BY -coalesce(t.rating, -1), -coalesce(t.votes, -1), t.id
+LIMIT 20;
+
+\echo '=== /api/movies/{id} cast, raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT nb.nconst, nb.primaryname, tp.category
+FROM title_principals tp JOIN name_basics nb ON nb.nconst = tp.nconst
+WHERE tp.tconst = :movie AND tp.category IN ('actor', 'actress')
+ORDER BY nb.primaryname;
+
+\echo '=== /api/movies/{id} cast, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.nconst(p.id), p.primaryname, a.category
+FROM suggest.acting a JOIN suggest.person p ON p.id = a.person_id
+WHERE a.title_id = :movie_id
+ORDER BY p.primaryname;
+
+\echo '=== /api/actors/{id} top films, raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT tb.tconst, tb.primarytitle, tr.averagerating::numeric * ln(1 + tr.numvotes::numeric) AS score
+FROM title_principals tp
+JOIN title_basics tb ON tb.tconst = tp.tconst AND tb.titletype = 'movie'
+LEFT JOIN title_ratings tr ON tr.tconst = tb.tconst
+WHERE tp.nconst = :actor AND tp.category IN ('actor', 'actress')
+ORDER BY score DESC NULLS LAST, tr.averagerating::numeric DESC NULLS LAST, tr.numvotes::numeric DESC NULLS LAST, tb.tconst
+LIMIT 10;
+
+\echo '=== /api/actors/{id} top films, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.tconst(t.id), t.primarytitle, t.score
+FROM suggest.acting a
+JOIN suggest.title t ON t.id = a.title_id AND t.titletype = 'movie'
+WHERE a.person_id = :actor_id
+ORDER BY t.score DESC NULLS LAST, t.rating DESC NULLS LAST, t.votes DESC NULLS LAST, t.id
+LIMIT 10;
+
+\echo '=== /api/actors/{id}/costars, raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT nb.nconst, nb.primaryname, count(DISTINCT tp2.tconst) AS shared
+FROM title_principals tp1
+JOIN title_basics tb ON tb.tconst = tp1.tconst AND tb.titletype = 'movie'
+JOIN title_principals tp2 ON tp2.tconst = tp1.tconst AND tp2.nconst <> tp1.nconst AND tp2.category IN ('actor', 'actress')
+JOIN name_basics nb ON nb.nconst = tp2.nconst
+WHERE tp1.nconst = :actor AND tp1.category IN ('actor', 'actress')
+GROUP BY nb.nconst, nb.primaryname
+ORDER BY shared DESC, nb.nconst
+LIMIT 20;
+
+\echo '=== /api/actors/{id}/costars, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.nconst(p.id), p.primaryname, count(DISTINCT a2.title_id) AS shared
+FROM suggest.acting a1
+JOIN suggest.title t ON t.id = a1.title_id AND t.titletype = 'movie'
+JOIN suggest.acting a2 ON a2.title_id = a1.title_id AND a2.person_id <> a1.person_id
+JOIN suggest.person p ON p.id = a2.person_id
+WHERE a1.person_id = :actor_id
+GROUP BY p.id, p.primaryname
+ORDER BY shared DESC, p.id
+LIMIT 20;
+
+\echo '=== /api/actors/search?q=hanks, raw tables'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT nconst, primaryname, birthyear FROM name_basics WHERE primaryname ILIKE '%hanks%' ORDER BY primaryname LIMIT 10;
+
+\echo '=== /api/actors/search?q=hanks, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.nconst(p.id), p.primaryname, p.birthyear FROM suggest.actor p
+WHERE p.folded LIKE '%hanks%' ORDER BY p.total_votes DESC, p.film_count DESC, p.id LIMIT 10;
+
+\echo '=== /api/actors/search?q=to, suggest'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT suggest.nconst(p.id), p.primaryname, p.birthyear FROM suggest.actor p
+WHERE p.folded ~ '(^|[ .''-])to' ORDER BY p.total_votes DESC, p.film_count DESC, p.id LIMIT 10;